@@ -4,6 +4,7 @@
 import com.colobu.rpcx.config.Constants;
 import com.colobu.rpcx.config.NettyClientConfig;
 import com.colobu.rpcx.discovery.IServiceDiscovery;
+import com.colobu.rpcx.exception.RemotingConnectException;
 import com.colobu.rpcx.exception.RemotingSendRequestException;
 import com.colobu.rpcx.exception.RemotingTimeoutException;
 import com.colobu.rpcx.exception.RemotingTooMuchRequestException;
@@ -12,18 +13,27 @@
 import com.colobu.rpcx.protocol.RemotingCommand;
 import com.colobu.rpcx.rpc.RpcContext;
 import com.colobu.rpcx.rpc.RpcException;
+import com.colobu.rpcx.rpc.URL;
+import com.colobu.rpcx.rpc.impl.RpcConsumerInvoker;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.channel.unix.DomainSocketChannel;
+import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
 import io.netty.util.concurrent.DefaultEventExecutorGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -43,28 +53,89 @@ public class NettyClient extends NettyRemotingAbstract implements IClient {
 
     private final long CallTimeOut = TimeUnit.SECONDS.toMillis(3);
 
+    /**
+     * 异步请求的超时和重连的时间轮(收到结果后取消),scanResponseTable只是兜底
+     */
+    private final HashedWheelTimer timeoutTimer = new HashedWheelTimer(new NamedThreadFactory("RpcxTimeoutTimer_"),
+            Long.parseLong(Config.ins().get("rpcx.timeout.tick.ms", "10")), TimeUnit.MILLISECONDS, 512);
+
     protected final NettyEventExecuter nettyEventExecuter = new NettyEventExecuter();
 
     private Bootstrap bootstrap;
 
+    /**
+     * 连本机提供方用的unix domain socket(transport不支持的话为null)
+     */
+    private Bootstrap domainSocketBootstrap;
+
+    /**
+     * 地址 -> 提供方注册的unix domain socket路径(""表示走tcp)
+     */
+    private final ConcurrentHashMap<String, String> unixSocketPaths = new ConcurrentHashMap<>();
+
     private final IServiceDiscovery serviceDiscovery;
 
     protected final Semaphore semaphoreAsync;
 
     protected final Semaphore semaphoreOneway;
 
+    /**
+     * 每个服务地址建立的连接数
+     */
+    private final int connectionsPerAddr = Integer.parseInt(Config.ins().get("rpcx.client.connections.per.addr", "1"));
+
+    /**
+     * 不可写的连接在选择时加上这个惩罚值,尽量不往上面写
+     */
+    private static final int UNWRITABLE_PENALTY = 1 << 20;
+
+    /**
+     * 编解码和结果回调直接在io线程上执行,少一次线程切换(回调里不能有阻塞操作)
+     * callAsync返回的future仍然在callbackExecutor上complete,用户的后续操作不会跑在io线程上
+     */
+    private final boolean codecOnEventLoop = Boolean.parseBoolean(Config.ins().get("rpcx.client.codec.on.eventloop", "false"));
+
+    private final Transport transport = Transport.select();
+
+    private static final AttributeKey<ChannelWrapper> CHANNEL_WRAPPER = AttributeKey.valueOf("rpcx.channel.wrapper");
+
+    /**
+     * 连接失败后的重连退避(指数增长,有上限)
+     */
+    private final long reconnectBackoffMillis = Long.parseLong(Config.ins().get("rpcx.client.reconnect.backoff.ms", "100"));
+
+    private final long reconnectMaxBackoffMillis = Long.parseLong(Config.ins().get("rpcx.client.reconnect.backoff.max.ms", "10000"));
+
+    /**
+     * 后台最多连续重连的次数,超过后只在有调用时才重连
+     */
+    private final int reconnectMaxRetries = Integer.parseInt(Config.ins().get("rpcx.client.reconnect.max.retries", "16"));
+
 
     public NettyClient(IServiceDiscovery serviceDiscovery) {
         this.semaphoreOneway = new Semaphore(1000, true);
         this.semaphoreAsync = new Semaphore(1000, true);
         this.serviceDiscovery = serviceDiscovery;
-        this.eventLoopGroupWorker = new NioEventLoopGroup(1, new NamedThreadFactory("NettyClientSelector_"));
-        this.defaultEventExecutorGroup = new DefaultEventExecutorGroup(nettyClientConfig.getClientWorkerThreads(), new NamedThreadFactory("NettyClientWorkerThread_"));
+        //多个连接分散到多个io线程上
+        int ioThreads = Integer.parseInt(Config.ins().get("rpcx.client.io.threads",
+                String.valueOf(Math.min(connectionsPerAddr, Runtime.getRuntime().availableProcessors()))));
+        logger.info("----->client use transport:{}", transport);
+        this.eventLoopGroupWorker = transport.newEventLoopGroup(ioThreads, new NamedThreadFactory("NettyClientSelector_"));
+        if (!codecOnEventLoop) {
+            this.defaultEventExecutorGroup = new DefaultEventExecutorGroup(nettyClientConfig.getClientWorkerThreads(), new NamedThreadFactory("NettyClientWorkerThread_"));
+        }
 
         this.bootstrap = createBootstrap();
+        if (transport.supportsDomainSocket() && Boolean.parseBoolean(Config.ins().get("rpcx.client.unix.socket", "true"))) {
+            this.domainSocketBootstrap = createDomainSocketBootstrap();
+        }
 
         startScanResponseTableSchedule();
         runEventListener();
+        if (null != serviceDiscovery) {
+            //提供方重新注册(重启、换了socket路径)后重新解析,之前回退到tcp的地址也有机会再走domain socket
+            serviceDiscovery.addListener(serviceName -> this.unixSocketPaths.clear());
+        }
     }
 
     private void runEventListener() {
@@ -74,30 +145,47 @@ private void runEventListener() {
     }
 
     private Bootstrap createBootstrap() {
-        return new Bootstrap().group(this.eventLoopGroupWorker).channel(NioSocketChannel.class)
+        return new Bootstrap().group(this.eventLoopGroupWorker).channel(transport.socketChannelClass())
+                .option(ChannelOption.ALLOCATOR, nettyClientConfig.isClientPooledByteBufAllocatorEnable() ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT)
                 .option(ChannelOption.TCP_NODELAY, true)
                 .option(ChannelOption.SO_KEEPALIVE, false)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, nettyClientConfig.getConnectTimeoutMillis())
                 .option(ChannelOption.SO_SNDBUF, nettyClientConfig.getClientSocketSndBufSize())
                 .option(ChannelOption.SO_RCVBUF, nettyClientConfig.getClientSocketRcvBufSize())
-                .handler(new ChannelInitializer<SocketChannel>() {
-                    @Override
-                    public void initChannel(SocketChannel ch) {
-                        ch.pipeline().addLast(
-                                defaultEventExecutorGroup,
-                                new NettyEncoder(),
-                                new NettyDecoder(),
-                                //*空闲状态的handler
-                                new IdleStateHandler(0, 0, nettyClientConfig.getClientChannelMaxIdleTimeSeconds()),
-                                //管理连接的
-                                new NettyConnetManageHandler(NettyClient.this),
-                                //处理具体业务逻辑的handler
-                                new NettyClientHandler(NettyClient.this));
-                    }
-                });
+                .handler(createChannelInitializer());
+    }
+
+    private Bootstrap createDomainSocketBootstrap() {
+        return new Bootstrap().group(this.eventLoopGroupWorker).channel(transport.domainSocketChannelClass())
+                .option(ChannelOption.ALLOCATOR, nettyClientConfig.isClientPooledByteBufAllocatorEnable() ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, nettyClientConfig.getConnectTimeoutMillis())
+                .handler(createChannelInitializer());
     }
 
+    private ChannelInitializer<Channel> createChannelInitializer() {
+        return new ChannelInitializer<Channel>() {
+            @Override
+            public void initChannel(Channel ch) {
+                //defaultEventExecutorGroup为null时handler在io线程上执行
+                ch.pipeline().addLast(
+                        defaultEventExecutorGroup,
+                        new NettyEncoder(),
+                        new NettyDecoder(),
+                        //*空闲状态的handler
+                        new IdleStateHandler(0, 0, nettyClientConfig.getClientChannelMaxIdleTimeSeconds()),
+                        //管理连接的
+                        new NettyConnetManageHandler(NettyClient.this),
+                        //处理具体业务逻辑的handler
+                        new NettyClientHandler(NettyClient.this));
+            }
+        };
+    }
+
+    /**
+     * 超时由时间轮处理,这里只是兜底
+     */
     public void startScanResponseTableSchedule() {
+        long period = Long.parseLong(Config.ins().get("rpcx.response.table.scan.period", "10000"));
         ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("ClientHouseKeepingService"));
         executor.scheduleAtFixedRate(() -> {
             try {
@@ -105,7 +193,7 @@ public void startScanResponseTableSchedule() {
             } catch (Exception e) {
                 logger.error("scanResponseTable exception", e);
             }
-        }, 3000, 3000, TimeUnit.MILLISECONDS);
+        }, period, period, TimeUnit.MILLISECONDS);
     }
 
 
@@ -131,6 +219,7 @@ public Message call(Message req, long timeoutMillis, String sendType) throws Exc
         if (StringUtils.isEmpty(serviceAddr)) {
             throw new RpcException("service addr is null  call method:" + req.getServiceMethod());
         } else {
+            resolveUnixSocketPath(req.getServicePath(), serviceAddr);
             channel = this.getAndCreateChannel(serviceAddr);
         }
         setHostAndPort(req, channel);
@@ -152,6 +241,44 @@ public Message call(Message req, long timeoutMillis, String sendType) throws Exc
         return res;
     }
 
+    @Override
+    public CompletableFuture<Message> callAsync(Message req, long timeoutMillis) throws Exception {
+        String serviceAddr = RpcContext.getContext().getServiceAddr();
+        if (StringUtils.isEmpty(serviceAddr)) {
+            throw new RpcException("service addr is null  call method:" + req.getServiceMethod());
+        }
+        resolveUnixSocketPath(req.getServicePath(), serviceAddr);
+        Channel channel = this.getAndCreateChannel(serviceAddr);
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        this.invokeAsyncImpl(channel, RemotingCommand.createRequestCommand(req), timeoutMillis, responseFuture -> {
+            RemotingCommand response = responseFuture.getResponseCommand();
+            Runnable complete;
+            if (null != response) {
+                complete = () -> future.complete(response.getMessage());
+            } else if (null != responseFuture.getCause()) {
+                complete = () -> future.completeExceptionally(responseFuture.getCause());
+            } else {
+                complete = () -> future.completeExceptionally(new RemotingTimeoutException(serviceAddr, timeoutMillis));
+            }
+            //用户在future上挂的后续操作会在complete的线程上执行,不能让它们跑在io线程(或时间轮线程)上
+            if (codecOnEventLoop || channel.eventLoop().inEventLoop()) {
+                completeOnCallbackExecutor(complete);
+            } else {
+                complete.run();
+            }
+        });
+        return future;
+    }
+
+    private void completeOnCallbackExecutor(Runnable complete) {
+        try {
+            this.getCallbackExecutor().execute(complete);
+        } catch (RejectedExecutionException e) {
+            //callbackExecutor已经关闭
+            complete.run();
+        }
+    }
+
     private void setHostAndPort(Message req, Channel channel) {
 //        String host = "";
 //        int port = 0;
@@ -165,68 +292,173 @@ private void setHostAndPort(Message req, Channel channel) {
     }
 
 
-    private Channel getAndCreateChannel(final String addr) throws InterruptedException {
-        ChannelWrapper cw = this.channelTables.get(addr);
-        if (cw != null && cw.isOK()) {
-            return cw.getChannel();
+    /**
+     * 一个地址上有多个连接时,选等待返回的请求最少的可写连接
+     * 缺少的连接在后台补上,不阻塞本次调用
+     * 一个可用的连接都没有时,返回正在建立的连接(请求排在上面,连上后发出)
+     */
+    private Channel getAndCreateChannel(final String addr) throws RemotingConnectException {
+        Channel selected = null;
+        Channel connecting = null;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < connectionsPerAddr; i++) {
+            ChannelWrapper cw = this.connect(addr, i);
+            if (null == cw) {
+                continue;
+            }
+            if (cw.isOK()) {
+                Channel channel = cw.getChannel();
+                int load = getResponseTable(channel).size() + (channel.isWritable() ? 0 : UNWRITABLE_PENALTY);
+                if (load < min) {
+                    min = load;
+                    selected = channel;
+                }
+            } else if (null == connecting && cw.isConnecting()) {
+                connecting = cw.getChannel();
+            }
+        }
+        if (null != selected) {
+            return selected;
         }
-        return this.createChannel(addr);
+        if (null != connecting) {
+            return connecting;
+        }
+        //都在重连退避中,直接失败
+        throw new RemotingConnectException(addr);
     }
 
 
-    private Channel createChannel(final String addr) throws InterruptedException {
-        ChannelWrapper cw = this.channelTables.get(addr);
-        if (cw != null && cw.isOK()) {
-            return cw.getChannel();
+    /**
+     * 提供方注册时带了unix domain socket路径,并且就在本机,就走domain socket(每个地址只查一次,服务发现有变化后重新查)
+     */
+    void resolveUnixSocketPath(String serviceName, String addr) {
+        if (null == this.domainSocketBootstrap || null == this.serviceDiscovery || this.unixSocketPaths.containsKey(addr)) {
+            return;
         }
-
-        if (this.lockChannelTables.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
-            try {
-                boolean createNewConnection = false;
-                cw = this.channelTables.get(addr);
-                if (cw != null) {
-                    if (cw.isOK()) {
-                        return cw.getChannel();
-                    } else if (!cw.getChannelFuture().isDone()) {
-                        createNewConnection = false;
-                    } else {
-                        this.channelTables.remove(addr);
-                        createNewConnection = true;
+        String path = "";
+        try {
+            for (String service : this.serviceDiscovery.getServices(serviceName)) {
+                URL url = URL.valueOf(service);
+                if (addr.equals(url.getAddress())) {
+                    String p = url.getParameter(Constants.UNIX_SOCKET_KEY, "");
+                    if (!p.isEmpty() && NetUtils.isLocalAddress(url.getHost()) && new File(p).exists()) {
+                        path = p;
                     }
-                } else {
-                    createNewConnection = true;
+                    break;
                 }
-                //需要创建新的连接
-                if (createNewConnection) {
-                    ChannelFuture channelFuture = this.bootstrap.connect(string2SocketAddress(addr));
-                    logger.info("createChannel: begin to connect remote host[{}] asynchronously", addr);
-                    cw = new ChannelWrapper(channelFuture);
-                    this.channelTables.put(addr, cw);
-                }
-            } catch (Exception e) {
-                logger.error("createChannel: create channel exception", e);
-            } finally {
-                this.lockChannelTables.unlock();
             }
-        } else {
-            logger.warn("createChannel: try to lock channel table, but timeout, {}ms", LockTimeoutMillis);
+        } catch (Exception e) {
+            logger.warn("resolve unix socket path error:{}", e.getMessage());
+        }
+        if (null == this.unixSocketPaths.putIfAbsent(addr, path) && !path.isEmpty()) {
+            logger.info("provider {} is local, use unix domain socket {}", addr, path);
         }
+    }
 
-        if (cw != null) {
-            ChannelFuture channelFuture = cw.getChannelFuture();
-            if (channelFuture.awaitUninterruptibly(this.nettyClientConfig.getConnectTimeoutMillis())) {
-                if (cw.isOK()) {
-                    logger.info("createChannel: connect remote host[{}] success, {}", addr, channelFuture.toString());
-                    return cw.getChannel();
-                } else {
-                    logger.warn("createChannel: connect remote host[" + addr + "] failed, " + channelFuture.toString(), channelFuture.cause());
+
+    String getUnixSocketPath(String addr) {
+        return this.unixSocketPaths.get(addr);
+    }
+
+
+    private String channelKey(String addr, int index) {
+        return index == 0 ? addr : addr + "#" + index;
+    }
+
+
+    /**
+     * 需要发起新的连接:没有连接,或者连接已经断了并且过了退避时间
+     */
+    private boolean needConnect(ChannelWrapper cw) {
+        return null == cw || (!cw.isOK() && !cw.isConnecting() && System.currentTimeMillis() >= cw.getNextConnectTime());
+    }
+
+
+    /**
+     * 发起连接(不等待连接完成,也不加全局锁,同一个地址同时只会有一个连接在建立)
+     *
+     * @return 这个槽位上的连接(可能已连上、正在连接或者在退避中)
+     */
+    private ChannelWrapper connect(final String addr, final int index) {
+        final String key = channelKey(addr, index);
+        ChannelWrapper cw = this.channelTables.get(key);
+        if (!needConnect(cw)) {
+            return cw;
+        }
+        try {
+            return this.channelTables.compute(key, (k, old) -> {
+                if (!needConnect(old)) {
+                    return old;
                 }
+                //上次是连接失败的,累计失败次数;连上过之后断开的从头算
+                int failures = null != old && old.isConnectFailed() ? old.getConnectFailures() + 1 : 0;
+                String unixSocketPath = this.unixSocketPaths.get(addr);
+                ChannelFuture channelFuture = StringUtils.isEmpty(unixSocketPath)
+                        ? this.bootstrap.connect(string2SocketAddress(addr))
+                        : this.domainSocketBootstrap.connect(new DomainSocketAddress(unixSocketPath));
+                logger.info("createChannel: begin to connect remote host[{}] asynchronously", k);
+                ChannelWrapper wrapper = new ChannelWrapper(addr, channelFuture, failures);
+                channelFuture.channel().attr(CHANNEL_WRAPPER).set(wrapper);
+                channelFuture.addListener((ChannelFutureListener) f -> onConnectComplete(wrapper, index));
+                return wrapper;
+            });
+        } catch (Exception e) {
+            logger.error("createChannel: create channel exception", e);
+            return cw;
+        }
+    }
+
+
+    private void onConnectComplete(final ChannelWrapper cw, final int index) {
+        ChannelFuture channelFuture = cw.getChannelFuture();
+        if (channelFuture.isSuccess()) {
+            logger.info("createChannel: connect remote host[{}] success, {}", cw.getAddr(), channelFuture.toString());
+            channelFuture.channel().closeFuture().addListener(f -> RpcConsumerInvoker.removeProviders(cw.getAddr()));
+            return;
+        }
+        if (cw.getChannel() instanceof DomainSocketChannel) {
+            //domain socket连不上(提供方重启后没有开启等),改走tcp,不做退避
+            logger.warn("connect unix socket of [{}] failed, fall back to tcp", cw.getAddr());
+            this.unixSocketPaths.put(cw.getAddr(), "");
+            return;
+        }
+        long backoff = Math.min(reconnectBackoffMillis << Math.min(cw.getConnectFailures(), 20), reconnectMaxBackoffMillis);
+        cw.setNextConnectTime(System.currentTimeMillis() + backoff);
+        logger.warn("createChannel: connect remote host[" + cw.getAddr() + "] failed, retry after " + backoff + "ms, " + channelFuture.toString(), channelFuture.cause());
+        //后台重连,不占用调用方线程
+        if (cw.getConnectFailures() < reconnectMaxRetries) {
+            this.timeoutTimer.newTimeout(t -> this.connect(cw.getAddr(), index), backoff, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * 连接还没建好时请求排在连接上,连上后再发出(调用方只等自己的超时)
+     */
+    private ChannelFuture write(final Channel channel, final RemotingCommand request) {
+        ChannelWrapper cw = channel.attr(CHANNEL_WRAPPER).get();
+        if (null == cw || !cw.isConnecting()) {
+            return channel.writeAndFlush(request);
+        }
+        final ChannelPromise promise = channel.newPromise();
+        cw.getChannelFuture().addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                channel.writeAndFlush(request, promise);
             } else {
-                logger.warn("createChannel: connect remote host[{}] timeout {}ms, {}", addr, this.nettyClientConfig.getConnectTimeoutMillis(),
-                        channelFuture.toString());
+                request.release();
+                promise.tryFailure(new RemotingConnectException(cw.getAddr(), f.cause()));
             }
-        }
-        return null;
+        });
+        return promise;
+    }
+
+
+    /**
+     * 连接还没建好的时候remoteAddress是空的
+     */
+    private String remoteAddr(final Channel channel) {
+        ChannelWrapper cw = channel.attr(CHANNEL_WRAPPER).get();
+        return null != cw ? cw.getAddr() : RemotingHelper.parseChannelRemoteAddr(channel);
     }
 
 
@@ -239,11 +471,12 @@ public static SocketAddress string2SocketAddress(final String addr) {
     public void invokeOnewayImpl(final Channel channel, final RemotingCommand request, final long timeoutMillis)
             throws InterruptedException, RemotingTooMuchRequestException, RemotingTimeoutException, RemotingSendRequestException {
         request.markOnewayRPC();
+        request.setOpaque(getResponseTable(channel).nextId());
         boolean acquired = this.semaphoreOneway.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
         if (acquired) {
             final SemaphoreReleaseOnlyOnce once = new SemaphoreReleaseOnlyOnce(this.semaphoreOneway);
             try {
-                channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+                write(channel, request).addListener(new ChannelFutureListener() {
                     @Override
                     public void operationComplete(ChannelFuture f) {
                         once.release();//* 释放一次限流次数
@@ -289,7 +522,9 @@ public void operationComplete(ChannelFuture f) {
     public ResponseFuture invokeAsyncImpl(final Channel channel, final RemotingCommand request, final long timeoutMillis,
                                           final InvokeCallback invokeCallback)
             throws InterruptedException, RemotingTooMuchRequestException, RemotingSendRequestException {
-        final int opaque = request.getOpaque();
+        final ResponseTable responseTable = getResponseTable(channel);
+        final long opaque = responseTable.nextId();
+        request.setOpaque(opaque);
         //达到限流作用
         boolean acquired = this.semaphoreAsync.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
         if (acquired) {
@@ -297,16 +532,22 @@ public ResponseFuture invokeAsyncImpl(final Channel channel, final RemotingComma
             final SemaphoreReleaseOnlyOnce once = new SemaphoreReleaseOnlyOnce(this.semaphoreAsync);
 
             final ResponseFuture responseFuture = new ResponseFuture(opaque, timeoutMillis, invokeCallback, once);
-            this.responseTable.put(opaque, responseFuture);
+            if (!responseTable.put(responseFuture)) {
+                responseFuture.release();
+                throw new RemotingTooMuchRequestException("invokeAsyncImpl too many pending requests on channel " + RemotingHelper.parseChannelRemoteAddr(channel));
+            }
+            scheduleTimeout(this.timeoutTimer, responseTable, responseFuture);
             try {
-                channel.writeAndFlush(request).addListener((ChannelFutureListener) f -> {
+                write(channel, request).addListener((ChannelFutureListener) f -> {
                     if (f.isSuccess()) {
                         responseFuture.setSendRequestOK(true);
                         return;
                     } else {
                         responseFuture.setSendRequestOK(false);
+                        responseFuture.setCause(f.cause());
                     }
                     //发送失败会解除阻塞
+                    responseFuture.cancelTimeout();
                     responseFuture.putResponse(null);
                     responseTable.remove(opaque);
                     try {
@@ -320,6 +561,8 @@ public ResponseFuture invokeAsyncImpl(final Channel channel, final RemotingComma
                     logger.warn("send a request command to channel <{}> failed.", RemotingHelper.parseChannelRemoteAddr(channel));
                 });
             } catch (Exception e) {
+                responseTable.remove(opaque);
+                responseFuture.cancelTimeout();
                 responseFuture.release();
                 logger.warn("send a request command to channel <" + RemotingHelper.parseChannelRemoteAddr(channel) + "> Exception", e);
                 throw new RemotingSendRequestException(RemotingHelper.parseChannelRemoteAddr(channel), e);
@@ -339,15 +582,19 @@ public ResponseFuture invokeAsyncImpl(final Channel channel, final RemotingComma
 
 
     public RemotingCommand invokeSyncImpl(final Channel channel, final RemotingCommand request, final long timeoutMillis)
-            throws InterruptedException, RemotingSendRequestException, RemotingTimeoutException {
-        final int opaque = request.getOpaque();
+            throws InterruptedException, RemotingSendRequestException, RemotingTimeoutException, RemotingTooMuchRequestException {
+        final ResponseTable responseTable = getResponseTable(channel);
+        final long opaque = responseTable.nextId();
+        request.setOpaque(opaque);
 
         try {
             final ResponseFuture responseFuture = new ResponseFuture(opaque, timeoutMillis, null, null);
-            this.responseTable.put(opaque, responseFuture);
-            final SocketAddress addr = channel.remoteAddress();
-            //通过网络发送信息
-            channel.writeAndFlush(request).addListener((ChannelFutureListener) f -> {
+            if (!responseTable.put(responseFuture)) {
+                throw new RemotingTooMuchRequestException("invokeSyncImpl too many pending requests on channel " + RemotingHelper.parseChannelRemoteAddr(channel));
+            }
+            final String addr = remoteAddr(channel);
+            //通过网络发送信息(连接还没建好的话排在连接上)
+            write(channel, request).addListener((ChannelFutureListener) f -> {
                 if (f.isSuccess()) {
                     responseFuture.setSendRequestOK(true);
                     return;
@@ -362,17 +609,38 @@ public RemotingCommand invokeSyncImpl(final Channel channel, final RemotingComma
             });
             //这里会直接阻塞住(CountDownLatch)
             RemotingCommand responseCommand = responseFuture.waitResponse(timeoutMillis);
+            //没有移除成功说明结果正在返回,等它放进来(否则包体就没人释放了)
+            if (null == responseCommand && null == responseTable.remove(opaque) && responseFuture.isSendRequestOK()) {
+                responseCommand = responseFuture.waitResponse(timeoutMillis);
+            }
             if (null == responseCommand) {
                 if (responseFuture.isSendRequestOK()) {
-                    throw new RemotingTimeoutException(addr.toString(), timeoutMillis,
+                    throw new RemotingTimeoutException(addr, timeoutMillis,
                             responseFuture.getCause());
                 } else {
-                    throw new RemotingSendRequestException(addr.toString(), responseFuture.getCause());
+                    throw new RemotingSendRequestException(addr, responseFuture.getCause());
                 }
             }
             return responseCommand;
         } finally {
-            this.responseTable.remove(opaque);
+            responseTable.remove(opaque);
+        }
+    }
+
+
+    @Override
+    protected void executeInvokeCallback(ResponseFuture responseFuture) {
+        if (!codecOnEventLoop) {
+            super.executeInvokeCallback(responseFuture);
+            return;
+        }
+        //直接在当前(io)线程完成
+        if (responseFuture.getInvokeCallback() != null) {
+            try {
+                responseFuture.executeInvokeCallback();
+            } catch (Throwable e) {
+                logger.warn("executeInvokeCallback Exception", e);
+            }
         }
     }
 
@@ -398,6 +666,8 @@ public void close() {
             this.nettyEventExecuter.shutdown();
         }
 
+        this.timeoutTimer.stop();
+
         if (this.defaultEventExecutorGroup != null) {
             this.defaultEventExecutorGroup.shutdownGracefully();
         }
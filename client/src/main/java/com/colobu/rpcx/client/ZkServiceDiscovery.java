@@ -16,6 +16,7 @@
 import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -39,6 +40,8 @@ private Set<String> findConsumer(String consumerPackage) {
 
     private AtomicBoolean stop = new AtomicBoolean(false);
 
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
     /**
      * 自动查找依赖的服务
      *
@@ -157,7 +160,7 @@ public void watch() {
                                 return v;
                             });
                         }
-
+                        this.listeners.forEach(it -> it.accept(service));
                     }
 
                 } catch (InterruptedException e) {
@@ -176,6 +179,11 @@ public void watch() {
         });
     }
 
+    @Override
+    public void addListener(Consumer<String> listener) {
+        this.listeners.add(listener);
+    }
+
     @Override
     public void close() {
         this.queue.offer(new PathStatus(true));
@@ -1,35 +1,108 @@
 package com.colobu.rpcx.client.http;
 
+import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.common.Config;
+import com.colobu.rpcx.common.NamedThreadFactory;
 import com.colobu.rpcx.common.Pair;
+import com.colobu.rpcx.config.Constants;
 import com.colobu.rpcx.protocol.Message;
-import com.colobu.rpcx.rpc.Invocation;
 import com.colobu.rpcx.rpc.RpcException;
-import com.colobu.rpcx.rpc.URL;
-import com.colobu.rpcx.rpc.impl.RpcInvocation;
 import com.google.gson.Gson;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 /**
+ * http 调用provider(走provider端口上的http网关)
+ * 连接池复用keep-alive的连接,空闲的连接定时清理
+ * 每个 url+service+method+参数类型 的请求头和请求体的固定部分只生成一次(RequestTemplate)
+ * 异步调用在客户端自己的线程池里执行
+ *
  * @author goodjava@qq.com
  */
-public class RpcxHttpClient {
+public class RpcxHttpClient implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(RpcxHttpClient.class);
 
+    private static final Gson gson = new Gson();
+
+    private static final int timeout = Integer.parseInt(Config.ins().get("rpcx.http.client.timeout.ms", "1000"));
+
+    private static final int maxTotal = Integer.parseInt(Config.ins().get("rpcx.http.client.max.total", "200"));
+
+    private static final int maxPerRoute = Integer.parseInt(Config.ins().get("rpcx.http.client.max.per.route", "50"));
+
+    private static final long idleTimeout = Long.parseLong(Config.ins().get("rpcx.http.client.idle.timeout.ms", "30000"));
+
+    private static final int asyncThreads = Integer.parseInt(Config.ins().get("rpcx.http.client.async.threads", "16"));
+
+    /**
+     * 最多缓存多少个请求模板(url是调用方传进来的,不限制的话会一直涨)
+     */
+    private static final int maxTemplates = Integer.parseInt(Config.ins().get("rpcx.http.client.template.cache.size", "1024"));
+
+    private final CloseableHttpClient client;
+
+    private final ExecutorService executor;
+
+    /**
+     * url#service.method(参数类型) -> 请求模板
+     */
+    private final ConcurrentMap<String, RequestTemplate> templates = new ConcurrentHashMap<>();
+
+
+    public RpcxHttpClient() {
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(maxTotal);
+        manager.setDefaultMaxPerRoute(maxPerRoute);
+        //服务端空闲超时关掉的连接,复用前检查一下
+        manager.setValidateAfterInactivity(2000);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setSocketTimeout(timeout)
+                .setConnectTimeout(timeout)
+                .setConnectionRequestTimeout(timeout)
+                .build();
+        this.client = HttpClients.custom()
+                .setConnectionManager(manager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+                .build();
+        this.executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory("rpcxHttpClient", true));
+    }
+
+    /**
+     * 共用的客户端
+     */
+    public static RpcxHttpClient getDefault() {
+        return Holder.INSTANCE;
+    }
+
     /**
      * http 调用
      *
@@ -40,53 +113,139 @@ public class RpcxHttpClient {
      * @return
      */
     public static String execute(String url, String service, String method, Pair<String, String>... params) {
-        RequestConfig defaultRequestConfig = RequestConfig.custom()
-                .setSocketTimeout(1000)
-                .setConnectTimeout(1000)
-                .setConnectionRequestTimeout(1000)
-                .build();
+        return getDefault().call(url, service, method, params);
+    }
+
+    public static CompletableFuture<String> executeAsync(String url, String service, String method, Pair<String, String>... params) {
+        return getDefault().callAsync(url, service, method, params);
+    }
+
+    public String call(String url, String service, String method, Pair<String, String>... params) {
+        return template(url, service, method, types(params)).execute(values(params));
+    }
+
+    public CompletableFuture<String> callAsync(String url, String service, String method, Pair<String, String>... params) {
+        return template(url, service, method, types(params)).executeAsync(values(params));
+    }
 
-        try (CloseableHttpClient client = HttpClients.custom().setDefaultRequestConfig(defaultRequestConfig).build()) {
-            HttpPost post = new HttpPost(url);
-            post.setHeader("X-RPCX-ServicePath", service);
-            post.setHeader("X-RPCX-ServiceMethod", method);
-            post.setHeader("connection", "close");
-
-            Gson gson = new Gson();
-            Invocation invocation = new RpcInvocation();
-            String[] parameterTypeNames = new String[params.length];
-            Object[] arguments = new Object[params.length];
-            IntStream.range(0, params.length).forEach(index -> {
-                Pair<String, String> p = params[index];
-                parameterTypeNames[index] = p.getObject1();
-                arguments[index] = p.getObject2();
-            });
-
-            invocation.setParameterTypeNames(parameterTypeNames);
-            invocation.setArguments(arguments);
-
-            URL u = new URL("rpcx", "", 0);
-
-            ((RpcInvocation) invocation).setClassName(service);
-            ((RpcInvocation) invocation).setMethodName(method);
-
-            u.setServiceInterface(invocation.getClassName() + "." + invocation.getMethodName());
-            String _params = Stream.of(invocation.getArguments()).map(it -> gson.toJson(it)).collect(Collectors.joining(","));
-            u.setPath(invocation.getClassName() + "." + invocation.getMethodName() + "(" + _params + ")");
-            ((RpcInvocation) invocation).setUrl(u);
-
-            byte[] payload = new Gson().toJson(invocation).getBytes();
-
-            ByteArrayEntity entriy = new ByteArrayEntity(payload, ContentType.DEFAULT_BINARY);
-            post.setEntity(entriy);
-            HttpResponse res = client.execute(post);
-            HttpEntity resEntity = res.getEntity();
-            byte[] data = EntityUtils.toByteArray(resEntity);
-            Message message = gson.fromJson(new String(data), Message.class);
-            return new String(message.payload);
+    /**
+     * 同一个方法反复调用的时候直接用模板,只需要传参数
+     *
+     * @param parameterTypeNames 参数类型
+     */
+    public RequestTemplate template(String url, String service, String method, String... parameterTypeNames) {
+        String key = url + "#" + ClassUtils.getMethodKey(service, method, parameterTypeNames);
+        RequestTemplate template = templates.get(key);
+        if (null == template) {
+            template = new RequestTemplate(url, service, method, parameterTypeNames);
+            //满了直接清空,常用的很快会重新生成
+            if (templates.size() >= maxTemplates) {
+                templates.clear();
+            }
+            RequestTemplate old = templates.putIfAbsent(key, template);
+            if (null != old) {
+                template = old;
+            }
+        }
+        return template;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        client.close();
+    }
+
+    private String post(RequestTemplate template, String[] arguments) {
+        HttpPost post = new HttpPost(template.uri);
+        post.setHeaders(template.headers);
+        post.setEntity(new ByteArrayEntity(template.body(arguments), ContentType.DEFAULT_BINARY));
+        try (CloseableHttpResponse res = client.execute(post)) {
+            //读完返回体连接就回到连接池
+            byte[] data = EntityUtils.toByteArray(res.getEntity());
+            if (res.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                throw new RpcException("http status:" + res.getStatusLine());
+            }
+            Message message = gson.fromJson(new String(data, StandardCharsets.UTF_8), Message.class);
+            String code = message.getMetadataValue(Constants.RPCX_ERROR_CODE);
+            if (null != code) {
+                throw new RpcException(message.getMetadataValue(Constants.RPCX_ERROR_MESSAGE), code);
+            }
+            byte[] payload = message.getPayload();
+            return null == payload ? "" : new String(payload, StandardCharsets.UTF_8);
+        } catch (RpcException ex) {
+            throw ex;
         } catch (Exception ex) {
             logger.info("execute error:{}", ex.getMessage());
             throw new RpcException(ex);
         }
     }
+
+    private static String[] types(Pair<String, String>[] params) {
+        return Stream.of(params).map(Pair::getObject1).toArray(String[]::new);
+    }
+
+    private static String[] values(Pair<String, String>[] params) {
+        return Stream.of(params).map(Pair::getObject2).toArray(String[]::new);
+    }
+
+
+    /**
+     * 一个方法的请求模板
+     * 请求体是RpcInvocation的json(provider只读 parameterTypeNames 和 arguments),固定的部分提前生成好
+     */
+    public final class RequestTemplate {
+
+        private final URI uri;
+
+        private final Header[] headers;
+
+        private final String prefix;
+
+        private final int argumentSize;
+
+        private RequestTemplate(String url, String service, String method, String[] parameterTypeNames) {
+            this.uri = URI.create(url);
+            this.headers = new Header[]{
+                    new BasicHeader(Constants.X_RPCX_SERVICEPATH, service),
+                    new BasicHeader(Constants.X_RPCX_SERVICEMETHOD, method)
+            };
+            this.prefix = "{\"className\":" + gson.toJson(service)
+                    + ",\"methodName\":" + gson.toJson(method)
+                    + ",\"parameterTypeNames\":" + gson.toJson(parameterTypeNames)
+                    + ",\"arguments\":[";
+            this.argumentSize = parameterTypeNames.length;
+        }
+
+        /**
+         * @param arguments json后的参数
+         */
+        public String execute(String... arguments) {
+            return post(this, arguments);
+        }
+
+        public CompletableFuture<String> executeAsync(String... arguments) {
+            return CompletableFuture.supplyAsync(() -> post(this, arguments), executor);
+        }
+
+        private byte[] body(String[] arguments) {
+            if (arguments.length != argumentSize) {
+                throw new RpcException("arguments size error:" + arguments.length + " != " + argumentSize);
+            }
+            StringBuilder sb = new StringBuilder(prefix);
+            for (int i = 0; i < arguments.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                //参数是json编码以后的字符串
+                sb.append(gson.toJson(arguments[i]));
+            }
+            return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+
+    private static class Holder {
+        private static final RpcxHttpClient INSTANCE = new RpcxHttpClient();
+    }
 }
@@ -2,10 +2,161 @@
 
 import com.colobu.rpcx.client.http.RpcxHttpClient;
 import com.colobu.rpcx.common.Pair;
+import com.colobu.rpcx.config.Constants;
+import com.colobu.rpcx.protocol.Message;
+import com.colobu.rpcx.rpc.RpcException;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 public class RpcxHttpClientTest {
 
+    private static final Gson gson = new Gson();
+
+    private HttpServer server;
+
+    private String url;
+
+    private RpcxHttpClient client;
+
+    /**
+     * 每个请求的客户端端口,用来看连接有没有复用
+     */
+    private final List<Integer> ports = new CopyOnWriteArrayList<>();
+
+    /**
+     * 假的provider http网关:把参数拼起来返回,方法名是error/fail/slow的时候模拟出错和慢
+     */
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        client = new RpcxHttpClient();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        ports.add(exchange.getRemoteAddress().getPort());
+        JsonObject invocation = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), JsonObject.class);
+        String method = exchange.getRequestHeaders().getFirst(Constants.X_RPCX_SERVICEMETHOD);
+        Message message = new Message(exchange.getRequestHeaders().getFirst(Constants.X_RPCX_SERVICEPATH), method);
+        int status = 200;
+        if ("fail".equals(method)) {
+            status = 500;
+        } else if ("error".equals(method)) {
+            message.metadata.put(Constants.RPCX_ERROR_CODE, "1");
+            message.metadata.put(Constants.RPCX_ERROR_MESSAGE, "error message");
+        } else {
+            if ("slow".equals(method)) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(200);
+                } catch (InterruptedException e) {
+                    //ignore
+                }
+            }
+            String res = message.servicePath + "." + method + invocation.get("parameterTypeNames") + invocation.get("arguments");
+            message.payload = res.getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] data = gson.toJson(message).getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, data.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(data);
+        }
+    }
+
+    @Test
+    public void call() {
+        String res = client.call(url, "TestService", "sum", Pair.of("int", "11"), Pair.of("int", "22"));
+        Assert.assertEquals("TestService.sum[\"int\",\"int\"][\"11\",\"22\"]", res);
+        //keep-alive的连接回到连接池,下次复用
+        client.call(url, "TestService", "sum", Pair.of("int", "1"), Pair.of("int", "2"));
+        Assert.assertEquals(2, ports.size());
+        Assert.assertEquals(ports.get(0), ports.get(1));
+    }
+
+    @Test
+    public void template() {
+        RpcxHttpClient.RequestTemplate template = client.template(url, "TestService", "echo", "java.lang.String");
+        Assert.assertSame(template, client.template(url, "TestService", "echo", "java.lang.String"));
+        Assert.assertNotSame(template, client.template(url, "TestService", "echo", "int"));
+        Assert.assertEquals("TestService.echo[\"java.lang.String\"][\"\\\"a\\\"\"]", template.execute("\"a\""));
+        try {
+            template.execute("a", "b");
+            Assert.fail();
+        } catch (RpcException e) {
+            Assert.assertTrue(e.getMessage().contains("arguments size error"));
+        }
+
+        //url不同的模板太多的时候会清掉,不会一直涨
+        for (int i = 0; i < 10000; i++) {
+            client.template(url + "?i=" + i, "TestService", "echo", "java.lang.String");
+        }
+        Assert.assertNotSame(template, client.template(url, "TestService", "echo", "java.lang.String"));
+    }
+
+    @Test
+    public void error() {
+        try {
+            client.call(url, "TestService", "error");
+            Assert.fail();
+        } catch (RpcException e) {
+            Assert.assertEquals("1", e.getCode());
+            Assert.assertEquals("error message", e.getMessage());
+        }
+        try {
+            client.call(url, "TestService", "fail");
+            Assert.fail();
+        } catch (RpcException e) {
+            Assert.assertTrue(e.getMessage().contains("500"));
+        }
+        //连不上
+        String closed = url;
+        server.stop(0);
+        try {
+            client.call(closed, "TestService", "sum");
+            Assert.fail();
+        } catch (RpcException e) {
+            Assert.assertNotNull(e.getCause());
+        }
+    }
+
+    @Test
+    public void async() throws Exception {
+        CompletableFuture<String> future = client.callAsync(url, "TestService", "slow", Pair.of("int", "1"));
+        Assert.assertFalse(future.isDone());
+        Assert.assertEquals("TestService.slow[\"int\"][\"1\"]", future.get(5, TimeUnit.SECONDS));
+
+        try {
+            client.callAsync(url, "TestService", "error").get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RpcException);
+            Assert.assertEquals("1", ((RpcException) e.getCause()).getCode());
+        }
+    }
 
     @Test
     public void testExecute() {
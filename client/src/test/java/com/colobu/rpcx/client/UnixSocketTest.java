@@ -0,0 +1,125 @@
+package com.colobu.rpcx.client;
+
+import com.colobu.rpcx.discovery.IServiceDiscovery;
+import com.colobu.rpcx.netty.Transport;
+import com.colobu.rpcx.protocol.Message;
+import com.colobu.rpcx.rpc.RpcContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class UnixSocketTest {
+
+    private static final String ADDR = "127.0.0.1:1";
+
+    private static class Discovery implements IServiceDiscovery {
+
+        private volatile List<String> services;
+
+        private final List<Consumer<String>> listeners = new ArrayList<>();
+
+        @Override
+        public List<String> getServices(String serviceName) {
+            return services;
+        }
+
+        @Override
+        public void watch() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void addServices(String... serviceNames) {
+        }
+
+        @Override
+        public void addListener(Consumer<String> listener) {
+            listeners.add(listener);
+        }
+
+        void change(String... services) {
+            this.services = new ArrayList<>();
+            Collections.addAll(this.services, services);
+            listeners.forEach(it -> it.accept("Arith"));
+        }
+    }
+
+    @Test
+    public void resolve() throws Exception {
+        if (!Transport.select().supportsDomainSocket()) {
+            return;
+        }
+        File socket = File.createTempFile("rpcx", ".sock");
+        Discovery discovery = new Discovery();
+        discovery.change(ADDR + "?unix=" + socket.getPath());
+        NettyClient client = new NettyClient(discovery);
+        try {
+            //提供方在本机并且注册了socket路径
+            client.resolveUnixSocketPath("Arith", ADDR);
+            Assert.assertEquals(socket.getPath(), client.getUnixSocketPath(ADDR));
+
+            //提供方重新注册时没有带socket路径
+            discovery.change(ADDR + "?group=");
+            Assert.assertNull(client.getUnixSocketPath(ADDR));
+            client.resolveUnixSocketPath("Arith", ADDR);
+            Assert.assertEquals("", client.getUnixSocketPath(ADDR));
+
+            //不在本机的提供方不走domain socket
+            discovery.change("10.255.255.1:1?unix=" + socket.getPath());
+            client.resolveUnixSocketPath("Arith", "10.255.255.1:1");
+            Assert.assertEquals("", client.getUnixSocketPath("10.255.255.1:1"));
+        } finally {
+            client.close();
+            socket.delete();
+        }
+    }
+
+    @Test
+    public void fallback() throws Exception {
+        if (!Transport.select().supportsDomainSocket()) {
+            return;
+        }
+        //文件在,但是没有人在上面监听
+        File socket = File.createTempFile("rpcx", ".sock");
+        Discovery discovery = new Discovery();
+        discovery.change(ADDR + "?unix=" + socket.getPath());
+        NettyClient client = new NettyClient(discovery);
+        try {
+            RpcContext.getContext().setServiceAddr(ADDR);
+            CompletableFuture<Message> future = client.callAsync(new Message("Arith", "Mul"), 1000);
+            try {
+                future.get(5, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                //ignore
+            }
+            //连不上domain socket以后回退到tcp
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!"".equals(client.getUnixSocketPath(ADDR)) && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            Assert.assertEquals("", client.getUnixSocketPath(ADDR));
+
+            //服务发现有变化后重新解析
+            discovery.change(ADDR + "?unix=" + socket.getPath());
+            client.resolveUnixSocketPath("Arith", ADDR);
+            Assert.assertEquals(socket.getPath(), client.getUnixSocketPath(ADDR));
+        } finally {
+            RpcContext.removeContext();
+            client.close();
+            socket.delete();
+        }
+    }
+}
@@ -54,6 +54,13 @@ public static String getMethodKey(String className, String methodName, String[]
         return className + "." + methodName + "(" + Arrays.stream(parameterNames).collect(Collectors.joining(",")) + ")";
     }
 
+    /**
+     * 方法id(紧凑格式的请求用):方法签名 name(参数类型,...) 的hash,同一个类里唯一(导出的时候检查)
+     */
+    public static int getMethodId(String methodName, String[] parameterNames) {
+        return (methodName + "(" + String.join(",", parameterNames) + ")").hashCode();
+    }
+
     public static String[] getMethodParameterNames(Method method) {
         Class<?>[] types = method.getParameterTypes();
         return Stream.of(types).map(it -> ReflectUtils.getName(it)).toArray(String[]::new);
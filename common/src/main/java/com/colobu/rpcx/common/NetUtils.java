@@ -98,6 +98,21 @@ public static boolean isLocalHost(String host) {
                         || "localhost".equalsIgnoreCase(host));
     }
 
+    /**
+     * 是否是本机的地址(回环地址或者本机网卡上的地址)
+     */
+    public static boolean isLocalAddress(String host) {
+        if (isLocalHost(host) || isAnyHost(host)) {
+            return true;
+        }
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            return address.isLoopbackAddress() || NetworkInterface.getByInetAddress(address) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     public static boolean isAnyHost(String host) {
         return "0.0.0.0".equals(host);
     }
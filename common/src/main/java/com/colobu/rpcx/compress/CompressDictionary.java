@@ -0,0 +1,35 @@
+package com.colobu.rpcx.compress;
+
+import com.colobu.rpcx.compress.impl.DictionaryCompressor;
+
+/**
+ * 压缩字典,id = servicePath@version.node (node用来区分不同进程各自训练出来的字典)
+ *
+ * @author goodjava@qq.com
+ */
+public class CompressDictionary {
+
+    private final String id;
+
+    private final byte[] data;
+
+    private final Compressor compressor;
+
+    public CompressDictionary(String id, byte[] data) {
+        this.id = id;
+        this.data = data;
+        this.compressor = new DictionaryCompressor(data);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public Compressor getCompressor() {
+        return compressor;
+    }
+}
@@ -0,0 +1,88 @@
+package com.colobu.rpcx.compress;
+
+import com.colobu.rpcx.common.Config;
+import com.colobu.rpcx.protocol.CompressType;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 决定一个payload是否值得压缩
+ * 1.小于最小长度的不压缩(rpcx.compress.min.size,可以按servicePath单独配置 rpcx.compress.min.size.{servicePath})
+ * 2.按servicePath和压缩类型分别统计压缩率,压缩率太差(压缩后/压缩前 大于 rpcx.compress.max.ratio)的时候跳过后面的N次压缩,然后再重新采样
+ *
+ * @author goodjava@qq.com
+ */
+public class CompressPolicy {
+
+    private static final int MIN_SIZE = Integer.parseInt(Config.ins().get("rpcx.compress.min.size", "1024"));
+
+    private static final double MAX_RATIO = Double.parseDouble(Config.ins().get("rpcx.compress.max.ratio", "0.9"));
+
+    private static final int SKIP_NUM = Integer.parseInt(Config.ins().get("rpcx.compress.skip.num", "256"));
+
+    /**
+     * servicePath -> 每种压缩类型的统计(下标是CompressType.value())
+     */
+    private static final ConcurrentMap<String, Stat[]> stats = new ConcurrentHashMap<>();
+
+    private static class Stat {
+        private final int minSize;
+        /**
+         * 压缩率的滑动平均值
+         */
+        private volatile double ratio;
+        private final AtomicInteger skip = new AtomicInteger();
+
+        private Stat(int minSize) {
+            this.minSize = minSize;
+        }
+    }
+
+    private static Stat stat(String servicePath, CompressType type) {
+        String key = null == servicePath ? "" : servicePath;
+        Stat[] s = stats.get(key);
+        if (null == s) {
+            int minSize = Integer.parseInt(Config.ins().get("rpcx.compress.min.size." + key, String.valueOf(MIN_SIZE)));
+            s = stats.computeIfAbsent(key, k -> {
+                Stat[] a = new Stat[CompressType.values().length];
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = new Stat(minSize);
+                }
+                return a;
+            });
+        }
+        return s[type.value()];
+    }
+
+    public static boolean shouldCompress(String servicePath, CompressType type, int len) {
+        return shouldCompress(servicePath, type, len, stat(servicePath, type).minSize);
+    }
+
+    public static boolean shouldCompress(String servicePath, CompressType type, int len, int minSize) {
+        Stat stat = stat(servicePath, type);
+        if (len < minSize) {
+            return false;
+        }
+        //并发下多跳过或者少跳过几次都没关系
+        if (stat.skip.get() > 0) {
+            stat.skip.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public static void record(String servicePath, CompressType type, int len, int compressedLen) {
+        Stat stat = stat(servicePath, type);
+        double r = (double) compressedLen / len;
+        double ratio = stat.ratio == 0 ? r : stat.ratio * 0.8 + r * 0.2;
+        if (ratio > MAX_RATIO) {
+            stat.skip.set(SKIP_NUM);
+            //下次重新采样
+            ratio = 0;
+        }
+        stat.ratio = ratio;
+    }
+
+}
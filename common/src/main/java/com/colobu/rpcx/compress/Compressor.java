@@ -0,0 +1,41 @@
+package com.colobu.rpcx.compress;
+
+import com.colobu.rpcx.common.Config;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * 压缩算法(payload级别),实现需要是线程安全的
+ *
+ * @author goodjava@qq.com
+ */
+public interface Compressor {
+
+    /**
+     * 解压后的最大长度(默认和解码的最大帧长度一样),很小的包也可能解压出很大的数据
+     */
+    int MAX_DECOMPRESSED_LENGTH = Integer.parseInt(Config.ins().get("rpcx.decompress.max.length",
+            Config.ins().get("rpcx.decode.max.frame.length", String.valueOf(Integer.MAX_VALUE))));
+
+    byte[] compress(byte[] data) throws IOException;
+
+    /**
+     * @param data 包体上的视图(不做拷贝),实现可以移动它的readerIndex
+     * @return
+     * @throws IOException 解压后超过 MAX_DECOMPRESSED_LENGTH 的时候也会抛
+     */
+    default byte[] decompress(ByteBuf data) throws IOException {
+        return decompress(data, MAX_DECOMPRESSED_LENGTH);
+    }
+
+    /**
+     * @param maxLength 解压出来超过这个长度就停止,抛IOException
+     */
+    byte[] decompress(ByteBuf data, int maxLength) throws IOException;
+
+    static IOException tooLarge(int maxLength) {
+        return new IOException("decompressed data exceeds max length:" + maxLength);
+    }
+
+}
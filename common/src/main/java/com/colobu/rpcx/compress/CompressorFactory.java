@@ -0,0 +1,65 @@
+package com.colobu.rpcx.compress;
+
+import com.colobu.rpcx.common.Config;
+import com.colobu.rpcx.compress.impl.GzipCompressor;
+import com.colobu.rpcx.compress.impl.SnappyCompressor;
+import com.colobu.rpcx.protocol.CompressType;
+import com.colobu.rpcx.rpc.RpcException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 压缩算法的注册表,按照header里的CompressType查找
+ * lz4/zstd 没有内置实现,可以调用register注册,或者配置 rpcx.compressor.lz4=实现类
+ *
+ * @author goodjava@qq.com
+ */
+public class CompressorFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompressorFactory.class);
+
+    private static volatile Map<CompressType, Compressor> compressors = init();
+
+    private static Map<CompressType, Compressor> init() {
+        Map<CompressType, Compressor> m = new EnumMap<>(CompressType.class);
+        m.put(CompressType.Gzip, new GzipCompressor());
+        m.put(CompressType.Snappy, new SnappyCompressor());
+        for (CompressType type : CompressType.values()) {
+            String className = Config.ins().get("rpcx.compressor." + type.name().toLowerCase());
+            if (null == className) {
+                continue;
+            }
+            try {
+                m.put(type, (Compressor) Class.forName(className).newInstance());
+            } catch (Exception e) {
+                logger.error("load compressor:{} error:{}", className, e.getMessage());
+            }
+        }
+        return m;
+    }
+
+    public static synchronized void register(CompressType type, Compressor compressor) {
+        if (type == CompressType.None) {
+            throw new IllegalArgumentException("can not register compressor for CompressType.None");
+        }
+        Map<CompressType, Compressor> m = new EnumMap<>(compressors);
+        m.put(type, compressor);
+        compressors = m;
+    }
+
+    public static boolean isSupported(CompressType type) {
+        return compressors.containsKey(type);
+    }
+
+    public static Compressor get(CompressType type) {
+        Compressor compressor = compressors.get(type);
+        if (null == compressor) {
+            throw new RpcException("unsupported compress type:" + type);
+        }
+        return compressor;
+    }
+
+}
@@ -0,0 +1,404 @@
+package com.colobu.rpcx.compress;
+
+import com.colobu.rpcx.common.ClassPathResource;
+import com.colobu.rpcx.common.Config;
+import com.colobu.rpcx.config.Constants;
+import com.colobu.rpcx.protocol.CompressType;
+import com.colobu.rpcx.protocol.Message;
+import com.colobu.rpcx.rpc.RpcException;
+import com.google.common.io.ByteStreams;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按servicePath管理压缩字典(CompressType.Dictionary)
+ * 1.字典可以离线训练好放在classpath里(rpcx.compress.dict.{servicePath}=文件路径),也可以运行时从采样的payload训练
+ * 2.每个servicePath只保留当前和上一个版本,字典id放在metadata里(Constants.COMPRESS_DICT_ID)
+ * 3.只有当前字典的压缩率明显变差的时候(比刚开始使用时差 rpcx.compress.dict.retrain.degrade)才重新采样训练新的版本
+ * 4.每个连接上第一次使用某个字典的时候把字典内容一起发过去(Constants.COMPRESS_DICT),写成功以后才算发送过
+ * 5.对端发过来的字典只在这个连接上有效(PeerDictionaries),不会影响其他连接
+ *
+ * @author goodjava@qq.com
+ */
+public class DictionaryManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(DictionaryManager.class);
+
+    private static final int dictSize = Integer.parseInt(Config.ins().get("rpcx.compress.dict.size", "8192"));
+
+    private static final int minSize = Integer.parseInt(Config.ins().get("rpcx.compress.dict.min.size", "64"));
+
+    private static final int sampleNum = Integer.parseInt(Config.ins().get("rpcx.compress.dict.sample.num", "128"));
+
+    private static final int sampleMaxSize = Integer.parseInt(Config.ins().get("rpcx.compress.dict.sample.max.size", "4096"));
+
+    /**
+     * 压缩率比刚开始使用这个字典时差多少(比例)才重新训练,0是不再训练
+     */
+    private static final double retrainDegrade = Double.parseDouble(Config.ins().get("rpcx.compress.dict.retrain.degrade", "0.2"));
+
+    /**
+     * 一个连接上对端最多可以注册多少个servicePath的字典(每个servicePath最多两个版本)
+     */
+    private static final int maxPeerServices = Integer.parseInt(Config.ins().get("rpcx.compress.dict.max.peer.services", "64"));
+
+    /**
+     * deflate的窗口是32k,再大的字典也用不上
+     */
+    private static final int MAX_DICT_SIZE = 32 * 1024;
+
+    private static final String node = UUID.randomUUID().toString().substring(0, 8);
+
+    /**
+     * servicePath -> 这个连接上对端已经收到的字典id
+     */
+    private static final AttributeKey<Map<String, String>> SENT_DICTS = AttributeKey.valueOf("rpcx.compress.dict.sent");
+
+    private static final AttributeKey<PeerDictionaries> PEER_DICTS = AttributeKey.valueOf("rpcx.compress.dict.peer");
+
+    /**
+     * id -> 自己的字典(每个servicePath的当前和上一个版本)
+     */
+    private static final ConcurrentMap<String, CompressDictionary> dictionaries = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, ServiceDictionary> services = new ConcurrentHashMap<>();
+
+    private static class ServiceDictionary {
+
+        private final String servicePath;
+
+        private volatile CompressDictionary current;
+
+        private CompressDictionary previous;
+
+        private int version;
+
+        /**
+         * 当前字典刚开始使用时(前sampleNum次)的平均压缩率
+         */
+        private volatile double baseline;
+
+        /**
+         * 之后压缩率的滑动平均值
+         */
+        private volatile double ratio;
+
+        private volatile int observed;
+
+        private List<byte[]> samples = new ArrayList<>();
+
+        private final AtomicBoolean training = new AtomicBoolean();
+
+        private ServiceDictionary(String servicePath) {
+            this.servicePath = servicePath;
+        }
+
+        private boolean degraded() {
+            return retrainDegrade > 0 && observed >= sampleNum && ratio > baseline * (1 + retrainDegrade);
+        }
+
+        private void sample(byte[] payload) {
+            if (payload.length < minSize || payload.length > sampleMaxSize || training.get()) {
+                return;
+            }
+            //已经有字典的时候,只有压缩率变差了才重新采样
+            if (null != current && !degraded()) {
+                return;
+            }
+            List<byte[]> list;
+            synchronized (this) {
+                samples.add(payload);
+                if (samples.size() < sampleNum || !training.compareAndSet(false, true)) {
+                    return;
+                }
+                list = samples;
+                samples = new ArrayList<>();
+            }
+            CompletableFuture.runAsync(() -> {
+                try {
+                    long begin = System.currentTimeMillis();
+                    byte[] data = DictionaryTrainer.train(list, dictSize);
+                    if (data.length > 0) {
+                        update(data);
+                        logger.info("train compress dictionary:{} size:{} use:{}ms", current.getId(), data.length, System.currentTimeMillis() - begin);
+                    }
+                } catch (Throwable e) {
+                    logger.error("train compress dictionary error:{}", e.getMessage());
+                } finally {
+                    training.set(false);
+                }
+            });
+        }
+
+        /**
+         * 并发下统计的不是很精确,没关系
+         */
+        private void record(String id, int len, int compressedLen) {
+            CompressDictionary dict = current;
+            if (null == dict || !dict.getId().equals(id)) {
+                return;
+            }
+            double r = (double) compressedLen / len;
+            int n = observed;
+            if (n < sampleNum) {
+                baseline = (baseline * n + r) / (n + 1);
+                ratio = baseline;
+                observed = n + 1;
+            } else {
+                ratio = ratio * 0.98 + r * 0.02;
+            }
+        }
+
+        private synchronized void update(byte[] data) {
+            CompressDictionary dict = new CompressDictionary(servicePath + "@" + (++version) + "." + node, data);
+            dictionaries.put(dict.getId(), dict);
+            //只保留当前和上一个版本
+            if (null != previous) {
+                dictionaries.remove(previous.getId());
+            }
+            previous = current;
+            baseline = 0;
+            ratio = 0;
+            observed = 0;
+            current = dict;
+        }
+    }
+
+    private static ServiceDictionary service(String servicePath) {
+        ServiceDictionary sd = services.get(servicePath);
+        if (null == sd) {
+            sd = services.computeIfAbsent(servicePath, k -> {
+                ServiceDictionary s = new ServiceDictionary(k);
+                byte[] data = load(k);
+                if (null != data) {
+                    s.update(data);
+                }
+                return s;
+            });
+        }
+        return sd;
+    }
+
+    /**
+     * 离线训练好的字典
+     */
+    private static byte[] load(String servicePath) {
+        String path = Config.ins().get("rpcx.compress.dict." + servicePath);
+        if (null == path) {
+            return null;
+        }
+        try (InputStream is = new ClassPathResource(path).getInputStream()) {
+            return null == is ? null : ByteStreams.toByteArray(is);
+        } catch (Exception e) {
+            logger.error("load compress dictionary:{} error:{}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 手动设置一个servicePath的字典(会生成一个新的版本)
+     *
+     * @param servicePath
+     * @param data
+     */
+    public static void register(String servicePath, byte[] data) {
+        service(servicePath).update(data);
+    }
+
+    /**
+     * servicePath当前使用的字典id,没有的时候返回null
+     */
+    public static String currentId(String servicePath) {
+        CompressDictionary dict = service(servicePath).current;
+        return null == dict ? null : dict.getId();
+    }
+
+    /**
+     * 编码前调用(在连接的eventLoop里),决定这个message是否使用字典压缩
+     * 没有可用的字典或者不值得压缩的时候改成CompressType.None
+     *
+     * @param channel
+     * @param message
+     * @return 这次带上了字典内容的时候返回字典id,写成功以后需要调用 sent
+     */
+    public static String prepare(Channel channel, Message message) {
+        if (message.getCompressType() != CompressType.Dictionary || null == message.payload) {
+            return null;
+        }
+        String servicePath = null == message.getServicePath() ? "" : message.getServicePath();
+        byte[] payload = message.payload;
+        ServiceDictionary sd = service(servicePath);
+        sd.sample(payload);
+
+        CompressDictionary dict = sd.current;
+        if (null == dict || !CompressPolicy.shouldCompress(servicePath, CompressType.Dictionary, payload.length, minSize)) {
+            message.setCompressType(CompressType.None);
+            return null;
+        }
+        message.getMetadata().put(Constants.COMPRESS_DICT_ID, dict.getId());
+        Map<String, String> sent = sent(channel);
+        //对端还没有确认收到(写成功)之前,每次都带上字典内容
+        if (!dict.getId().equals(sent.get(servicePath))) {
+            message.getMetadata().put(Constants.COMPRESS_DICT, Base64.getEncoder().encodeToString(dict.getData()));
+            return dict.getId();
+        }
+        return null;
+    }
+
+    /**
+     * 带着字典内容的message写成功以后调用
+     */
+    public static void sent(Channel channel, String servicePath, String id) {
+        sent(channel).put(null == servicePath ? "" : servicePath, id);
+    }
+
+    private static Map<String, String> sent(Channel channel) {
+        Map<String, String> sent = channel.attr(SENT_DICTS).get();
+        if (null == sent) {
+            channel.attr(SENT_DICTS).setIfAbsent(new ConcurrentHashMap<>());
+            sent = channel.attr(SENT_DICTS).get();
+        }
+        return sent;
+    }
+
+    /**
+     * 压缩以后调用,统计当前字典的压缩率
+     */
+    public static void record(String servicePath, String id, int len, int compressedLen) {
+        ServiceDictionary sd = services.get(null == servicePath ? "" : servicePath);
+        if (null != sd) {
+            sd.record(id, len, compressedLen);
+        }
+    }
+
+    /**
+     * 这个连接上对端发过来的字典
+     */
+    public static PeerDictionaries peer(Channel channel) {
+        PeerDictionaries peer = channel.attr(PEER_DICTS).get();
+        if (null == peer) {
+            channel.attr(PEER_DICTS).setIfAbsent(new PeerDictionaries());
+            peer = channel.attr(PEER_DICTS).get();
+        }
+        return peer;
+    }
+
+    /**
+     * 自己的字典
+     */
+    public static Compressor getCompressor(String id) {
+        CompressDictionary dict = null == id ? null : dictionaries.get(id);
+        if (null == dict) {
+            throw new RpcException("unknown compress dictionary:" + id);
+        }
+        return dict.getCompressor();
+    }
+
+
+    /**
+     * 一个连接上对端发过来的字典(只在这个连接的解码器里使用)
+     * 字典id必须在对端自己的命名空间里:servicePath@version.node,servicePath和message的一致,node在一个连接上不变
+     * 每个servicePath只保留最新的两个版本,servicePath的个数不超过 rpcx.compress.dict.max.peer.services
+     */
+    public static final class PeerDictionaries {
+
+        private String node;
+
+        /**
+         * servicePath -> [最新的版本, 上一个版本]
+         */
+        private final Map<String, CompressDictionary[]> services = new HashMap<>();
+
+        /**
+         * 注册message带过来的字典(解码payload之前调用)
+         */
+        public synchronized void receive(Message message) {
+            String data = message.getMetadataValue(Constants.COMPRESS_DICT);
+            if (null == data) {
+                return;
+            }
+            String id = message.getMetadataValue(Constants.COMPRESS_DICT_ID);
+            String servicePath = null == message.getServicePath() ? "" : message.getServicePath();
+            String n = nodeOf(servicePath, id);
+            if (null == n) {
+                throw new RpcException("illegal compress dictionary id:" + id);
+            }
+            if (null == node) {
+                node = n;
+            } else if (!node.equals(n)) {
+                throw new RpcException("compress dictionary:" + id + " not from node:" + node);
+            }
+            CompressDictionary[] versions = services.get(servicePath);
+            if (null != versions && null != find(versions, id)) {
+                //还没有确认之前对端会重复发送
+                return;
+            }
+            byte[] bytes = Base64.getDecoder().decode(data);
+            if (bytes.length > MAX_DICT_SIZE) {
+                throw new RpcException("compress dictionary:" + id + " too large:" + bytes.length);
+            }
+            if (null == versions) {
+                if (services.size() >= maxPeerServices) {
+                    throw new RpcException("too many compress dictionaries from peer, max services:" + maxPeerServices);
+                }
+                versions = new CompressDictionary[2];
+                services.put(servicePath, versions);
+            }
+            versions[1] = versions[0];
+            versions[0] = new CompressDictionary(id, bytes);
+        }
+
+        public synchronized Compressor getCompressor(String id) {
+            int at = null == id ? -1 : id.lastIndexOf('@');
+            CompressDictionary[] versions = at < 0 ? null : services.get(id.substring(0, at));
+            CompressDictionary dict = null == versions ? null : find(versions, id);
+            if (null == dict) {
+                throw new RpcException("unknown compress dictionary:" + id);
+            }
+            return dict.getCompressor();
+        }
+
+        private static CompressDictionary find(CompressDictionary[] versions, String id) {
+            for (CompressDictionary dict : versions) {
+                if (null != dict && dict.getId().equals(id)) {
+                    return dict;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return id不是 servicePath@version.node 的格式时返回null
+         */
+        private static String nodeOf(String servicePath, String id) {
+            if (null == id || !id.startsWith(servicePath + "@")) {
+                return null;
+            }
+            int dot = id.lastIndexOf('.');
+            if (dot <= servicePath.length() + 1 || dot == id.length() - 1) {
+                return null;
+            }
+            for (int i = servicePath.length() + 1; i < dot; i++) {
+                if (!Character.isDigit(id.charAt(i))) {
+                    return null;
+                }
+            }
+            return id.substring(dot + 1);
+        }
+    }
+
+}
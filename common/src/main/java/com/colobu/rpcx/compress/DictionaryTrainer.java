@@ -0,0 +1,84 @@
+package com.colobu.rpcx.compress;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 从采样的payload中训练压缩字典
+ * 统计每个8字节片段在多少个样本中出现过,把高频片段连起来的区间作为候选,按得分从高到低选取
+ * deflate对距离近的匹配编码更短,所以得分最高的片段放在字典的最后
+ *
+ * @author goodjava@qq.com
+ */
+public class DictionaryTrainer {
+
+    private static final int K = 8;
+
+    public static byte[] train(List<byte[]> samples, int dictSize) {
+        Map<Long, Integer> df = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + K <= sample.length; i++) {
+                long key = key(sample, i);
+                if (seen.add(key)) {
+                    df.merge(key, 1, Integer::sum);
+                }
+            }
+        }
+
+        int minDf = Math.max(2, samples.size() / 8);
+        Map<String, Long> segments = new HashMap<>();
+        for (byte[] sample : samples) {
+            int i = 0;
+            while (i + K <= sample.length) {
+                if (df.get(key(sample, i)) < minDf) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                long score = 0;
+                while (i + K <= sample.length) {
+                    int n = df.get(key(sample, i));
+                    if (n < minDf) {
+                        break;
+                    }
+                    score += n;
+                    i++;
+                }
+                String segment = new String(sample, start, i - start + K - 1, StandardCharsets.ISO_8859_1);
+                segments.merge(segment, score, Math::max);
+            }
+        }
+
+        List<Map.Entry<String, Long>> list = new ArrayList<>(segments.entrySet());
+        list.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        StringBuilder dict = new StringBuilder(dictSize);
+        List<String> selected = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : list) {
+            String segment = entry.getKey();
+            if (dict.length() + segment.length() > dictSize) {
+                continue;
+            }
+            if (dict.indexOf(segment) >= 0) {
+                continue;
+            }
+            dict.append(segment);
+            selected.add(segment);
+        }
+
+        StringBuilder out = new StringBuilder(dict.length());
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            out.append(selected.get(i));
+        }
+        return out.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static long key(byte[] data, int i) {
+        long v = 0;
+        for (int j = 0; j < K; j++) {
+            v = (v << 8) | (data[i + j] & 0xFF);
+        }
+        return v;
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.colobu.rpcx.compress.impl;
+
+import com.colobu.rpcx.common.Config;
+import com.colobu.rpcx.compress.Compressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 使用预置字典的deflate(raw格式,没有zlib头)
+ * Deflater/Inflater是线程级别复用的,每次使用前重新设置字典
+ *
+ * @author goodjava@qq.com
+ */
+public class DictionaryCompressor implements Compressor {
+
+    private static final int level = Integer.parseInt(Config.ins().get("rpcx.compress.dict.level", String.valueOf(Deflater.BEST_SPEED)));
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final byte[] dictionary;
+
+    public DictionaryCompressor(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] out = new byte[data.length / 2 + 64];
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            n += deflater.deflate(out, n, out.length - n);
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    @Override
+    public byte[] decompress(ByteBuf data, int maxLength) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setDictionary(dictionary);
+        int len = data.readableBytes();
+        if (data.hasArray()) {
+            inflater.setInput(data.array(), data.arrayOffset() + data.readerIndex(), len);
+        } else {
+            inflater.setInput(ByteBufUtil.getBytes(data));
+        }
+        //多留一个字节,写满了就说明超过了maxLength
+        long limit = maxLength + 1L;
+        byte[] out = new byte[(int) Math.min(len * 4L + 64, limit)];
+        int n = 0;
+        try {
+            while (!inflater.finished()) {
+                if (n == out.length) {
+                    if (n >= limit) {
+                        throw Compressor.tooLarge(maxLength);
+                    }
+                    out = Arrays.copyOf(out, (int) Math.min(out.length * 2L, limit));
+                }
+                int r = inflater.inflate(out, n, out.length - n);
+                if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("truncated deflate data");
+                }
+                n += r;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        if (n > maxLength) {
+            throw Compressor.tooLarge(maxLength);
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
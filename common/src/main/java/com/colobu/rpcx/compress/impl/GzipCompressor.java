@@ -0,0 +1,42 @@
+package com.colobu.rpcx.compress.impl;
+
+import com.colobu.rpcx.compress.Compressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author goodjava@qq.com
+ */
+public class GzipCompressor implements Compressor {
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        //close的时候才会写入gzip的trailer
+        try (GZIPOutputStream zipStream = new GZIPOutputStream(bos)) {
+            zipStream.write(data);
+        }
+        return bos.toByteArray();
+    }
+
+    @Override
+    public byte[] decompress(ByteBuf data, int maxLength) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream((int) Math.min(data.readableBytes() * 2L, maxLength));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteBufInputStream(data))) {
+            byte[] b = new byte[4096];
+            int n;
+            while ((n = in.read(b)) != -1) {
+                if (n > maxLength - bos.size()) {
+                    throw Compressor.tooLarge(maxLength);
+                }
+                bos.write(b, 0, n);
+            }
+        }
+        return bos.toByteArray();
+    }
+}
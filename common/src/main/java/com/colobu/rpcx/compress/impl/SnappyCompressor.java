@@ -0,0 +1,75 @@
+package com.colobu.rpcx.compress.impl;
+
+import com.colobu.rpcx.compress.Compressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.SnappyFrameDecoder;
+import io.netty.handler.codec.compression.SnappyFrameEncoder;
+
+import java.io.IOException;
+
+/**
+ * snappy压缩,使用标准的snappy framing format(netty的SnappyFrameEncoder/SnappyFrameDecoder)
+ * 和go的snappy.NewBufferedWriter/snappy.NewReader互通
+ *
+ * @author goodjava@qq.com
+ */
+public class SnappyCompressor implements Compressor {
+
+    /**
+     * 解压时每次喂给解码器的长度
+     */
+    private static final int INPUT_SLICE = 8 * 1024;
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+        ByteBuf out = Unpooled.buffer(32 + data.length + data.length / 6);
+        try {
+            //编码器有内部状态(stream identifier只写一次),不能共享
+            new FrameEncoder().encode(Unpooled.wrappedBuffer(data), out);
+            return ByteBufUtil.getBytes(out);
+        } catch (Exception e) {
+            throw new IOException("snappy compress error:" + e.getMessage(), e);
+        } finally {
+            out.release();
+        }
+    }
+
+    @Override
+    public byte[] decompress(ByteBuf data, int maxLength) throws IOException {
+        //校验每个chunk的crc32c
+        EmbeddedChannel channel = new EmbeddedChannel(new SnappyFrameDecoder(true));
+        CompositeByteBuf out = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+        try {
+            //分段喂给解码器,每段解出来以后检查长度,不会一次全部解压出来
+            while (data.isReadable()) {
+                //解码器用完会release,data是包体上的视图,这里用retained的slice
+                channel.writeInbound(data.readRetainedSlice(Math.min(INPUT_SLICE, data.readableBytes())));
+                for (ByteBuf chunk; null != (chunk = channel.readInbound()); ) {
+                    out.addComponent(true, chunk);
+                }
+                if (out.readableBytes() > maxLength) {
+                    throw Compressor.tooLarge(maxLength);
+                }
+            }
+            return ByteBufUtil.getBytes(out);
+        } catch (DecompressionException e) {
+            throw new IOException("snappy decompress error:" + e.getMessage(), e);
+        } finally {
+            out.release();
+            channel.finishAndReleaseAll();
+        }
+    }
+
+
+    private static class FrameEncoder extends SnappyFrameEncoder {
+        private void encode(ByteBuf in, ByteBuf out) throws Exception {
+            //SnappyFrameEncoder.encode 不使用ctx
+            super.encode(null, in, out);
+        }
+    }
+}
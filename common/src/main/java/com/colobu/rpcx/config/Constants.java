@@ -14,6 +14,26 @@ public class Constants {
 
     public static final String BACKUP_KEY = "backup";
 
+    /**
+     * 服务注册时带上的unix domain socket路径(同机的consumer可以不走tcp)
+     */
+    public static final String UNIX_SOCKET_KEY = "unix";
+
+    /**
+     * 服务注册时带上的序列化方式(SerializeType的名字),consumer没有指定的时候跟随它
+     */
+    public static final String SERIALIZE_KEY = "serialize";
+
+    /**
+     * 服务注册时带上,表示提供方能处理紧凑格式的请求(方法id+参数)
+     */
+    public static final String COMPACT_KEY = "compact";
+
+    /**
+     * 服务注册时带上,提供方导出的方法id(MethodTable),调用方只对这些方法用紧凑格式
+     */
+    public static final String METHOD_IDS_KEY = "methodIds";
+
     public static final String DEFAULT_KEY_PREFIX = "default.";
 
     public static final Pattern COMMA_SPLIT_PATTERN = Pattern.compile("\\s*[,]+\\s*");
@@ -96,6 +116,16 @@ public class Constants {
 
     public static final String SPAN_ID = "span_id";
 
+    /**
+     * 压缩字典的id
+     */
+    public static final String COMPRESS_DICT_ID = "__dict_id";
+
+    /**
+     * 压缩字典的内容(base64),每个连接上只发送一次
+     */
+    public static final String COMPRESS_DICT = "__dict";
+
     public static final String X_RPCX_SERVICEPATH = "X-RPCX-ServicePath";
 
     public static final String X_RPCX_SERVICEMETHOD = "X-RPCX-ServiceMethod";
@@ -15,7 +15,7 @@ public class NettyClientConfig {
 
     private int clientSocketSndBufSize = 65535;
     private int clientSocketRcvBufSize = 65535;
-    private boolean clientPooledByteBufAllocatorEnable = false;
+    private boolean clientPooledByteBufAllocatorEnable = true;
     private boolean clientCloseSocketIfTimeout = false;
 
     public boolean isClientCloseSocketIfTimeout() {
@@ -1,6 +1,7 @@
 package com.colobu.rpcx.discovery;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * @author goodjava@qq.com
@@ -26,4 +27,12 @@ public interface IServiceDiscovery {
      * @param serviceNames
      */
     void addServices(final String... serviceNames);
+
+    /**
+     * 服务列表变化的时候回调(参数是serviceName)
+     * @param listener
+     */
+    default void addListener(Consumer<String> listener) {
+
+    }
 }
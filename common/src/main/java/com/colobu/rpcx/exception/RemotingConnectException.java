@@ -0,0 +1,20 @@
+package com.colobu.rpcx.exception;
+
+/**
+ * 连接不上(还在重连退避中),请求直接失败,不等待
+ *
+ * @author goodjava@qq.com
+ */
+public class RemotingConnectException extends RemotingException {
+    private static final long serialVersionUID = 8417052312693105211L;
+
+
+    public RemotingConnectException(String addr) {
+        this(addr, null);
+    }
+
+
+    public RemotingConnectException(String addr, Throwable cause) {
+        super("connect to <" + addr + "> failed", cause);
+    }
+}
@@ -0,0 +1,15 @@
+package com.colobu.rpcx.exception;
+
+/**
+ * 连接断开了,还没有返回的请求都会收到这个异常
+ *
+ * @author goodjava@qq.com
+ */
+public class RemotingConnectionLostException extends RemotingException {
+    private static final long serialVersionUID = -2960131785227312398L;
+
+
+    public RemotingConnectionLostException(String addr) {
+        super("connection to <" + addr + "> lost");
+    }
+}
@@ -6,6 +6,7 @@
 import com.colobu.rpcx.filter.Filter;
 import com.colobu.rpcx.rpc.Invoker;
 import com.colobu.rpcx.rpc.Result;
+import com.colobu.rpcx.rpc.RpcContext;
 import com.colobu.rpcx.rpc.RpcException;
 import com.colobu.rpcx.rpc.annotation.RpcFilter;
 import com.colobu.rpcx.rpc.impl.RpcInvocation;
@@ -13,6 +14,8 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author goodjava@qq.com
  * <p>
@@ -28,7 +31,9 @@ public class FailFilter implements Filter {
     public Result invoke(Invoker<?> invoker, RpcInvocation invocation) throws RpcException {
         FailType failType = invocation.getFailType();
         RetryNTimes retry = new RetryNTimes(invocation.getRetryNum());
+        int[] times = new int[1];
         Result result = retry.retry((n) -> {
+            times[0] = n;
             Result res = invoker.invoke(invocation);
             if (res.hasException()) {
                 logger.warn("{} invoke error:{}", invocation.getUrl().getPath(), res.getException().getMessage());
@@ -57,6 +62,62 @@ public Result invoke(Invoker<?> invoker, RpcInvocation invocation) throws RpcExc
             return res;
         });
 
+        //异步调用在这里总是成功的,失败要等future完成才知道,所以在future上接着重试
+        if (!failType.equals(FailType.FailFast) && null != result && !result.hasException() && result.getValue() instanceof CompletableFuture) {
+            result.setValue(retryAsync(invoker, invocation, (CompletableFuture<Object>) result.getValue(), invocation.getRetryNum() - times[0], RpcContext.getContext().getServiceAddr()));
+        }
         return result;
     }
+
+
+    /**
+     * future失败后重新调用一次,还有剩余次数就继续挂在新的future上
+     *
+     * @param serviceAddr 上一次调用的服务节点(FailTry 在当前节点重试)
+     */
+    private CompletableFuture<Object> retryAsync(Invoker<?> invoker, RpcInvocation invocation, CompletableFuture<Object> future, int remaining, String serviceAddr) {
+        if (remaining <= 0) {
+            return future;
+        }
+        CompletableFuture<Object> res = new CompletableFuture<>();
+        future.whenComplete((value, ex) -> {
+            if (null == ex) {
+                res.complete(value);
+                return;
+            }
+            logger.warn("{} async invoke error:{} retry({})", invocation.getClassName(), ex.getMessage(), invocation.getFailType());
+            //回调线程上的context不是调用方的,重试期间用一个干净的context
+            RpcContext context = RpcContext.getContext();
+            RpcContext.removeContext();
+            CompletableFuture<Object> next;
+            String addr = serviceAddr;
+            try {
+                if (invocation.getFailType().equals(FailType.FailTry)) {
+                    invocation.setSelectMode(SelectMode.SelectByUser);
+                    RpcContext.getContext().setServiceAddr(serviceAddr);
+                }
+                Result r = invoker.invoke(invocation);
+                addr = RpcContext.getContext().getServiceAddr();
+                if (r.hasException()) {
+                    next = new CompletableFuture<>();
+                    next.completeExceptionally(r.getException());
+                } else {
+                    next = (CompletableFuture<Object>) r.getValue();
+                }
+            } catch (Throwable e) {
+                next = new CompletableFuture<>();
+                next.completeExceptionally(e);
+            } finally {
+                RpcContext.restoreContext(context);
+            }
+            retryAsync(invoker, invocation, next, remaining - 1, addr).whenComplete((v, e) -> {
+                if (null == e) {
+                    res.complete(v);
+                } else {
+                    res.completeExceptionally(e);
+                }
+            });
+        });
+        return res;
+    }
 }
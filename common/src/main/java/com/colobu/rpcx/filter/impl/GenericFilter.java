@@ -14,6 +14,7 @@
 import com.google.gson.Gson;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.IntStream;
 
 
@@ -58,7 +59,11 @@ public Result invoke(Invoker<?> invoker, RpcInvocation inv) throws RpcException
 
             if (!res.hasException()) {
                 Object value = res.getValue();
-                res.setValue(gson.toJson(value));
+                if (value instanceof CompletableFuture) {
+                    res.setValue(((CompletableFuture<?>) value).thenApply(gson::toJson));
+                } else {
+                    res.setValue(gson.toJson(value));
+                }
                 return res;
             }
 
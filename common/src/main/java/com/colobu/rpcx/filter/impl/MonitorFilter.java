@@ -12,6 +12,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -39,9 +40,19 @@ public Result invoke(Invoker<?> invoker, RpcInvocation invocation) throws RpcExc
             long start = System.currentTimeMillis();
             // 并发计数
             getConcurrent(invoker, invocation).incrementAndGet();
+            boolean async = false;
             try {
                 // 让调用链往下执行
                 Result result = invoker.invoke(invocation);
+                if (result.getValue() instanceof CompletableFuture) {
+                    // 异步方法在future完成时才采集,这样耗时和并发数才是真实的
+                    async = true;
+                    ((CompletableFuture<?>) result.getValue()).whenComplete((v, e) -> {
+                        collect(invoker, invocation, result, context, start, null != e);
+                        getConcurrent(invoker, invocation).decrementAndGet();
+                    });
+                    return result;
+                }
                 collect(invoker, invocation, result, context, start, false);
                 return result;
             } catch (RpcException e) {
@@ -49,7 +60,9 @@ public Result invoke(Invoker<?> invoker, RpcInvocation invocation) throws RpcExc
                 throw e;
             } finally {
                 // 并发计数
-                getConcurrent(invoker, invocation).decrementAndGet();
+                if (!async) {
+                    getConcurrent(invoker, invocation).decrementAndGet();
+                }
             }
         } else {
             return invoker.invoke(invocation);
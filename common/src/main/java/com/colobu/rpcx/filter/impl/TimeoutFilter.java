@@ -12,6 +12,7 @@
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -27,13 +28,11 @@ public Result invoke(Invoker<?> invoker, RpcInvocation invocation) throws RpcExc
         if (!("-1".equals(invoker.getUrl().getParameter(Constants.TIMEOUT_KEY)))) {
             long start = System.currentTimeMillis();
             Result result = invoker.invoke(invocation);
-            long elapsed = System.currentTimeMillis() - start;
-
-            int v = invoker.getUrl().getParameter(Constants.TIMEOUT_KEY, Integer.MAX_VALUE);
-            if (invoker.getUrl() != null && v != 0 && elapsed > v) {
-                logger.warn("invoke time out. method: " + invocation.getMethodName()
-                        + " arguments: " + Arrays.toString(invocation.getArguments()) + " , url is "
-                        + invoker.getUrl() + ", invoke elapsed " + elapsed + " ms.");
+            if (result.getValue() instanceof CompletableFuture) {
+                //异步方法以future完成的时间为准
+                ((CompletableFuture<?>) result.getValue()).whenComplete((v, e) -> checkTimeout(invoker, invocation, start));
+            } else {
+                checkTimeout(invoker, invocation, start);
             }
             return result;
         }
@@ -41,4 +40,15 @@ public Result invoke(Invoker<?> invoker, RpcInvocation invocation) throws RpcExc
         return invoker.invoke(invocation);
     }
 
+    private void checkTimeout(Invoker<?> invoker, RpcInvocation invocation, long start) {
+        long elapsed = System.currentTimeMillis() - start;
+
+        int v = invoker.getUrl().getParameter(Constants.TIMEOUT_KEY, Integer.MAX_VALUE);
+        if (invoker.getUrl() != null && v != 0 && elapsed > v) {
+            logger.warn("invoke time out. method: " + invocation.getMethodName()
+                    + " arguments: " + Arrays.toString(invocation.getArguments()) + " , url is "
+                    + invoker.getUrl() + ", invoke elapsed " + elapsed + " ms.");
+        }
+    }
+
 }
\ No newline at end of file
@@ -8,11 +8,30 @@
  */
 public class ChannelWrapper {
 
+    private final String addr;
+
     private final ChannelFuture channelFuture;
 
+    /**
+     * 连续连接失败的次数(算重连退避用)
+     */
+    private final int connectFailures;
+
+    /**
+     * 连接失败后,这个时间之前不再发起连接
+     */
+    private volatile long nextConnectTime;
+
 
     public ChannelWrapper(ChannelFuture channelFuture) {
+        this("", channelFuture, 0);
+    }
+
+
+    public ChannelWrapper(String addr, ChannelFuture channelFuture, int connectFailures) {
+        this.addr = addr;
         this.channelFuture = channelFuture;
+        this.connectFailures = connectFailures;
     }
 
 
@@ -26,6 +45,16 @@ public boolean isWriteable() {
     }
 
 
+    public boolean isConnecting() {
+        return !this.channelFuture.isDone();
+    }
+
+
+    public boolean isConnectFailed() {
+        return this.channelFuture.isDone() && !this.channelFuture.isSuccess();
+    }
+
+
     public Channel getChannel() {
         return this.channelFuture.channel();
     }
@@ -35,4 +64,24 @@ public ChannelFuture getChannelFuture() {
         return channelFuture;
     }
 
+
+    public String getAddr() {
+        return addr;
+    }
+
+
+    public int getConnectFailures() {
+        return connectFailures;
+    }
+
+
+    public long getNextConnectTime() {
+        return nextConnectTime;
+    }
+
+
+    public void setNextConnectTime(long nextConnectTime) {
+        this.nextConnectTime = nextConnectTime;
+    }
+
 }
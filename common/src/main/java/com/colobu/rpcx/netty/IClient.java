@@ -3,6 +3,8 @@
 import com.colobu.rpcx.discovery.IServiceDiscovery;
 import com.colobu.rpcx.protocol.Message;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author goodjava@qq.com
  */
@@ -12,6 +14,16 @@ public interface IClient {
 
     Message call(String addr, Message req, long timeOut) throws Exception;
 
+    /**
+     * 异步调用,不阻塞调用线程,结果返回(或者超时、连接断开)的时候完成future
+     *
+     * @param req
+     * @param timeOut
+     * @return
+     * @throws Exception
+     */
+    CompletableFuture<Message> callAsync(Message req, long timeOut) throws Exception;
+
     IServiceDiscovery getServiceDiscovery();
 
     void close();
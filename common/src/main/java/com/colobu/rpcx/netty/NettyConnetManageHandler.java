@@ -65,6 +65,15 @@ public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exce
         }
     }
 
+    /**
+     * 不管是主动关闭、异常、空闲还是对端断开,最后都会走到这里
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        nettyRemotingAbstract.failPendingRequests(ctx.channel());
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
         if (evt instanceof IdleStateEvent) {
@@ -1,54 +1,62 @@
 package com.colobu.rpcx.netty;
 
+import com.colobu.rpcx.common.Config;
+import com.colobu.rpcx.compress.DictionaryManager;
+import com.colobu.rpcx.protocol.CompressType;
 import com.colobu.rpcx.protocol.Message;
 import com.colobu.rpcx.protocol.RemotingCommand;
 import com.colobu.rpcx.rpc.RpcException;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
-
-import java.util.List;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 
 /**
+ * magicNumber(1) + header(11) + bodyLen(4) + body
+ * 包体只保留一个切片(retainedSlice),不做拷贝,由message负责释放
+ *
  * @author goodjava@qq.com
  */
-public class NettyDecoder extends ReplayingDecoder<DecoderState> {
+public class NettyDecoder extends LengthFieldBasedFrameDecoder {
+
+    private static final int maxFrameLength = Integer.parseInt(Config.ins().get("rpcx.decode.max.frame.length", String.valueOf(Integer.MAX_VALUE)));
 
-    private Message message = null;
+    /**
+     * magicNumber + header
+     */
+    private static final int headerLength = 12;
 
     public NettyDecoder() {
-        super(DecoderState.MagicNumber);
+        super(maxFrameLength, headerLength, 4, 0, 0);
     }
 
     @Override
-    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
-        switch (state()) {
-            case MagicNumber:
-                message = new Message();
-                byte magicNumber = in.readByte();
-                if (magicNumber != Message.magicNumber) {
-                    throw new RpcException("magicNumber error:" + magicNumber);
-                }
-                checkpoint(DecoderState.Header);
-            case Header:
-                byte[] header = new byte[12];
-                header[0] = Message.magicNumber;
-                in.readBytes(header, 1, 11);
-                message.header = header;
-                checkpoint(DecoderState.Body);
-            case Body:
-                int totalLen = in.readInt();
-                byte[] data = new byte[totalLen];
-                in.readBytes(data);
-                RemotingCommand command = new RemotingCommand(message, data);
-                checkpoint(DecoderState.MagicNumber);
-                //业务解码交给业务层
-                out.add(command);
-                break;
-            default:
-                throw new RpcException("Shouldn't reach here.");
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        if (in.isReadable()) {
+            byte magicNumber = in.getByte(in.readerIndex());
+            if (magicNumber != Message.magicNumber) {
+                throw new RpcException("magicNumber error:" + magicNumber);
+            }
         }
-    }
 
+        ByteBuf frame = (ByteBuf) super.decode(ctx, in);
+        if (null == frame) {
+            return null;
+        }
+        try {
+            byte[] header = new byte[headerLength];
+            frame.readBytes(header);
+            Message message = new Message(header);
+            int totalLen = frame.readInt();
+            //业务解码交给业务层
+            RemotingCommand cmd = new RemotingCommand(message, frame.retainedSlice(frame.readerIndex(), totalLen));
+            //字典压缩的包要在这里(同一个连接上有序)解码,解码时注册对端发过来的字典
+            if (message.getCompressType() == CompressType.Dictionary) {
+                cmd.decode(DictionaryManager.peer(ctx.channel()));
+            }
+            return cmd;
+        } finally {
+            frame.release();
+        }
+    }
 
 }
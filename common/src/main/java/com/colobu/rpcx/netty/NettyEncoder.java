@@ -1,34 +1,65 @@
 package com.colobu.rpcx.netty;
 
+import com.colobu.rpcx.common.Config;
 import com.colobu.rpcx.common.RemotingHelper;
 import com.colobu.rpcx.common.RemotingUtil;
+import com.colobu.rpcx.compress.DictionaryManager;
+import com.colobu.rpcx.protocol.Message;
 import com.colobu.rpcx.protocol.RemotingCommand;
-import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.MessageToMessageEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
+ * 直接把Message编码到(池化的)ByteBuf中,大的payload以component的形式挂上去,不做拷贝
+ *
  * @author goodjava@qq.com
  */
-public class NettyEncoder extends MessageToByteEncoder<RemotingCommand> {
+public class NettyEncoder extends MessageToMessageEncoder<RemotingCommand> {
 
     private static final Logger log = LoggerFactory.getLogger(NettyEncoder.class);
 
+    /**
+     * payload超过这个大小就不再拷贝到header所在的ByteBuf中
+     */
+    private static final int compositeThreshold = Integer.parseInt(Config.ins().get("rpcx.encode.composite.threshold", String.valueOf(64 * 1024)));
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof RemotingCommand) {
+            Message message = ((RemotingCommand) msg).getMessage();
+            String dictId = DictionaryManager.prepare(ctx.channel(), message);
+            if (null != dictId) {
+                //写成功了对端才有这个字典
+                String servicePath = message.getServicePath();
+                promise = promise.unvoid().addListener(f -> {
+                    if (f.isSuccess()) {
+                        DictionaryManager.sent(ctx.channel(), servicePath, dictId);
+                    }
+                });
+            }
+        }
+        super.write(ctx, msg, promise);
+    }
+
     @Override
-    public void encode(ChannelHandlerContext ctx, RemotingCommand remotingCommand, ByteBuf out) {
+    public void encode(ChannelHandlerContext ctx, RemotingCommand remotingCommand, List<Object> out) {
         try {
-            byte[] data = remotingCommand.getMessage().encode();
-            out.writeBytes(data);
+            Message message = remotingCommand.getMessage();
+            out.add(message.encode(ctx.alloc(), compositeThreshold));
         } catch (Exception e) {
             log.error("encode exception, " + RemotingHelper.parseChannelRemoteAddr(ctx.channel()), e);
             if (remotingCommand != null) {
                 log.error(remotingCommand.toString());
             }
             RemotingUtil.closeChannel(ctx.channel());
+            //MessageToMessageEncoder 要求至少输出一个对象
+            out.add(Unpooled.EMPTY_BUFFER);
         }
     }
 }
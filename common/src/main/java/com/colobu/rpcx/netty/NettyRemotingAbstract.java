@@ -4,23 +4,23 @@
 import com.colobu.rpcx.common.Pair;
 import com.colobu.rpcx.common.RemotingHelper;
 import com.colobu.rpcx.common.RemotingUtil;
+import com.colobu.rpcx.concurrent.ConcurrentHashSet;
 import com.colobu.rpcx.config.Constants;
+import com.colobu.rpcx.exception.RemotingConnectionLostException;
 import com.colobu.rpcx.protocol.Message;
 import com.colobu.rpcx.protocol.MessageType;
 import com.colobu.rpcx.protocol.RemotingCommand;
 import com.colobu.rpcx.protocol.RemotingSysResponseCode;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.epoll.Epoll;
+import io.netty.util.AttributeKey;
+import io.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.UnsupportedEncodingException;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author goodjava@qq.com
@@ -29,7 +29,20 @@ public class NettyRemotingAbstract {
 
     private static final Logger logger = LoggerFactory.getLogger(NettyRemotingAbstract.class);
 
-    protected final ConcurrentHashMap<Integer, ResponseFuture> responseTable = new ConcurrentHashMap<>(256);
+    /**
+     * 每个连接一个ResponseTable(请求id也是连接内分配的)
+     */
+    protected static final AttributeKey<ResponseTable> RESPONSE_TABLE = AttributeKey.valueOf("rpcx.response.table");
+
+    /**
+     * 每个连接最多等待返回的请求数,满了以后新请求抛RemotingTooMuchRequestException
+     */
+    private static final int responseTableCapacity = Integer.parseInt(Config.ins().get("rpcx.response.table.capacity", "8192"));
+
+    /**
+     * 所有的ResponseTable,扫描超时请求用
+     */
+    protected final ConcurrentHashSet<ResponseTable> responseTables = new ConcurrentHashSet<>();
 
     protected final HashMap<Integer, Pair<NettyRequestProcessor, ExecutorService>> processorTable = new HashMap<>(64);
 
@@ -41,10 +54,6 @@ public class NettyRemotingAbstract {
 
     protected final ConcurrentHashMap<String, ChannelWrapper> channelTables = new ConcurrentHashMap<>();
 
-    protected final Lock lockChannelTables = new ReentrantLock();
-
-    protected static final long LockTimeoutMillis = 3000;
-
     private LongAdder processingRequest = new LongAdder();
 
     private volatile boolean stop = false;
@@ -60,19 +69,81 @@ public void scanProcessingRequest() {
         }
     }
 
+    protected ResponseTable getResponseTable(Channel channel) {
+        ResponseTable table = channel.attr(RESPONSE_TABLE).get();
+        if (null == table) {
+            ResponseTable newTable = new ResponseTable(channel, responseTableCapacity);
+            table = channel.attr(RESPONSE_TABLE).setIfAbsent(newTable);
+            if (null == table) {
+                table = newTable;
+                this.responseTables.add(table);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * 到期的时候还没有返回结果就从table中移除,并执行callback
+     *
+     * @param timer 发请求的一端(client)自己的时间轮
+     * @param table
+     * @param responseFuture
+     */
+    protected void scheduleTimeout(Timer timer, ResponseTable table, ResponseFuture responseFuture) {
+        responseFuture.setTimeout(timer.newTimeout(t -> {
+            if (table.remove(responseFuture.getOpaque()) == responseFuture) {
+                responseFuture.release();
+                logger.warn("remove timeout request:{} ", responseFuture);
+                executeInvokeCallback(responseFuture);
+            }
+        }, responseFuture.getTimeoutMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 连接断开以后这个连接上所有还没有返回的请求立刻失败(不用等到超时)
+     *
+     * @param channel
+     */
+    public void failPendingRequests(Channel channel) {
+        ResponseTable table = channel.attr(RESPONSE_TABLE).get();
+        if (null == table) {
+            return;
+        }
+        List<ResponseFuture> list = table.removeIf(rep -> true);
+        this.responseTables.remove(table);
+        if (list.isEmpty()) {
+            return;
+        }
+        String addr = RemotingHelper.parseChannelRemoteAddr(channel);
+        logger.warn("channel:{} closed, fail {} pending requests", addr, list.size());
+        RemotingConnectionLostException cause = new RemotingConnectionLostException(addr);
+        for (ResponseFuture rep : list) {
+            rep.cancelTimeout();
+            rep.setSendRequestOK(false);
+            rep.setCause(cause);
+            rep.release();
+            if (rep.getInvokeCallback() != null) {
+                executeInvokeCallback(rep);
+            } else {
+                rep.putResponse(null);
+            }
+        }
+    }
+
     public void scanResponseTable() {
         final List<ResponseFuture> rfList = new LinkedList<>();
-        //是协议对应号
-        Iterator<Map.Entry<Integer, ResponseFuture>> it = this.responseTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<Integer, ResponseFuture> next = it.next();
-            ResponseFuture rep = next.getValue();
-            if ((rep.getBeginTimestamp() + rep.getTimeoutMillis() + 1000) <= System.currentTimeMillis()) {
+        final long now = System.currentTimeMillis();
+        for (ResponseTable table : this.responseTables) {
+            List<ResponseFuture> list = table.removeIf(rep -> (rep.getBeginTimestamp() + rep.getTimeoutMillis() + 1000) <= now);
+            for (ResponseFuture rep : list) {
+                rep.cancelTimeout();
                 rep.release();
-                it.remove();
                 rfList.add(rep);
                 logger.warn("remove timeout request:{} ", rep);
             }
+            if (!table.getChannel().isActive() && table.isEmpty()) {
+                this.responseTables.remove(table);
+            }
         }
 
         for (ResponseFuture rf : rfList) {
@@ -93,45 +164,21 @@ public void closeChannel(final Channel channel) {
         if (null == channel) {
             return;
         }
-        try {
-            if (this.lockChannelTables.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
-                try {
-                    boolean removeItemFromTable = true;
-                    ChannelWrapper prevCW = null;
-                    String addrRemote = null;
-                    for (Map.Entry<String, ChannelWrapper> entry : channelTables.entrySet()) {
-                        String key = entry.getKey();
-                        ChannelWrapper prev = entry.getValue();
-                        if (prev.getChannel() != null) {
-                            if (prev.getChannel() == channel) {
-                                prevCW = prev;
-                                addrRemote = key;
-                                break;
-                            }
-                        }
-                    }
-
-                    if (null == prevCW) {
-                        logger.info("eventCloseChannel: the channel[{}] has been removed from the channel table before", addrRemote);
-                        removeItemFromTable = false;
-                    }
-
-                    if (removeItemFromTable) {
-                        this.channelTables.remove(addrRemote);
-                        logger.info("closeChannel: the channel[{}] was removed from channel table", addrRemote);
-                        RemotingUtil.closeChannel(channel);
-                    }
-                } catch (Exception e) {
-                    logger.error("closeChannel: close the channel exception", e);
-                } finally {
-                    this.lockChannelTables.unlock();
-                }
-            } else {
-                logger.warn("closeChannel: try to lock channel table, but timeout, {}ms", LockTimeoutMillis);
+        //不加全局锁,只摘掉这个channel对应的那一项(和建连时的compute一样按key原子操作)
+        for (Map.Entry<String, ChannelWrapper> entry : channelTables.entrySet()) {
+            String addrRemote = entry.getKey();
+            ChannelWrapper cw = entry.getValue();
+            if (cw.getChannel() != channel) {
+                continue;
+            }
+            //连接失败的留在表里,用来做重连退避
+            if (!cw.isConnectFailed() && this.channelTables.remove(addrRemote, cw)) {
+                logger.info("closeChannel: the channel[{}] was removed from channel table", addrRemote);
             }
-        } catch (InterruptedException e) {
-            logger.error("closeChannel exception", e);
+            RemotingUtil.closeChannel(channel);
+            return;
         }
+        logger.info("eventCloseChannel: the channel[{}] has been removed from the channel table before", RemotingHelper.parseChannelRemoteAddr(channel));
     }
 
 
@@ -154,7 +201,7 @@ public void processMessageReceived(ChannelHandlerContext ctx, RemotingCommand ms
     private static final boolean gracefullyShutDown = Boolean.parseBoolean(Config.ins().get("rpcx.gracefully.shutdown", "false"));
 
     public void processRequestCommand(final ChannelHandlerContext ctx, final RemotingCommand cmd) {
-        final int opaque = cmd.getOpaque();
+        final long opaque = cmd.getOpaque();
         if (this.stop) {
             if (!cmd.isOnewayRPC()) {
                 Message message = new Message();
@@ -165,6 +212,7 @@ public void processRequestCommand(final ChannelHandlerContext ctx, final Remotin
                 final RemotingCommand response = RemotingCommand.createResponseCommand(message);
                 ctx.writeAndFlush(response);
             }
+            cmd.release();
             return;
         }
 
@@ -174,42 +222,54 @@ public void processRequestCommand(final ChannelHandlerContext ctx, final Remotin
 
         if (pair != null) {
             Runnable run = () -> {
+                if (gracefullyShutDown) {
+                    processingRequest.increment();
+                }
+                //是否是oneway是根据来的request计算的
+                final boolean oneway = cmd.isOnewayRPC();
+                CompletableFuture<RemotingCommand> future;
                 try {
-                    if (gracefullyShutDown) {
-                        processingRequest.increment();
-                    }
-                    final RemotingCommand response = pair.getObject1().processRequest(ctx, cmd);
-                    //是否是oneway是根据来的request计算的
-                    if (!cmd.isOnewayRPC()) {
-                        if (response != null) {
+                    future = pair.getObject1().asyncProcessRequest(ctx, cmd);
+                } catch (Throwable e) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(e);
+                } finally {
+                    //包体用完就释放(异步方法完成时已经不需要请求包体了)
+                    cmd.release();
+                }
+                //异步方法在业务完成时才回写,不占用业务线程
+                future.whenComplete((response, e) -> {
+                    try {
+                        if (null != e) {
+                            logger.error("process request exception", e);
+                            if (!oneway) {
+                                //用请求的message回错误(带着seq),http pipelining要按seq依次写回,不能少一个
+                                final RemotingCommand errorResponse = cmd.requestToResponse();
+                                errorResponse.setErrorMessage(RemotingSysResponseCode.SYSTEM_ERROR,
+                                        RemotingHelper.exceptionSimpleDesc(e instanceof CompletionException && null != e.getCause() ? e.getCause() : e));
+                                errorResponse.setOpaque(opaque);
+                                ctx.writeAndFlush(errorResponse);
+                            }
+                        } else if (!oneway && response != null) {
                             response.setOpaque(opaque);
                             response.markResponseType();
                             try {
                                 ctx.writeAndFlush(response);
-                            } catch (Throwable e) {
-                                logger.error("process request over, but response failed", e);
-                                logger.error(cmd.toString());
+                            } catch (Throwable ex) {
+                                logger.error("process request over, but response failed", ex);
                                 logger.error(response.toString());
                             }
                         }
+                    } finally {
+                        if (gracefullyShutDown) {
+                            processingRequest.decrement();
+                        }
                     }
-                } catch (Throwable e) {
-                    logger.error("process request exception", e);
-                    logger.error(cmd.toString());
-                    if (!cmd.isOnewayRPC()) {
-                        final RemotingCommand response = RemotingCommand.createResponseCommand(RemotingSysResponseCode.SYSTEM_ERROR,
-                                RemotingHelper.exceptionSimpleDesc(e));
-                        response.setOpaque(opaque);
-                        ctx.writeAndFlush(response);
-                    }
-                } finally {
-                    if (gracefullyShutDown) {
-                        processingRequest.decrement();
-                    }
-                }
+                });
             };
 
             if (pair.getObject1().rejectRequest()) {
+                cmd.release();
                 final RemotingCommand response = RemotingCommand.createResponseCommand(RemotingSysResponseCode.SYSTEM_BUSY,
                         "[REJECTREQUEST]system busy, start flow control for a while");
                 response.setOpaque(opaque);
@@ -222,6 +282,7 @@ public void processRequestCommand(final ChannelHandlerContext ctx, final Remotin
                 pair.getObject2().submit(requestTask);
 
             } catch (RejectedExecutionException e) {
+                cmd.release();
                 if ((System.currentTimeMillis() % 10000) == 0) {
                     logger.warn(RemotingHelper.parseChannelRemoteAddr(ctx.channel())
                             + ", too many requests and system thread pool busy, RejectedExecutionException "
@@ -237,6 +298,7 @@ public void processRequestCommand(final ChannelHandlerContext ctx, final Remotin
                 }
             }
         } else {
+            cmd.release();
             String error = " request type " + cmd.getCode() + " not supported";
             final RemotingCommand response =
                     RemotingCommand.createResponseCommand(RemotingSysResponseCode.REQUEST_CODE_NOT_SUPPORTED, error);
@@ -246,11 +308,6 @@ public void processRequestCommand(final ChannelHandlerContext ctx, final Remotin
         }
     }
 
-    protected boolean useEpoll() {
-        return RemotingUtil.isLinuxPlatform() && Epoll.isAvailable();
-    }
-
-
     /**
      * 处理返回结果
      *
@@ -258,47 +315,19 @@ protected boolean useEpoll() {
      * @param cmd
      */
     public void processResponseCommand(ChannelHandlerContext ctx, RemotingCommand cmd) {
-        try {
-            cmd.getMessage().decode(cmd.getData());
-        } catch (UnsupportedEncodingException e) {
-            logger.warn("decode error:{}", e.getMessage());
-        }
+        cmd.decode();
         //获取request带过去的唯一码
-        final int opaque = cmd.getOpaque();
-        //查询responseFuture
-        final ResponseFuture responseFuture = this.responseTable.get(opaque);
+        final long opaque = cmd.getOpaque();
+        //查询responseFuture(移除成功的才能处理这个结果,超时扫描也可能同时在移除)
+        final ResponseTable table = ctx.channel().attr(RESPONSE_TABLE).get();
+        final ResponseFuture responseFuture = null == table ? null : table.remove(opaque);
         if (responseFuture != null) {
+            responseFuture.cancelTimeout();
             //这里并不解除阻塞
             responseFuture.setResponseCommand(cmd);
             responseFuture.release();
-            this.responseTable.remove(opaque);
             if (responseFuture.getInvokeCallback() != null) {
-                boolean runInThisThread = false;
-                ExecutorService executor = this.getCallbackExecutor();
-                if (executor != null) {
-                    try {
-                        executor.submit(() -> {
-                            try {
-                                responseFuture.executeInvokeCallback();
-                            } catch (Throwable e) {
-                                logger.warn("execute callback in executor exception, and callback throw", e);
-                            }
-                        });
-                    } catch (Exception e) {
-                        runInThisThread = true;
-                        logger.warn("execute callback in executor exception, maybe executor busy", e);
-                    }
-                } else {
-                    runInThisThread = true;
-                }
-
-                if (runInThisThread) {
-                    try {
-                        responseFuture.executeInvokeCallback();
-                    } catch (Throwable e) {
-                        logger.warn("executeInvokeCallback Exception", e);
-                    }
-                }
+                executeInvokeCallback(responseFuture);
             } else {
                 //解除阻塞
                 responseFuture.putResponse(cmd);
@@ -306,12 +335,49 @@ public void processResponseCommand(ChannelHandlerContext ctx, RemotingCommand cm
         } else {
             logger.warn("receive response, but not matched any request, " + RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
             logger.warn(cmd.toString());
+            cmd.release();
+        }
+    }
+
+    /**
+     * 在callbackExecutor中执行callback(忙的时候在当前线程执行)
+     *
+     * @param responseFuture
+     */
+    protected void executeInvokeCallback(ResponseFuture responseFuture) {
+        if (responseFuture.getInvokeCallback() != null) {
+            boolean runInThisThread = false;
+            ExecutorService executor = this.getCallbackExecutor();
+            if (executor != null) {
+                try {
+                    executor.submit(() -> {
+                        try {
+                            responseFuture.executeInvokeCallback();
+                        } catch (Throwable e) {
+                            logger.warn("execute callback in executor exception, and callback throw", e);
+                        }
+                    });
+                } catch (Exception e) {
+                    runInThisThread = true;
+                    logger.warn("execute callback in executor exception, maybe executor busy", e);
+                }
+            } else {
+                runInThisThread = true;
+            }
+
+            if (runInThisThread) {
+                try {
+                    responseFuture.executeInvokeCallback();
+                } catch (Throwable e) {
+                    logger.warn("executeInvokeCallback Exception", e);
+                }
+            }
         }
     }
 
     private ExecutorService callbackExecutor = Executors.newFixedThreadPool(5);
 
-    private ExecutorService getCallbackExecutor() {
+    protected ExecutorService getCallbackExecutor() {
         return callbackExecutor;
     }
 
@@ -4,11 +4,23 @@
 import com.colobu.rpcx.protocol.RemotingCommand;
 import io.netty.channel.ChannelHandlerContext;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author goodjava@qq.com
  */
 public interface NettyRequestProcessor {
     RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
             throws Exception;
+
+    /**
+     * 异步处理请求,future完成时才回写response
+     * 默认同步处理
+     */
+    default CompletableFuture<RemotingCommand> asyncProcessRequest(ChannelHandlerContext ctx, RemotingCommand request)
+            throws Exception {
+        return CompletableFuture.completedFuture(processRequest(ctx, request));
+    }
+
     boolean rejectRequest();
 }
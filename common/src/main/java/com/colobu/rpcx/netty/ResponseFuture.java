@@ -6,9 +6,11 @@
 import com.colobu.rpcx.config.Constants;
 import com.colobu.rpcx.protocol.MessageStatusType;
 import com.colobu.rpcx.protocol.RemotingCommand;
-import com.colobu.rpcx.rpc.HessianUtils;
 import com.colobu.rpcx.rpc.RpcException;
+import com.colobu.rpcx.serializer.SerializerFactory;
+import io.netty.util.Timeout;
 
+import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -18,7 +20,7 @@
  * @author goodjava@qq.com
  */
 public class ResponseFuture<T> {
-    private final int opaque;
+    private final long opaque;
     private final long timeoutMillis;
     private final InvokeCallback invokeCallback;
     private final long beginTimestamp = System.currentTimeMillis();
@@ -34,8 +36,13 @@
     private volatile boolean sendRequestOK = true;
     private volatile Throwable cause;
 
+    /**
+     * 时间轮上的超时任务,收到结果以后取消
+     */
+    private volatile Timeout timeout;
+
 
-    public ResponseFuture(int opaque, long timeoutMillis, InvokeCallback invokeCallback,
+    public ResponseFuture(long opaque, long timeoutMillis, InvokeCallback invokeCallback,
                           SemaphoreReleaseOnlyOnce once) {
         this.opaque = opaque;
         this.timeoutMillis = timeoutMillis;
@@ -127,7 +134,19 @@ public void setResponseCommand(RemotingCommand responseCommand) {
     }
 
 
-    public int getOpaque() {
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    public void cancelTimeout() {
+        Timeout t = this.timeout;
+        if (null != t) {
+            t.cancel();
+        }
+    }
+
+
+    public long getOpaque() {
         return opaque;
     }
 
@@ -142,12 +161,22 @@ public String toString() {
 
     public T get(long timeoutMillis) throws InterruptedException {
         RemotingCommand res = this.waitResponse(timeoutMillis);
-        //如果有错误,则输出错误异常
-        if (res.getMessage().getMessageStatusType().equals(MessageStatusType.Error)) {
-            throw new RpcException(res.getMessage().getMetadata().get(Constants.RPCX_ERROR_MESSAGE), res.getMessage().getMetadata().get(Constants.RPCX_ERROR_CODE));
-        } else {
-            byte[] data = res.getMessage().payload;
-            return (T) HessianUtils.read(data);
+        if (null == res) {
+            //超时或者连接断开了
+            throw new RpcException(null == cause ? "wait response timeout:" + timeoutMillis : cause.getMessage(), cause, "");
+        }
+        try {
+            //如果有错误,则输出错误异常
+            if (res.getMessage().getMessageStatusType().equals(MessageStatusType.Error)) {
+                throw new RpcException(res.getMessage().getMetadataValue(Constants.RPCX_ERROR_MESSAGE), res.getMessage().getMetadataValue(Constants.RPCX_ERROR_CODE));
+            } else {
+                //这里没有方法的类型信息,msgpack读出来的是基本对象(List/Map...)
+                return (T) SerializerFactory.get(res.getMessage().getSerializeType()).decodeResponse(null, res.getMessage().getPayloadBuf());
+            }
+        } catch (IOException e) {
+            throw new RpcException(e);
+        } finally {
+            res.release();
         }
     }
 }
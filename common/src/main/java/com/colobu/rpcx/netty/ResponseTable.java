@@ -0,0 +1,157 @@
+package com.colobu.rpcx.netty;
+
+import io.netty.channel.Channel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * 一个连接上等待返回结果的请求(opaque -> ResponseFuture)
+ * 1.opaque是连接内递增的64位id,槽位就是 opaque & mask,基本上不会冲突,冲突了线性探测
+ * 2.不对key装箱也不分配map节点,槽位里直接放ResponseFuture(用它的opaque做比较)
+ * 3.put/get/remove都是CAS,remove只有一个调用方能拿到future(返回结果/超时/发送失败不会重复处理)
+ * 4.容量是固定的(rpcx.response.table.capacity),不会扩容,满了put返回false,调用方抛RemotingTooMuchRequestException
+ * 5.记录等待中的请求数,客户端用它在多个连接里挑最闲的
+ * 6.等待数和最大探测距离放在一个long里一起CAS,表排空的时候探测距离归零,get/remove不会一直按历史最坏情况去找
+ *
+ * @author goodjava@qq.com
+ */
+public class ResponseTable {
+
+    private final Channel channel;
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private final AtomicReferenceArray<ResponseFuture> slots;
+
+    private final int mask;
+
+    private static final long PENDING = 1L << 32;
+
+    /**
+     * 高32位:等待中的请求数(包括正在put的),低32位:上次排空以来的最大探测距离,get/remove最多找这么远
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    public ResponseTable(Channel channel, int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.channel = channel;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 连接内唯一的请求id(从1开始)
+     *
+     * @return
+     */
+    public long nextId() {
+        return ids.incrementAndGet();
+    }
+
+    public boolean put(ResponseFuture future) {
+        long opaque = future.getOpaque();
+        //先占上名额,放入的过程中表不会被当成排空
+        state.addAndGet(PENDING);
+        for (int i = 0; i <= mask; i++) {
+            if (slots.compareAndSet(index(opaque, i), null, future)) {
+                if (i > 0) {
+                    state.accumulateAndGet(i, (s, probe) -> (int) s >= probe ? s : (s & -PENDING) | probe);
+                }
+                return true;
+            }
+        }
+        release();
+        return false;
+    }
+
+    public ResponseFuture get(long opaque) {
+        int probe = maxProbe();
+        for (int i = 0; i <= probe; i++) {
+            ResponseFuture future = slots.get(index(opaque, i));
+            if (null != future && future.getOpaque() == opaque) {
+                return future;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param opaque
+     * @return 被这次调用移除的future,已经被别人移除了返回null
+     */
+    public ResponseFuture remove(long opaque) {
+        int probe = maxProbe();
+        for (int i = 0; i <= probe; i++) {
+            int index = index(opaque, i);
+            ResponseFuture future = slots.get(index);
+            if (null != future && future.getOpaque() == opaque) {
+                if (slots.compareAndSet(index, future, null)) {
+                    release();
+                    return future;
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 移除所有满足条件的future
+     *
+     * @param filter
+     * @return 被这次调用移除的future
+     */
+    public List<ResponseFuture> removeIf(Predicate<ResponseFuture> filter) {
+        List<ResponseFuture> list = new ArrayList<>();
+        for (int i = 0; i <= mask; i++) {
+            ResponseFuture future = slots.get(i);
+            if (null != future && filter.test(future) && slots.compareAndSet(i, future, null)) {
+                release();
+                list.add(future);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 等待返回的请求数
+     *
+     * @return
+     */
+    public int size() {
+        return (int) (state.get() >>> 32);
+    }
+
+    int maxProbe() {
+        return (int) state.get();
+    }
+
+    /**
+     * 等待数减一,减到0说明表里没有也没有正在放入的future,探测距离归零
+     */
+    private void release() {
+        state.updateAndGet(s -> s - PENDING < PENDING ? 0 : s - PENDING);
+    }
+
+    public boolean isEmpty() {
+        for (int i = 0; i <= mask; i++) {
+            if (null != slots.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int index(long opaque, int probe) {
+        return (int) (opaque + probe) & mask;
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.colobu.rpcx.netty;
+
+import com.colobu.rpcx.common.Config;
+import com.colobu.rpcx.common.RemotingUtil;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketChannel;
+import io.netty.channel.unix.ServerDomainSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 网络传输层的实现
+ * rpcx.transport=auto(默认,linux上有epoll就用epoll)|nio|epoll|io_uring
+ * 选择的实现不可用时依次降级 io_uring -> epoll -> nio
+ * io_uring 需要classpath里有 netty-incubator-transport-io_uring(用反射加载,没有的话直接降级)
+ * unix domain socket 目前只有epoll支持
+ *
+ * @author goodjava@qq.com
+ */
+public enum Transport {
+
+    NIO,
+
+    EPOLL,
+
+    IO_URING;
+
+    private static final Logger logger = LoggerFactory.getLogger(Transport.class);
+
+    private static final String URING_PACKAGE = "io.netty.incubator.channel.uring.";
+
+    /**
+     * 配置里的transport(降级以后的)
+     *
+     * @return
+     */
+    public static Transport select() {
+        return select(Config.ins().get("rpcx.transport", "auto"));
+    }
+
+    public static Transport select(String name) {
+        Transport transport;
+        if (null == name || "auto".equalsIgnoreCase(name)) {
+            transport = EPOLL;
+        } else {
+            try {
+                transport = Transport.valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logger.warn("unknown transport:{}, use auto", name);
+                transport = EPOLL;
+            }
+        }
+        Transport selected = transport;
+        while (!selected.isAvailable()) {
+            selected = Transport.values()[selected.ordinal() - 1];
+        }
+        if (selected != transport) {
+            logger.info("transport {} is not available, fall back to {}", transport, selected);
+        }
+        return selected;
+    }
+
+    public boolean isAvailable() {
+        switch (this) {
+            case EPOLL:
+                return RemotingUtil.isLinuxPlatform() && Epoll.isAvailable();
+            case IO_URING:
+                return RemotingUtil.isLinuxPlatform() && UringHolder.AVAILABLE;
+            default:
+                return true;
+        }
+    }
+
+    public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+        switch (this) {
+            case EPOLL:
+                return new EpollEventLoopGroup(threads, threadFactory);
+            case IO_URING:
+                try {
+                    return (EventLoopGroup) Class.forName(URING_PACKAGE + "IOUringEventLoopGroup")
+                            .getConstructor(int.class, ThreadFactory.class).newInstance(threads, threadFactory);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("create io_uring event loop group error", e);
+                }
+            default:
+                return new NioEventLoopGroup(threads, threadFactory);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public Class<? extends SocketChannel> socketChannelClass() {
+        switch (this) {
+            case EPOLL:
+                return EpollSocketChannel.class;
+            case IO_URING:
+                return (Class<? extends SocketChannel>) UringHolder.load("IOUringSocketChannel");
+            default:
+                return NioSocketChannel.class;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+        switch (this) {
+            case EPOLL:
+                return EpollServerSocketChannel.class;
+            case IO_URING:
+                return (Class<? extends ServerSocketChannel>) UringHolder.load("IOUringServerSocketChannel");
+            default:
+                return NioServerSocketChannel.class;
+        }
+    }
+
+    public boolean supportsDomainSocket() {
+        return this == EPOLL;
+    }
+
+    public Class<? extends DomainSocketChannel> domainSocketChannelClass() {
+        if (!supportsDomainSocket()) {
+            throw new UnsupportedOperationException(this + " does not support unix domain socket");
+        }
+        return EpollDomainSocketChannel.class;
+    }
+
+    public Class<? extends ServerDomainSocketChannel> serverDomainSocketChannelClass() {
+        if (!supportsDomainSocket()) {
+            throw new UnsupportedOperationException(this + " does not support unix domain socket");
+        }
+        return EpollServerDomainSocketChannel.class;
+    }
+
+
+    private static class UringHolder {
+
+        private static final boolean AVAILABLE = available();
+
+        private static boolean available() {
+            try {
+                return (Boolean) Class.forName(URING_PACKAGE + "IOUring").getMethod("isAvailable").invoke(null);
+            } catch (Throwable e) {
+                return false;
+            }
+        }
+
+        private static Class<?> load(String name) {
+            try {
+                return Class.forName(URING_PACKAGE + name);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("io_uring transport not found", e);
+            }
+        }
+    }
+
+}
@@ -11,7 +11,23 @@ public enum CompressType {
     /**
      * gzip压缩
      */
-    Gzip(1);
+    Gzip(1),
+    /**
+     * snappy压缩(速度优先)
+     */
+    Snappy(2),
+    /**
+     * lz4压缩,需要通过CompressorFactory注册实现
+     */
+    Lz4(3),
+    /**
+     * zstd压缩,需要通过CompressorFactory注册实现
+     */
+    Zstd(4),
+    /**
+     * deflate+预置字典(适合几百字节到几k的小包),字典id放在metadata里
+     */
+    Dictionary(5);
 
 
     private final int v;
@@ -22,6 +38,9 @@ public enum CompressType {
 
     private static CompressType[] values = CompressType.values();
     public static CompressType getValue(int i) {
+        if (i < 0 || i >= values.length) {
+            throw new IllegalArgumentException("unknown compress type:" + i);
+        }
         return values[i];
     }
 
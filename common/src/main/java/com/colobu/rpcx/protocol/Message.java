@@ -1,17 +1,27 @@
 package com.colobu.rpcx.protocol;
 
 import com.colobu.rpcx.common.Bytes;
+import com.colobu.rpcx.common.Config;
+import com.colobu.rpcx.compress.CompressPolicy;
+import com.colobu.rpcx.compress.Compressor;
+import com.colobu.rpcx.compress.CompressorFactory;
+import com.colobu.rpcx.compress.DictionaryManager;
+import com.colobu.rpcx.config.Constants;
 import com.colobu.rpcx.rpc.RpcException;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import lombok.Data;
 
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author goodjava@qq.com
@@ -21,6 +31,14 @@ public class Message {
 
     public static byte magicNumber = 0x08;
 
+    /**
+     * 解码出来的 servicePath/serviceMethod:UTF-8字节 -> String
+     * 同一个名字只生成一次String(hash也只算一次),后面按原始字节查到直接复用
+     */
+    private static final ConcurrentMap<ByteBuf, String> names = new ConcurrentHashMap<>();
+
+    private static final int maxNames = Integer.parseInt(Config.ins().get("rpcx.decode.name.cache.size", "4096"));
+
     public byte[] header;
     /**
      * java-->className
@@ -48,6 +66,15 @@ public Message() {
         this.metadata = new HashMap<>(2);
     }
 
+    /**
+     * 解码用,metadata和payload都在decode的时候才确定
+     *
+     * @param header
+     */
+    public Message(byte[] header) {
+        this.header = header;
+    }
+
 
     public Message(String servicePath, String serviceMethod, MessageType messageType, long seq) {
         this(servicePath, serviceMethod);
@@ -154,6 +181,21 @@ public void setSerializeType(SerializeType st) {
         header[3] |= (v << 4) & 0xF0;
     }
 
+    /**
+     * 紧凑格式的请求体(java调用:方法id + attachments + 参数),用header[3]没有用到的最低位
+     */
+    public boolean isCompact() {
+        return (header[3] & 0x01) != 0;
+    }
+
+    public void setCompact(boolean compact) {
+        if (compact) {
+            header[3] |= 0x01;
+        } else {
+            header[3] &= ~0x01;
+        }
+    }
+
     public long getSeq() {
         return Bytes.bytes2long(header, 4);
     }
@@ -163,11 +205,49 @@ public void setSeq(long seq) {
     }
 
 
+    /**
+     * 按照header里的CompressType压缩payload
+     *
+     * @return 不值得压缩的时候返回null(小于阈值或者最近的压缩率太差)
+     * @throws IOException
+     */
     private byte[] compress() throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        GZIPOutputStream zipStream = new GZIPOutputStream(bos);
-        zipStream.write(payload);
-        return bos.toByteArray();
+        String sp = getServicePath();
+        Compressor compressor;
+        if (getCompressType() == CompressType.Dictionary) {
+            //是否压缩在DictionaryManager.prepare里已经决定了,没有字典id的不压缩
+            String id = getMetadataValue(Constants.COMPRESS_DICT_ID);
+            if (null == id) {
+                return null;
+            }
+            compressor = DictionaryManager.getCompressor(id);
+        } else {
+            compressor = CompressorFactory.get(getCompressType());
+            if (!CompressPolicy.shouldCompress(sp, getCompressType(), payload.length)) {
+                return null;
+            }
+        }
+        byte[] data = compressor.compress(payload);
+        CompressPolicy.record(sp, getCompressType(), payload.length, data.length);
+        if (getCompressType() == CompressType.Dictionary) {
+            DictionaryManager.record(sp, getMetadataValue(Constants.COMPRESS_DICT_ID), payload.length, data.length);
+        }
+        return data;
+    }
+
+    private byte[] decompress(ByteBuf data, DictionaryManager.PeerDictionaries peer) {
+        try {
+            Compressor compressor;
+            if (getCompressType() == CompressType.Dictionary) {
+                String id = getMetadataValue(Constants.COMPRESS_DICT_ID);
+                compressor = null == peer ? DictionaryManager.getCompressor(id) : peer.getCompressor(id);
+            } else {
+                compressor = CompressorFactory.get(getCompressType());
+            }
+            return compressor.decompress(data);
+        } catch (IOException e) {
+            throw new RpcException("decompress payload error:" + e.getMessage(), e, "");
+        }
     }
 
 
@@ -178,61 +258,108 @@ private byte[] compress() throws IOException {
      * @throws Exception
      */
     public byte[] encode() throws Exception {
-        if (getCompressType() == CompressType.Gzip) {
-            this.payload = compress();
+        ByteBuf buf = encode(UnpooledByteBufAllocator.DEFAULT, Integer.MAX_VALUE);
+        try {
+            return ByteBufUtil.getBytes(buf);
+        } finally {
+            buf.release();
         }
+    }
 
-        byte[] spBytes = servicePath.getBytes();
-        byte[] smBytes = serviceMethod.getBytes();
-        ByteBuf metaBytes = encodeMetadata();
 
-        int headLen = header.length;
-        int bodyLen = spBytes.length + 4 + smBytes.length + 4 + metaBytes.capacity() + 4 + payload.length + 4;
+    /**
+     * 直接编码到allocator分配的ByteBuf中(先算出整帧长度,不再经过中间的byte[])
+     * payload 大于等于 compositeThreshold 时不拷贝,作为CompositeByteBuf的一个component
+     *
+     * @param allocator
+     * @param compositeThreshold
+     * @return
+     * @throws Exception
+     */
+    public ByteBuf encode(ByteBufAllocator allocator, int compositeThreshold) throws Exception {
+        byte[] data = null == payload ? new byte[]{} : payload;
+        boolean uncompressed = false;
+        if (data.length > 0 && getCompressType() != CompressType.None) {
+            byte[] compressed = compress();
+            if (null == compressed) {
+                uncompressed = true;
+            } else {
+                data = compressed;
+            }
+        }
 
-        int capacity = headLen + 4 + bodyLen;
-        ByteBuffer buffer = ByteBuffer.allocate(capacity);
-        buffer.put(header);
+        String sp = null == servicePath ? "" : servicePath;
+        String sm = null == serviceMethod ? "" : serviceMethod;
+        int spLen = ByteBufUtil.utf8Bytes(sp);
+        int smLen = ByteBufUtil.utf8Bytes(sm);
+        int metaLen = null == metadata ? 0 : metadataLength();
+        int payloadLen = data.length;
+
+        int bodyLen = spLen + 4 + smLen + 4 + metaLen + 4 + payloadLen + 4;
+        boolean composite = payloadLen >= compositeThreshold;
+
+        int capacity = header.length + 4 + bodyLen - (composite ? payloadLen : 0);
+        ByteBuf buf = allocator.ioBuffer(capacity);
+        try {
+            buf.writeBytes(header);
+            if (uncompressed) {
+                buf.setByte(buf.writerIndex() - header.length + 2, header[2] & ~0x1C);
+            }
 
-        buffer.putInt(bodyLen);
+            buf.writeInt(bodyLen);
 
-        buffer.putInt(spBytes.length);
-        buffer.put(spBytes);
+            buf.writeInt(spLen);
+            ByteBufUtil.reserveAndWriteUtf8(buf, sp, spLen);
 
-        buffer.putInt(smBytes.length);
-        buffer.put(smBytes);
+            buf.writeInt(smLen);
+            ByteBufUtil.reserveAndWriteUtf8(buf, sm, smLen);
 
-        buffer.putInt(metaBytes.capacity());
-        buffer.put(metaBytes.array());
+            buf.writeInt(metaLen);
+            if (null != metadata) {
+                encodeMetadata(buf);
+            }
 
-        buffer.putInt(payload.length);
-        buffer.put(payload);
+            buf.writeInt(payloadLen);
+            if (!composite) {
+                buf.writeBytes(data);
+                return buf;
+            }
+        } catch (Throwable e) {
+            buf.release();
+            throw e;
+        }
 
-        return buffer.array();
+        CompositeByteBuf frame = allocator.compositeBuffer(2);
+        frame.addComponents(true, buf, Unpooled.wrappedBuffer(data));
+        return frame;
     }
 
 
-    private ByteBuf encodeMetadata() {
-        if (metadata.size() == 0) {
-            return Unpooled.EMPTY_BUFFER;
+    private int metadataLength() {
+        int len = 0;
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            String v = entry.getValue();
+            len += 4 + ByteBufUtil.utf8Bytes(entry.getKey()) + 4 + ByteBufUtil.utf8Bytes(null == v ? "null" : v);
         }
+        return len;
+    }
 
-        ByteBuf buf = Unpooled.buffer(metadata.size() * 15);
 
+    private void encodeMetadata(ByteBuf buf) {
         for (Map.Entry<String, String> entry : metadata.entrySet()) {
             String key = entry.getKey();
-            byte[] keyBytes = key.getBytes();
-            buf.writeInt(keyBytes.length);
-            buf.writeBytes(keyBytes);
+            int keyLen = ByteBufUtil.utf8Bytes(key);
+            buf.writeInt(keyLen);
+            ByteBufUtil.reserveAndWriteUtf8(buf, key, keyLen);
 
             String v = entry.getValue();
             if (null == v) {
                 v = "null";
             }
-            byte[] vBytes = v.getBytes();
-            buf.writeInt(vBytes.length);
-            buf.writeBytes(vBytes);
+            int vLen = ByteBufUtil.utf8Bytes(v);
+            buf.writeInt(vLen);
+            ByteBufUtil.reserveAndWriteUtf8(buf, v, vLen);
         }
-        return buf.capacity(buf.writerIndex());
     }
 
 
@@ -240,60 +367,107 @@ private ByteBuf encodeMetadata() {
      * 业务解码
      */
     public void decode(byte[] data) throws UnsupportedEncodingException {
-        ByteBuffer buf = ByteBuffer.wrap(data);
-        //servicePath
-        int len = buf.getInt();
-        byte[] b = new byte[len];
-        buf.get(b);
-        servicePath = new String(b, "UTF-8");
-        //serviceMethod
-        len = buf.getInt();
-        b = new byte[len];
-        buf.get(b);
-        serviceMethod = new String(b, "UTF-8");
-        //metadata
-        len = buf.getInt();
-        b = new byte[len];
-        buf.get(b);
-        decodeMetadata(b);
-        //payload
-        len = buf.getInt();
-        byte[] payload = new byte[len];
-        buf.get(payload);
-        this.payload = payload;
+        decode(Unpooled.wrappedBuffer(data));
+    }
+
+
+    /**
+     * 业务解码,所有字段(包括public的字段)在这里都解码出来,压缩过的payload在这里解压
+     * servicePath和serviceMethod复用之前解码过的String
+     * 包体解码完就释放,message不再持有解码时的ByteBuf
+     *
+     * @param data
+     */
+    public void decode(ByteBuf data) {
+        decode(data, null);
+    }
+
+    /**
+     * @param data
+     * @param peer 连接上对端发过来的字典(字典压缩的message才会用到,null的时候用自己的字典)
+     */
+    public void decode(ByteBuf data, DictionaryManager.PeerDictionaries peer) {
+        try {
+            //servicePath
+            this.servicePath = readName(data);
+            //serviceMethod
+            this.serviceMethod = readName(data);
+            //metadata
+            this.metadata = decodeMetadata(data.readSlice(data.readInt()));
+            //payload
+            ByteBuf payloadBuf = data.readSlice(data.readInt());
+            if (getCompressType() == CompressType.None) {
+                this.payload = ByteBufUtil.getBytes(payloadBuf);
+            } else {
+                if (getCompressType() == CompressType.Dictionary && null != peer) {
+                    //先注册对端带过来的字典再解压
+                    peer.receive(this);
+                }
+                this.payload = decompress(payloadBuf, peer);
+            }
+        } finally {
+            data.release();
+        }
     }
 
-    private void decodeMetadata(byte[] b) throws UnsupportedEncodingException {
-        int blen = b.length;
+    private static String readName(ByteBuf data) {
+        ByteBuf raw = data.readSlice(data.readInt());
+        String name = names.get(raw);
+        if (null == name) {
+            name = raw.toString(StandardCharsets.UTF_8);
+            //名字是对端传过来的,满了直接清空
+            if (names.size() >= maxNames) {
+                names.clear();
+            }
+            names.putIfAbsent(Unpooled.copiedBuffer(raw), name);
+        }
+        return name;
+    }
+
+    private static String readString(ByteBuf data) {
+        int len = data.readInt();
+        return data.readCharSequence(len, StandardCharsets.UTF_8).toString();
+    }
+
+    private static Map<String, String> decodeMetadata(ByteBuf data) {
+        int blen = data.readableBytes();
+        Map<String, String> metadata = new HashMap<>(Math.max(2, blen / 16));
         if (blen > 8) {
-            int len;
-            int index = 0;
-            byte[] data = null;
             for (; ; ) {
-                if (blen - index < 4) {
+                if (data.readableBytes() < 4) {
                     break;
                 }
-                len = Bytes.bytes2int(b, index);
-                index = index + 4;
-                data = new byte[len];
-                System.arraycopy(b, index, data, 0, len);
-                String key = new String(data, "UTF-8");
-                index = index + len;
-
-
-                len = Bytes.bytes2int(b, index);
-                index = index + 4;
-                data = new byte[len];
-                System.arraycopy(b, index, data, 0, len);
-                String value = new String(data, "UTF-8");
-                index = index + len;
-                this.metadata.put(key, value);
+                String key = readString(data);
+                String value = readString(data);
+                metadata.put(key, value);
             }
         }
+        return metadata;
     }
 
 
     public Map<String, String> getMetadata() {
+        if (null == metadata) {
+            metadata = new HashMap<>(2);
+        }
         return metadata;
     }
+
+    public String getMetadataValue(String key) {
+        return getMetadata().get(key);
+    }
+
+    /**
+     * 以ByteBuf的形式读取payload(包装payload,不拷贝)
+     *
+     * @return
+     */
+    public ByteBuf getPayloadBuf() {
+        return null == payload ? Unpooled.EMPTY_BUFFER : Unpooled.wrappedBuffer(payload);
+    }
+
+    public int getPayloadLength() {
+        return null == payload ? 0 : payload.length;
+    }
+
 }
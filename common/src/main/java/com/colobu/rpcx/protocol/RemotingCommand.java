@@ -1,6 +1,10 @@
 package com.colobu.rpcx.protocol;
 
+import com.colobu.rpcx.compress.DictionaryManager;
 import com.colobu.rpcx.config.Constants;
+import io.netty.buffer.ByteBuf;
+
+import java.util.HashMap;
 
 /**
  * Created by goodjava@qq.com.
@@ -13,9 +17,9 @@ public class RemotingCommand {
 
 
     /**
-     * 解码的时候会用到,不会实际传输
+     * 解码的时候会用到,不会实际传输(解码器切出来的包体,decode后交给message)
      */
-    private transient byte[] data;
+    private transient ByteBuf data;
 
     private Message message;
 
@@ -25,13 +29,13 @@ public Message getMessage() {
 
     public void setMessage(Message message) {
         this.message = message;
-        this.setOpaque((int) this.message.getSeq());
+        this.setOpaque(this.message.getSeq());
     }
 
     public RemotingCommand() {
     }
 
-    public RemotingCommand(Message message, byte[] body) {
+    public RemotingCommand(Message message, ByteBuf body) {
         this.message = message;
         this.data = body;
     }
@@ -73,11 +77,11 @@ public void setVersion(int version) {
         this.version = version;
     }
 
-    public int getOpaque() {
-        return (int) this.message.getSeq();
+    public long getOpaque() {
+        return this.message.getSeq();
     }
 
-    public void setOpaque(int opaque) {
+    public void setOpaque(long opaque) {
         this.message.setSeq(opaque);
     }
 
@@ -103,23 +107,55 @@ public void markOnewayRPC() {
         this.message.setOneway(true);
     }
 
+    /**
+     * 错误返回,调用方需要再setOpaque
+     */
     public static RemotingCommand createResponseCommand(int errorCode, String errorMessage) {
         RemotingCommand cmd = new RemotingCommand();
+        cmd.message = new Message();
         cmd.markResponseType();
         cmd.getMessage().setMessageStatusType(MessageStatusType.Error);
-        cmd.getMessage().metadata.put(Constants.RPCX_ERROR_CODE, String.valueOf(errorCode));
-        cmd.getMessage().metadata.put(Constants.RPCX_ERROR_MESSAGE, errorMessage);
+        cmd.getMessage().getMetadata().put(Constants.RPCX_ERROR_CODE, String.valueOf(errorCode));
+        cmd.getMessage().getMetadata().put(Constants.RPCX_ERROR_MESSAGE, errorMessage);
         return cmd;
     }
 
-    public byte[] getData() {
+    public ByteBuf getData() {
         return data;
     }
 
-    public void setData(byte[] data) {
+    public void setData(ByteBuf data) {
         this.data = data;
     }
 
+    /**
+     * 业务解码,解码完包体就释放了
+     */
+    public void decode() {
+        decode(null);
+    }
+
+    /**
+     * @param peer 连接上对端发过来的字典
+     */
+    public void decode(DictionaryManager.PeerDictionaries peer) {
+        if (null != this.data) {
+            ByteBuf body = this.data;
+            this.data = null;
+            this.message.decode(body, peer);
+        }
+    }
+
+    /**
+     * 释放还没有解码的包体(可以多次调用)
+     */
+    public void release() {
+        if (null != this.data) {
+            this.data.release();
+            this.data = null;
+        }
+    }
+
 
     public void setErrorMessage(int code, String message) {
         this.setErrorMessage(String.valueOf(code), message);
@@ -135,15 +171,15 @@ public void setErrorMessage(int code, String message) {
     public void setErrorMessage(String code, String message) {
         //带有错误的返回结果
         this.message.setMessageStatusType(MessageStatusType.Error);
-        this.message.metadata.put(Constants.RPCX_ERROR_CODE, code);
-        this.message.metadata.put(Constants.RPCX_ERROR_MESSAGE, message);
+        this.message.getMetadata().put(Constants.RPCX_ERROR_CODE, code);
+        this.message.getMetadata().put(Constants.RPCX_ERROR_MESSAGE, message);
     }
 
     public RemotingCommand requestToResponse() {
         this.message.setMessageType(MessageType.Response);
-        this.data = new byte[]{};
-        this.message.payload = new byte[]{};
-        this.message.metadata.clear();
+        this.release();
+        this.message.setPayload(new byte[]{});
+        this.message.setMetadata(new HashMap<>(2));
         return this;
     }
 
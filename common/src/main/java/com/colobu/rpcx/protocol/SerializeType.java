@@ -23,7 +23,12 @@ public enum SerializeType {
     MsgPack(3),
 
 
-    Thrift(4);
+    Thrift(4),
+
+    /**
+     * hessian2序列化(java调用,SerializeNone是hessian 1.0)
+     */
+    Hessian2(5);
 
 
     private final int v;
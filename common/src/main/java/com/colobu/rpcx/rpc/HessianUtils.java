@@ -1,44 +1,73 @@
 package com.colobu.rpcx.rpc;
 
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
 import com.caucho.hessian.io.HessianInput;
 import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.io.SerializerFactory;
+import com.colobu.rpcx.common.Config;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
+ * hessian(1.0)和hessian2的读写
+ * 所有的读写共用一个SerializerFactory(类的序列化器只查找一次)
+ * 输出流和输出缓冲区是线程级别复用的,超过 rpcx.hessian.buffer.max 的缓冲区用完就丢掉
+ * write/read 是hessian 1.0(SerializeNone,和老版本兼容),write2/read2 是hessian2
+ *
  * @author goodjava@qq.com
  */
 public class HessianUtils {
 
+    private static final SerializerFactory serializerFactory = new SerializerFactory();
+
+    private static final int MAX_BUFFER_SIZE = Integer.parseInt(Config.ins().get("rpcx.hessian.buffer.max", String.valueOf(1024 * 1024)));
+
+    private static final ThreadLocal<Writer> writers = ThreadLocal.withInitial(Writer::new);
+
+    private static final ThreadLocal<Hessian2Input> inputs2 = ThreadLocal.withInitial(() -> {
+        Hessian2Input in = new Hessian2Input(null);
+        in.setSerializerFactory(serializerFactory);
+        return in;
+    });
+
 
     private HessianUtils() {
 
     }
 
     public static byte[] write(Object obj) {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        HessianOutput ho = new HessianOutput(os);
+        Writer writer = writer();
         try {
-            ho.writeObject(obj);
-            return os.toByteArray();
+            writer.out.init(writer.buf);
+            writer.out.writeObject(obj);
+            writer.out.flush();
+            return writer.buf.toByteArray();
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
-            try {
-                ho.close();
-                os.close();
-            } catch (Exception ex) {
-
-            }
+            writer.release();
         }
     }
 
 
     public static Object read(byte[] data) {
-        ByteArrayInputStream is = new ByteArrayInputStream(data);
+        return read(Unpooled.wrappedBuffer(data));
+    }
+
+    public static Object read(ByteBuf data) {
+        return read(new ByteBufInputStream(data));
+    }
+
+    public static Object read(InputStream is) {
         HessianInput hi = new HessianInput(is);
+        hi.setSerializerFactory(serializerFactory);
         try {
             return hi.readObject();
         } catch (IOException e) {
@@ -52,4 +81,186 @@ public static Object read(byte[] data) {
             }
         }
     }
+
+
+    public static byte[] write2(Object obj) {
+        Writer writer = writer();
+        try {
+            writer.out2.init(writer.buf);
+            writer.out2.writeObject(obj);
+            writer.out2.flush();
+            return writer.buf.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            writer.out2.reset();
+            writer.release();
+        }
+    }
+
+    public static Object read2(byte[] data) {
+        return read2(Unpooled.wrappedBuffer(data));
+    }
+
+    /**
+     * 直接从ByteBuf里读(不拷贝)
+     */
+    public static Object read2(ByteBuf data) {
+        Hessian2Input in = inputs2.get();
+        in.init(new ByteBufInputStream(data));
+        try {
+            return in.readObject();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            in.reset();
+            in.init(null);
+        }
+    }
+
+
+    /**
+     * 先写一个4字节的int(大端),然后依次写每个对象(紧凑格式的请求用)
+     */
+    public static byte[] writeValues(boolean hessian2, int head, Object... values) {
+        Writer writer = writer();
+        try {
+            writer.buf.writeInt(head);
+            if (hessian2) {
+                writer.out2.init(writer.buf);
+                for (Object value : values) {
+                    writer.out2.writeObject(value);
+                }
+                writer.out2.flush();
+            } else {
+                writer.out.init(writer.buf);
+                for (Object value : values) {
+                    writer.out.writeObject(value);
+                }
+                writer.out.flush();
+            }
+            return writer.buf.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            writer.out2.reset();
+            writer.release();
+        }
+    }
+
+    /**
+     * 依次读n个对象(writeValues的4字节int调用方已经读掉了)
+     */
+    public static Object[] readValues(boolean hessian2, ByteBuf data, int n) {
+        Object[] values = new Object[n];
+        if (hessian2) {
+            Hessian2Input in = inputs2.get();
+            in.init(new ByteBufInputStream(data));
+            try {
+                for (int i = 0; i < n; i++) {
+                    values[i] = in.readObject();
+                }
+                return values;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                in.reset();
+                in.init(null);
+            }
+        }
+        HessianInput hi = new HessianInput(new ByteBufInputStream(data));
+        hi.setSerializerFactory(serializerFactory);
+        try {
+            for (int i = 0; i < n; i++) {
+                values[i] = hi.readObject();
+            }
+            return values;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * 序列化器里再调用HessianUtils的时候(线程级别的已经在用了),新建一个
+     */
+    private static Writer writer() {
+        Writer writer = writers.get();
+        if (writer.busy) {
+            writer = new Writer();
+        }
+        writer.busy = true;
+        return writer;
+    }
+
+
+    private static class Writer {
+
+        private final Buffer buf = new Buffer();
+
+        private final HessianOutput out = new HessianOutput();
+
+        private final Hessian2Output out2 = new Hessian2Output();
+
+        private boolean busy;
+
+        private Writer() {
+            out.setSerializerFactory(serializerFactory);
+            out2.setSerializerFactory(serializerFactory);
+        }
+
+        private void release() {
+            buf.reset();
+            busy = false;
+        }
+    }
+
+
+    /**
+     * 不加锁的ByteArrayOutputStream(hessian 1.0是一个字节一个字节写的)
+     */
+    private static class Buffer extends OutputStream {
+
+        private byte[] data = new byte[256];
+
+        private int count;
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            data[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, data, count, len);
+            count += len;
+        }
+
+        private void writeInt(int v) {
+            ensure(4);
+            data[count++] = (byte) (v >>> 24);
+            data[count++] = (byte) (v >>> 16);
+            data[count++] = (byte) (v >>> 8);
+            data[count++] = (byte) v;
+        }
+
+        private void ensure(int n) {
+            if (count + n > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length << 1, count + n));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(data, count);
+        }
+
+        private void reset() {
+            count = 0;
+            if (data.length > MAX_BUFFER_SIZE) {
+                data = new byte[256];
+            }
+        }
+    }
 }
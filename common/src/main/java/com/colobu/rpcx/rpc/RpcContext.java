@@ -25,6 +25,13 @@ public static void removeContext() {
         LOCAL.remove();
     }
 
+    /**
+     * 还原成之前的context(injvm调用时提供方会清掉context)
+     */
+    public static void restoreContext(RpcContext context) {
+        LOCAL.set(context);
+    }
+
     private ResponseFuture future;
 
     private List<URL> urls;
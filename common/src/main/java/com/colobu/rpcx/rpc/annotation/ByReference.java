@@ -0,0 +1,17 @@
+package com.colobu.rpcx.rpc.annotation;
+
+import java.lang.annotation.*;
+
+
+/**
+ * 同一个jvm内调用(injvm)时参数和返回值直接传引用,不做拷贝
+ * 只有调用方和提供方都不会修改参数/返回值的时候才能用
+ *
+ * @author goodjava@qq.com
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Documented
+public @interface ByReference {
+
+}
@@ -1,5 +1,7 @@
 package com.colobu.rpcx.rpc.annotation;
 
+import com.colobu.rpcx.protocol.SerializeType;
+
 import java.lang.annotation.*;
 
 
@@ -64,4 +66,11 @@
      */
     String weight() default "";
 
+    /**
+     * 序列化方式,注册到服务参数里,consumer没有指定的时候使用它(只在类上生效)
+     *
+     * @return
+     */
+    SerializeType serializeType() default SerializeType.SerializeNone;
+
 }
@@ -0,0 +1,92 @@
+package com.colobu.rpcx.rpc.impl;
+
+import com.colobu.rpcx.common.Config;
+import com.colobu.rpcx.rpc.RpcException;
+import com.esotericsoftware.reflectasm.MethodAccess;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * 绑定好目标对象和具体重载的方法调用(每个导出的方法一个)
+ * 有MethodAccess的按方法下标直接调用(生成的代码,不按名字查找),访问不了的用反射
+ * 目标对象在第一次调用时从容器里取(没有容器的直接创建),之后同一个Exporter里同一个类的所有方法一直复用
+ * (容器里是prototype的bean也会变成单例),rpcx.provider.singleton=false 的时候和以前一样每次调用都重新获取
+ *
+ * @author goodjava@qq.com
+ */
+final class BoundMethod {
+
+    private static final boolean singleton = Boolean.parseBoolean(Config.ins().get("rpcx.provider.singleton", "true"));
+
+    private final Class<?> clazz;
+
+    private final Method method;
+
+    private final Function<Class, Object> getBeanFunc;
+
+    /**
+     * 类 -> 目标对象,同一个Exporter(或者单独创建的invoker)里共用
+     */
+    private final ConcurrentMap<Class, Object> targets;
+
+    private final MethodAccess methodAccess;
+
+    private final int index;
+
+    BoundMethod(Class<?> clazz, Method method, MethodAccess methodAccess, Function<Class, Object> getBeanFunc, ConcurrentMap<Class, Object> targets) {
+        this.clazz = clazz;
+        this.method = method;
+        this.getBeanFunc = getBeanFunc;
+        this.targets = targets;
+        int i = -1;
+        if (null != methodAccess) {
+            try {
+                i = methodAccess.getIndex(method.getName(), method.getParameterTypes());
+            } catch (IllegalArgumentException e) {
+                //MethodAccess里没有的方法(静态方法等)
+                i = -1;
+            }
+        }
+        this.index = i;
+        this.methodAccess = i >= 0 ? methodAccess : null;
+        if (null == this.methodAccess) {
+            method.setAccessible(true);
+        }
+    }
+
+    Object invoke(Object[] args) throws Exception {
+        Object b = target();
+        if (null != methodAccess) {
+            return methodAccess.invoke(b, index, args);
+        }
+        return method.invoke(b, args);
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    private Object target() throws Exception {
+        if (!singleton) {
+            return newTarget();
+        }
+        Object b = targets.get(clazz);
+        if (null == b) {
+            //只锁这个类所在的槽位
+            b = targets.computeIfAbsent(clazz, c -> {
+                try {
+                    return newTarget();
+                } catch (Exception e) {
+                    throw new RpcException(e);
+                }
+            });
+        }
+        return b;
+    }
+
+    private Object newTarget() throws Exception {
+        return null != getBeanFunc ? getBeanFunc.apply(clazz) : clazz.newInstance();
+    }
+}
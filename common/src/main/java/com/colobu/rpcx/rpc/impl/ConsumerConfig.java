@@ -1,19 +1,27 @@
 package com.colobu.rpcx.rpc.impl;
 
+import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.common.Config;
 import com.colobu.rpcx.config.Constants;
 import com.colobu.rpcx.fail.FailType;
 import com.colobu.rpcx.filter.FilterWrapper;
 import com.colobu.rpcx.netty.IClient;
+import com.colobu.rpcx.protocol.CompressType;
 import com.colobu.rpcx.protocol.LanguageCode;
+import com.colobu.rpcx.protocol.SerializeType;
 import com.colobu.rpcx.rpc.*;
+import com.colobu.rpcx.rpc.annotation.ByReference;
 import com.colobu.rpcx.rpc.annotation.Consumer;
 import com.colobu.rpcx.selector.SelectMode;
 import com.google.common.collect.Sets;
 
+import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
 
 
 /**
@@ -37,6 +45,23 @@ public class ConsumerConfig {
 
     private String group = "";
 
+    private CompressType compressType = CompressType.None;
+
+    /**
+     * 序列化方式(rpcx.consumer.serialize=MsgPack),不指定的话跟随提供方注册的
+     */
+    private SerializeType serializeType = serializeType(Config.ins().get("rpcx.consumer.serialize"));
+
+    /**
+     * 提供方在本jvm导出了的话直接本地调用
+     */
+    private boolean injvm = Boolean.parseBoolean(Config.ins().get("rpcx.consumer.injvm", "true"));
+
+    /**
+     * 方法 -> 参数类型名,方法id,方法key(每个方法只算一次)
+     */
+    private final ConcurrentMap<Method, MethodInfo> methods = new ConcurrentHashMap<>();
+
     public ConsumerConfig() {
     }
 
@@ -89,6 +114,22 @@ public ConsumerConfigBuilder setGroup(String group) {
         }
 
 
+        public ConsumerConfigBuilder setCompressType(CompressType compressType) {
+            this.config.compressType = compressType;
+            return this;
+        }
+
+
+        public ConsumerConfigBuilder setSerializeType(SerializeType serializeType) {
+            this.config.serializeType = serializeType;
+            return this;
+        }
+
+        public ConsumerConfigBuilder setInjvm(boolean injvm) {
+            this.config.injvm = injvm;
+            return this;
+        }
+
         public ConsumerConfig build() {
             return this.config;
         }
@@ -110,6 +151,9 @@ public <T> T refer(Class<T> clazz) {
             invocation.setSelectMode(selectMode);
             invocation.setLanguageCode(LanguageCode.JAVA);
             invocation.setGroup(group);
+            invocation.setCompressType(compressType);
+            invocation.setSerializeType(serializeType);
+            invocation.setMethod(method);
 
             Map<String, String> attachments = new HashMap<>(3);
             attachments.put(Constants.TOKEN_KEY, token);
@@ -117,27 +161,60 @@ public <T> T refer(Class<T> clazz) {
             attachments.put(Constants.SPAN_ID, RpcContext.getContext().getAttachment(Constants.SPAN_ID));
             invocation.setAttachments(attachments);
 
-            Class<?>[] types = method.getParameterTypes();
-            invocation.parameterTypeNames = Stream.of(types).map(it -> ReflectUtils.getName(it)).toArray(String[]::new);
-            invocation.setParameterTypes(types);
+            MethodInfo info = methods.computeIfAbsent(method, m -> new MethodInfo(provider.impl(), m));
+            invocation.parameterTypeNames = info.parameterTypeNames;
+            invocation.setParameterTypes(info.parameterTypes);
+            invocation.setMethodId(info.methodId);
             invocation.setResultType(method.getReturnType());
 
-            Invoker invoker = new RpcConsumerInvoker(client);
-            Invoker<Object> wrapperInvoker = FilterWrapper.ins().buildInvokerChain(invoker, "", Constants.CONSUMER, Sets.newHashSet());
-
-            Result result = wrapperInvoker.invoke(invocation);
+            Invoker<Object> localInvoker = injvm ? Exporter.invokerMap.get(info.methodKey) : null;
+            Result result;
+            if (null != localInvoker) {
+                //injvm:直接调用本地提供方的filter chain
+                boolean byReference = method.isAnnotationPresent(ByReference.class) || clazz.isAnnotationPresent(ByReference.class);
+                result = new InjvmInvoker<>(localInvoker, byReference).invoke(invocation);
+            } else {
+                Invoker invoker = new RpcConsumerInvoker(client);
+                Invoker<Object> wrapperInvoker = FilterWrapper.ins().buildInvokerChain(invoker, "", Constants.CONSUMER, Sets.newHashSet());
+                result = wrapperInvoker.invoke(invocation);
+            }
 
             if (result.hasException()) {
-                if (result.getException() instanceof RpcException) {
-                    throw (RpcException) result.getException();
-                } else {
-                    throw new RpcException(result.getException());
+                RpcException ex = result.getException() instanceof RpcException ? (RpcException) result.getException() : new RpcException(result.getException());
+                //返回CompletableFuture的方法不抛异常,通过future返回
+                if (CompletableFuture.class.isAssignableFrom(method.getReturnType())) {
+                    CompletableFuture<Object> future = new CompletableFuture<>();
+                    future.completeExceptionally(ex);
+                    return future;
                 }
+                throw ex;
             }
 
             return result.getValue();
         });
     }
 
+    private static SerializeType serializeType(String name) {
+        return null == name ? null : SerializeType.valueOf(name);
+    }
+
+
+    private static class MethodInfo {
+
+        private final Class<?>[] parameterTypes;
+
+        private final String[] parameterTypeNames;
+
+        private final int methodId;
+
+        private final String methodKey;
+
+        private MethodInfo(String className, Method method) {
+            this.parameterTypes = method.getParameterTypes();
+            this.parameterTypeNames = ClassUtils.getMethodParameterNames(method);
+            this.methodId = ClassUtils.getMethodId(method.getName(), parameterTypeNames);
+            this.methodKey = ClassUtils.getMethodKey(className, method.getName(), parameterTypeNames);
+        }
+    }
 
 }
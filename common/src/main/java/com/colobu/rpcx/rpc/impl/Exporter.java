@@ -15,10 +15,15 @@
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -29,10 +34,32 @@ public class Exporter {
 
     private static final Logger logger = LoggerFactory.getLogger(Exporter.class);
 
-    public static final Map<String, Invoker<Object>> invokerMap = new HashMap<>(20);
+    /**
+     * 方法key(ClassUtils.getMethodKey) -> invoker,按名字查找(golang,http,完整格式的请求)
+     */
+    public static final Map<String, Invoker<Object>> invokerMap = new ConcurrentHashMap<>(20);
+
+    /**
+     * 参数是byte[]的方法(golang调用):servicePath -> serviceMethod -> invoker
+     * 直接用解码出来的名字查找,不需要拼方法key
+     */
+    private static final Map<String, Map<String, Invoker<Object>>> rawInvokerMap = new ConcurrentHashMap<>(20);
+
+    private static final String[] rawParameterTypeNames = new String[]{"byte[]"};
+
+    /**
+     * 紧凑格式的请求用:servicePath -> 方法分发表
+     * 导出时整体替换(不修改已经发布的map),查找不加锁
+     */
+    private static volatile Map<String, MethodTable> methodTables = Collections.emptyMap();
 
     private final Function<Class, Object> getBeanFunc;
 
+    /**
+     * 类 -> 目标对象,这个Exporter导出的所有invoker(包括泛化调用)共用
+     */
+    private final ConcurrentMap<Class, Object> targets = new ConcurrentHashMap<>();
+
     private final String addr;
 
     public Exporter(Function<Class, Object> getBeanFunc, String addr) {
@@ -57,19 +84,23 @@ public Set<String> export(String providerPackage) {
             String name = it.getName();
 
             Method[] methods = it.getDeclaredMethods();
+            List<Invoker<Object>> invokers = new ArrayList<>(methods.length);
+            //reflectasm更快些(实际上是把反射生成了直接调用的代码),每个类生成一次
+            MethodAccess methodAccess = MethodAccess.get(it);
             Arrays.stream(methods).forEach(m -> {
                 String className = it.getName();
                 String method = m.getName();
-                //reflectasm 生成的方法需要过滤掉
-                if (!method.startsWith("access$")) {
+                //reflectasm 生成的方法和lambda生成的合成方法需要过滤掉(异步方法里常用lambda完成future)
+                if (!method.startsWith("access$") && !m.isSynthetic()) {
                     String[] parameterTypeNames = ClassUtils.getMethodParameterNames(m);
                     String key = ClassUtils.getMethodKey(className, method, parameterTypeNames);
                     logger.info("export key:{}", key);
                     URL url = new URL("rpcx", host, port, key);
                     //暴露出invoker,使得远程可以调用
-                    initProviderInvoker(key, className, method, parameterTypeNames, url);
+                    invokers.add(initProviderInvoker(key, className, method, parameterTypeNames, url, methodAccess));
                 }
             });
+            MethodTable methodTable = publish(name, invokers);
             //echo invoker
             initEchoInvoker();
             //generic invoker
@@ -93,6 +124,9 @@ public Set<String> export(String providerPackage) {
             //导出的时候需要确定权重
             url = url.addParameter("weight", weightValue);
             url = url.addParameter("group", group);
+            url = url.addParameter(Constants.SERIALIZE_KEY, provider.serializeType().name());
+            url = url.addParameter(Constants.COMPACT_KEY, "true");
+            url = url.addParameter(Constants.METHOD_IDS_KEY, methodTable.idsToString());
             return url.toFullString();
         }).collect(Collectors.toSet());
     }
@@ -101,9 +135,9 @@ public Set<String> export(String providerPackage) {
     /**
      * 初始化providerInvoker
      */
-    private Invoker<Object> initProviderInvoker(String key, String className, String methodName, String[] parameterTypeNames, URL url) {
+    private Invoker<Object> initProviderInvoker(String key, String className, String methodName, String[] parameterTypeNames, URL url, MethodAccess methodAccess) {
         Invoker<Object> wrapperInvoker;
-        Invoker<Object> invoker = new RpcProviderInvoker<>(getBeanFunc);
+        Invoker<Object> invoker = new RpcProviderInvoker<>(getBeanFunc, targets);
         Class clazz = ClassUtils.getClassByName(className);
         invoker.setInterface(clazz);
 
@@ -118,8 +152,7 @@ private Invoker<Object> initProviderInvoker(String key, String className, String
         Method method = ClassUtils.getMethod(className, methodName, parameterTypeNames);
         invoker.setMethod(method);
 
-        //reflectasm更快些(实际上是把反射生成了直接调用的代码)
-        MethodAccess methodAccess = MethodAccess.get(ClassUtils.getClassByName(className));
+        //调用时按方法下标直接调用这个重载
         invoker.setMethodAccess(methodAccess);
 
         //方法级别的注解
@@ -133,14 +166,59 @@ private Invoker<Object> initProviderInvoker(String key, String className, String
         wrapperInvoker = FilterWrapper.ins().buildInvokerChain(invoker, "", Constants.PROVIDER, excludeFilters);
 
         invokerMap.putIfAbsent(key, wrapperInvoker);
+        if (Arrays.equals(rawParameterTypeNames, parameterTypeNames)) {
+            rawInvokerMap.computeIfAbsent(className, k -> new ConcurrentHashMap<>())
+                    .putIfAbsent(methodName, wrapperInvoker);
+        }
         return wrapperInvoker;
     }
 
+    /**
+     * 根据 servicePath 和 serviceMethod 查找参数是byte[]的invoker
+     *
+     * @param servicePath
+     * @param serviceMethod
+     * @return
+     */
+    public static Invoker<Object> getRawInvoker(String servicePath, String serviceMethod) {
+        Map<String, Invoker<Object>> methods = rawInvokerMap.get(servicePath);
+        if (null == methods) {
+            return null;
+        }
+        return methods.get(serviceMethod);
+    }
+
+    /**
+     * 发布一个服务的方法分发表
+     */
+    private static synchronized MethodTable publish(String servicePath, List<Invoker<Object>> invokers) {
+        MethodTable table = new MethodTable(servicePath, invokers);
+        Map<String, MethodTable> tables = new HashMap<>(methodTables);
+        tables.put(servicePath, table);
+        methodTables = Collections.unmodifiableMap(tables);
+        return table;
+    }
+
+    /**
+     * 紧凑格式的请求按 servicePath 和方法id查找(不用拼方法key)
+     *
+     * @param servicePath 解码出来的servicePath(Message解码时复用同一个String,hash不用重新算)
+     * @param methodId    ClassUtils.getMethodId
+     * @return 没有找到或者id冲突的时候返回null
+     */
+    public static MethodTable.Entry getCompactMethod(String servicePath, int methodId) {
+        MethodTable table = methodTables.get(servicePath);
+        if (null == table) {
+            return null;
+        }
+        return table.get(methodId);
+    }
+
     /**
      * echo
      */
     private void initEchoInvoker() {
-        Invoker<Object> invoker = new RpcProviderInvoker<>(getBeanFunc);
+        Invoker<Object> invoker = new RpcProviderInvoker<>(getBeanFunc, targets);
         URL url = new URL("rpcx", "", 0);
         url.setHost(NetUtils.getLocalHost());
         url.setPort(0);
@@ -153,7 +231,7 @@ private void initEchoInvoker() {
      * 泛化调用
      */
     private void initGenericInvoker() {
-        Invoker<Object> invoker = new RpcProviderInvoker<>(getBeanFunc);
+        Invoker<Object> invoker = new RpcProviderInvoker<>(getBeanFunc, targets);
         URL url = new URL("rpcx", "", 0);
         url.setHost(NetUtils.getLocalHost());
         url.setPort(0);
@@ -0,0 +1,132 @@
+package com.colobu.rpcx.rpc.impl;
+
+import com.colobu.rpcx.common.NetUtils;
+import com.colobu.rpcx.rpc.*;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * 提供方就在本jvm里导出了,直接调用提供方的filter chain(不序列化,不走网络)
+ * 没有标记 @ByReference 的方法,参数和返回值用hessian2拷贝一份,和远程调用的语义保持一致
+ *
+ * @author goodjava@qq.com
+ */
+public class InjvmInvoker<T> implements Invoker<T> {
+
+    private final Invoker<Object> providerInvoker;
+
+    private final boolean byReference;
+
+    private URL url;
+
+    public InjvmInvoker(Invoker<Object> providerInvoker, boolean byReference) {
+        this.providerInvoker = providerInvoker;
+        this.byReference = byReference;
+    }
+
+    @Override
+    public Result invoke(RpcInvocation invocation) throws RpcException {
+        //提供方的filter会改写并清掉RpcContext,提供方用一个新的,调用完还原调用方的
+        RpcContext context = RpcContext.getContext();
+        RpcContext.removeContext();
+        invocation.setUrl(new URL("injvm", NetUtils.getLocalHost(), 0, invocation.getClassName()));
+        if (!byReference && null != invocation.getArguments()) {
+            Object[] args = invocation.getArguments();
+            Object[] copy = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                copy[i] = copy(args[i]);
+            }
+            invocation.setArguments(copy);
+        }
+        try {
+            Result result = providerInvoker.invoke(invocation);
+            if (result.hasException()) {
+                return result;
+            }
+            Object value = result.getValue();
+            boolean futureResult = null != invocation.getResultType() && CompletableFuture.class.isAssignableFrom(invocation.getResultType());
+            if (value instanceof CompletableFuture) {
+                CompletableFuture<?> future = (CompletableFuture<?>) value;
+                if (futureResult) {
+                    result.setValue(byReference ? future : future.thenApply(InjvmInvoker::copy));
+                } else {
+                    //提供方是异步的,调用方是同步的,等结果
+                    value = future.get(invocation.getTimeOut(), TimeUnit.MILLISECONDS);
+                    result.setValue(byReference ? value : copy(value));
+                }
+            } else {
+                value = byReference ? value : copy(value);
+                result.setValue(futureResult ? CompletableFuture.completedFuture(value) : value);
+            }
+            return result;
+        } catch (ExecutionException e) {
+            return new RpcResult(new RpcException(e.getCause()));
+        } catch (Exception e) {
+            return new RpcResult(e instanceof RpcException ? e : new RpcException(e));
+        } finally {
+            RpcContext.restoreContext(context);
+        }
+    }
+
+    /**
+     * 不可变的类型直接共享(AtomicInteger、AtomicLong这样可变的Number要拷贝)
+     */
+    private static final Set<Class<?>> IMMUTABLE = new HashSet<>(Arrays.asList(String.class, Boolean.class, Character.class,
+            Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class));
+
+    private static Object copy(Object obj) {
+        if (null == obj || IMMUTABLE.contains(obj.getClass())) {
+            return obj;
+        }
+        return HessianUtils.read2(HessianUtils.write2(obj));
+    }
+
+    @Override
+    public Class<T> getInterface() {
+        return null;
+    }
+
+    @Override
+    public void setMethod(Method method) {
+
+    }
+
+    @Override
+    public Method getMethod() {
+        return null;
+    }
+
+    @Override
+    public void setInterface(Class clazz) {
+
+    }
+
+    @Override
+    public URL getUrl() {
+        return url;
+    }
+
+    @Override
+    public void setUrl(URL url) {
+        this.url = url;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+}
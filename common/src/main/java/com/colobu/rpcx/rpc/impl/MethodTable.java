@@ -0,0 +1,161 @@
+package com.colobu.rpcx.rpc.impl;
+
+import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.rpc.Invoker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 一个服务的方法分发表(导出完成以后不再修改)
+ * 方法id(ClassUtils.getMethodId)开放寻址放在数组里,按id查找不装箱,不生成字符串
+ * 方法的参数类型名和方法key也提前算好,紧凑格式的请求直接用
+ * id冲突的方法不放进来(也不会注册出去),只能按名字调用
+ *
+ * @author goodjava@qq.com
+ */
+public final class MethodTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodTable.class);
+
+    private final Entry[] entries;
+
+    private final int mask;
+
+    /**
+     * 排好序的方法id
+     */
+    private final int[] ids;
+
+    public MethodTable(String servicePath, List<Invoker<Object>> invokers) {
+        Map<Integer, Invoker<Object>> methods = new HashMap<>(invokers.size() * 2);
+        Set<Integer> conflicts = new HashSet<>();
+        for (Invoker<Object> invoker : invokers) {
+            Method method = invoker.getMethod();
+            int id = ClassUtils.getMethodId(method.getName(), ClassUtils.getMethodParameterNames(method));
+            Invoker<Object> old = methods.putIfAbsent(id, invoker);
+            if (null != old && !method.equals(old.getMethod())) {
+                //几乎不会发生,发生了这两个方法就只能用完整格式调用
+                logger.error("method id conflict:{} {} {}", servicePath, method, old.getMethod());
+                conflicts.add(id);
+            }
+        }
+        conflicts.forEach(methods::remove);
+
+        //装载因子不超过0.5
+        int size = Integer.highestOneBit(Math.max(methods.size(), 1) * 2) << 1;
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+        methods.forEach((id, invoker) -> {
+            int i = index(id);
+            while (null != entries[i]) {
+                i = (i + 1) & mask;
+            }
+            entries[i] = new Entry(id, servicePath, invoker);
+        });
+        this.ids = methods.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /**
+     * @return 没有这个id(或者id冲突)的时候返回null
+     */
+    public Entry get(int methodId) {
+        for (int i = index(methodId); ; i = (i + 1) & mask) {
+            Entry entry = entries[i];
+            if (null == entry || entry.id == methodId) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * 注册出去的方法id(16进制,逗号分隔)
+     */
+    public String idsToString() {
+        return Arrays.stream(ids).mapToObj(Integer::toHexString).collect(Collectors.joining(","));
+    }
+
+    /**
+     * 解析注册的方法id
+     *
+     * @return 排好序的id, value是null的时候返回null
+     */
+    public static int[] parseIds(String value) {
+        if (null == value) {
+            return null;
+        }
+        return Arrays.stream(value.split(",")).filter(s -> !s.isEmpty()).mapToInt(s -> Integer.parseUnsignedInt(s, 16)).sorted().toArray();
+    }
+
+    private int index(int id) {
+        //id本身是String.hashCode,再打散一下低位
+        return (id ^ (id >>> 16)) & mask;
+    }
+
+
+    public static final class Entry {
+
+        private final int id;
+
+        private final String servicePath;
+
+        private final Invoker<Object> invoker;
+
+        private final Class<?>[] parameterTypes;
+
+        private final String[] parameterTypeNames;
+
+        private final String methodKey;
+
+        private Entry(int id, String servicePath, Invoker<Object> invoker) {
+            this.id = id;
+            this.servicePath = servicePath;
+            this.invoker = invoker;
+            this.parameterTypes = invoker.getMethod().getParameterTypes();
+            this.parameterTypeNames = ClassUtils.getMethodParameterNames(invoker.getMethod());
+            this.methodKey = ClassUtils.getMethodKey(servicePath, invoker.getMethod().getName(), parameterTypeNames);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getServicePath() {
+            return servicePath;
+        }
+
+        public Invoker<Object> getInvoker() {
+            return invoker;
+        }
+
+        public Method getMethod() {
+            return invoker.getMethod();
+        }
+
+        /**
+         * 共享的数组,不要修改
+         */
+        public Class<?>[] getParameterTypes() {
+            return parameterTypes;
+        }
+
+        /**
+         * 共享的数组,不要修改
+         */
+        public String[] getParameterTypeNames() {
+            return parameterTypeNames;
+        }
+
+        public String getMethodKey() {
+            return methodKey;
+        }
+    }
+}
@@ -1,16 +1,25 @@
 package com.colobu.rpcx.rpc.impl;
 
+import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.common.Config;
 import com.colobu.rpcx.config.Constants;
 import com.colobu.rpcx.discovery.IServiceDiscovery;
 import com.colobu.rpcx.netty.IClient;
 import com.colobu.rpcx.protocol.*;
 import com.colobu.rpcx.rpc.*;
+import com.colobu.rpcx.serializer.SerializerFactory;
 import com.google.gson.Gson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
@@ -20,7 +29,18 @@
 
     private static final Logger logger = LoggerFactory.getLogger(RpcConsumerInvoker.class);
 
-    private static final AtomicInteger seq = new AtomicInteger();
+    /**
+     * servicePath@serviceAddr -> 提供方注册的参数(序列化方式,是否支持紧凑格式)
+     * 服务发现有变化或者到这个地址的连接断开的时候删掉,下次调用重新查
+     */
+    private static final ConcurrentMap<String, ProviderInfo> providers = new ConcurrentHashMap<>();
+
+    private static final int MAX_PROVIDERS = Integer.parseInt(Config.ins().get("rpcx.consumer.provider.cache.size", "4096"));
+
+    /**
+     * 已经注册过变化监听的服务发现
+     */
+    private static final Set<IServiceDiscovery> watched = ConcurrentHashMap.newKeySet();
 
     private IClient client;
 
@@ -46,8 +66,10 @@ public Result invoke(RpcInvocation invocation) throws RpcException {
         req.setMessageType(MessageType.Request);
         req.setHeartbeat(false);
         req.setOneway(false);
-        req.setCompressType(CompressType.None);
-        req.setSerializeType(invocation.getSerializeType());
+        req.setCompressType(invocation.getCompressType());
+        ProviderInfo provider = provider(invocation);
+        SerializeType serializeType = null != invocation.getSerializeType() ? invocation.getSerializeType() : provider.serializeType;
+        req.setSerializeType(serializeType);
 
         invocation.setUrl(this.url);
         byte[] data = null;
@@ -56,41 +78,58 @@ public Result invoke(RpcInvocation invocation) throws RpcException {
             data = invocation.getPayload();
         } else if (invocation.getLanguageCode().equals(LanguageCode.JAVA)) {
             req.metadata.put(Constants.LANGUAGE, LanguageCode.JAVA.name());
-            data = HessianUtils.write(invocation);
-        }
-        req.payload = data;
-
-        try {
-            req.setSeq(seq.incrementAndGet());
-            Message res = client.call(req, invocation.getTimeOut(), invocation.getSendType());
-
-            result.getAttachments().put(Constants.TRACE_ID,res.getMetadata().get(Constants.TRACE_ID));
-            RpcContext.getContext().getAttachments().put(Constants.TRACE_ID,res.getMetadata().get(Constants.TRACE_ID));
-            result.getAttachments().put(Constants.SPAN_ID,res.getMetadata().get(Constants.SPAN_ID));
-            RpcContext.getContext().getAttachments().put(Constants.SPAN_ID,res.getMetadata().get(Constants.SPAN_ID));
-
-            if (res.metadata.containsKey(Constants.RPCX_ERROR_CODE)) {
-                String code = (res.metadata.get(Constants.RPCX_ERROR_CODE));
-                String message = res.metadata.get(Constants.RPCX_ERROR_MESSAGE);
-                if (message == null) {
-                    message = "";
-                }
-                logger.warn("client call error:{}:{}", code, message);
-                RpcException error = new RpcException(message, code);
-                result.setThrowable(error);
-            } else {
-                byte[] d = res.payload;
-                if (d.length > 0) {
-                    if (invocation.getLanguageCode().equals(LanguageCode.JAVA)) {
-                        Object r = HessianUtils.read(d);
-                        result.setValue(r);
+            if (SerializeType.ProtoBuffer == serializeType) {
+                //protobuf的包体里只有参数,attachments放到metadata里(和golang rpcx一样)
+                invocation.getAttachments().forEach((k, v) -> {
+                    if (null != v) {
+                        req.metadata.put(k, v);
                     }
-                    if (invocation.getLanguageCode().equals(LanguageCode.GO)) {
-                        result.setValue(d);
+                });
+            }
+            try {
+                if (provider.compact && compactable(invocation) && SerializerFactory.get(serializeType).supportsCompact()) {
+                    int methodId = null != invocation.getMethodId() ? invocation.getMethodId() : ClassUtils.getMethodId(method, invocation.getParameterTypeNames());
+                    if (provider.exports(methodId)) {
+                        //只带方法id,attachments和参数,提供方按方法id还原调用
+                        invocation.getAttachments().values().removeIf(Objects::isNull);
+                        data = SerializerFactory.get(serializeType).encodeCompactRequest(invocation, methodId);
+                        req.setCompact(null != data);
                     }
                 }
+                if (null == data) {
+                    data = SerializerFactory.get(serializeType).encodeRequest(invocation);
+                }
+            } catch (IOException e) {
+                throw new RpcException(e);
+            }
+        }
+        req.setPayload(data);
 
+        //返回值是CompletableFuture的方法不阻塞,结果在返回的时候填进去
+        if (null != invocation.getResultType() && CompletableFuture.class.isAssignableFrom(invocation.getResultType())) {
+            try {
+                CompletableFuture<Object> future = client.callAsync(req, invocation.getTimeOut()).thenApply(res -> {
+                    RpcResult r = new RpcResult();
+                    readResponse(invocation, res, r);
+                    if (r.hasException()) {
+                        throw r.getException() instanceof RpcException ? (RpcException) r.getException() : new RpcException(r.getException());
+                    }
+                    return r.getValue();
+                });
+                result.setValue(future);
+            } catch (Throwable e) {
+                result.setThrowable(e);
+                logger.info("client call error:{} ", e.getMessage());
             }
+            return result;
+        }
+
+        Message res = null;
+        try {
+            res = client.call(req, invocation.getTimeOut(), invocation.getSendType());
+            readResponse(invocation, res, result);
+            RpcContext.getContext().getAttachments().put(Constants.TRACE_ID, result.getAttachments().get(Constants.TRACE_ID));
+            RpcContext.getContext().getAttachments().put(Constants.SPAN_ID, result.getAttachments().get(Constants.SPAN_ID));
         } catch (Throwable e) {
             result.setThrowable(e);
             logger.info("client call error:{} ", e.getMessage());
@@ -100,6 +139,90 @@ public Result invoke(RpcInvocation invocation) throws RpcException {
         return result;
     }
 
+    private void readResponse(RpcInvocation invocation, Message res, RpcResult result) {
+        result.getAttachments().put(Constants.TRACE_ID, res.getMetadataValue(Constants.TRACE_ID));
+        result.getAttachments().put(Constants.SPAN_ID, res.getMetadataValue(Constants.SPAN_ID));
+
+        String code = res.getMetadataValue(Constants.RPCX_ERROR_CODE);
+        if (null != code) {
+            String message = res.getMetadataValue(Constants.RPCX_ERROR_MESSAGE);
+            if (message == null) {
+                message = "";
+            }
+            logger.warn("client call error:{}:{}", code, message);
+            RpcException error = new RpcException(message, code);
+            result.setThrowable(error);
+        } else {
+            //protobuf 空的message编码出来是0字节
+            if (res.getPayloadLength() > 0 || SerializeType.ProtoBuffer == res.getSerializeType()) {
+                if (invocation.getLanguageCode().equals(LanguageCode.JAVA)) {
+                    try {
+                        Object r = SerializerFactory.get(res.getSerializeType()).decodeResponse(invocation, res.getPayloadBuf());
+                        result.setValue(r);
+                    } catch (IOException e) {
+                        result.setThrowable(new RpcException(e));
+                    }
+                }
+                if (invocation.getLanguageCode().equals(LanguageCode.GO)) {
+                    result.setValue(res.getPayload());
+                }
+            }
+        }
+    }
+
+    /**
+     * 提供方注册的参数(每个服务地址只查一次)
+     * consumer没有指定序列化方式的话用提供方注册的serialize参数
+     */
+    private ProviderInfo provider(RpcInvocation invocation) {
+        String serviceAddr = RpcContext.getContext().getServiceAddr();
+        if (null == serviceAddr) {
+            return ProviderInfo.DEFAULT;
+        }
+        String key = invocation.getClassName() + "@" + serviceAddr;
+        ProviderInfo info = providers.get(key);
+        if (null != info) {
+            return info;
+        }
+        IServiceDiscovery discovery = serviceDiscovery();
+        if (null == discovery) {
+            return ProviderInfo.DEFAULT;
+        }
+        if (watched.add(discovery)) {
+            discovery.addListener(serviceName -> providers.keySet().removeIf(k -> k.startsWith(serviceName + "@")));
+        }
+        for (String service : discovery.getServices(invocation.getClassName())) {
+            URL url = URL.valueOf(service);
+            if (serviceAddr.equals(url.getAddress())) {
+                info = new ProviderInfo(SerializeType.valueOf(url.getParameter(Constants.SERIALIZE_KEY, SerializeType.SerializeNone.name())),
+                        url.getParameter(Constants.COMPACT_KEY, false), MethodTable.parseIds(url.getParameter(Constants.METHOD_IDS_KEY)));
+                if (providers.size() >= MAX_PROVIDERS) {
+                    providers.clear();
+                }
+                providers.putIfAbsent(key, info);
+                return info;
+            }
+        }
+        //没找到(注册信息还没同步过来)不缓存,下次再查
+        return ProviderInfo.DEFAULT;
+    }
+
+    /**
+     * 到这个地址的连接断开了,提供方可能重启换了参数
+     */
+    public static void removeProviders(String serviceAddr) {
+        providers.keySet().removeIf(k -> k.endsWith("@" + serviceAddr));
+    }
+
+    /**
+     * $开头的方法(泛化调用,echo等)提供方没有导出对应的方法,还是用完整格式
+     */
+    private boolean compactable(RpcInvocation invocation) {
+        return null != invocation.getMethod()
+                && null != invocation.getParameterTypeNames()
+                && !invocation.getMethodName().startsWith("$");
+    }
+
     @Override
     public void setMethod(Method method) {
 
@@ -139,4 +262,32 @@ public void destroy() {
     public IServiceDiscovery serviceDiscovery() {
         return this.client.getServiceDiscovery();
     }
+
+
+    private static class ProviderInfo {
+
+        private static final ProviderInfo DEFAULT = new ProviderInfo(SerializeType.SerializeNone, false, null);
+
+        private final SerializeType serializeType;
+
+        private final boolean compact;
+
+        /**
+         * 提供方注册的方法id(排好序),没有注册的是null
+         */
+        private final int[] methodIds;
+
+        private ProviderInfo(SerializeType serializeType, boolean compact, int[] methodIds) {
+            this.serializeType = serializeType;
+            this.compact = compact;
+            this.methodIds = methodIds;
+        }
+
+        /**
+         * 提供方的分发表里有这个方法(id冲突的不会注册),没有注册方法id的按都有处理
+         */
+        private boolean exports(int methodId) {
+            return null == methodIds || Arrays.binarySearch(methodIds, methodId) >= 0;
+        }
+    }
 }
@@ -2,6 +2,7 @@
 
 import com.colobu.rpcx.config.Constants;
 import com.colobu.rpcx.fail.FailType;
+import com.colobu.rpcx.protocol.CompressType;
 import com.colobu.rpcx.protocol.LanguageCode;
 import com.colobu.rpcx.protocol.SerializeType;
 import com.colobu.rpcx.rpc.Invocation;
@@ -11,6 +12,7 @@
 import io.netty.channel.Channel;
 
 import java.io.Serializable;
+import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -50,7 +52,12 @@ public class RpcInvocation implements Invocation, Serializable {
     public LanguageCode languageCode = LanguageCode.JAVA;
 
 
-    private SerializeType serializeType = SerializeType.SerializeNone;
+    /**
+     * null:跟随提供方注册的serialize参数(没有的话是SerializeNone)
+     */
+    private SerializeType serializeType;
+
+    private transient CompressType compressType = CompressType.None;
 
 
     private FailType failType = FailType.FailFast;
@@ -59,6 +66,16 @@ public class RpcInvocation implements Invocation, Serializable {
 
     private transient byte[] payload;
 
+    /**
+     * 调用的方法(序列化时取泛型的参数和返回值类型)
+     */
+    private transient Method method;
+
+    /**
+     * 方法id(ClassUtils.getMethodId),调用方每个方法只算一次
+     */
+    private transient Integer methodId;
+
     public RpcInvocation() {
     }
 
@@ -231,4 +248,28 @@ public SerializeType getSerializeType() {
     public void setSerializeType(SerializeType serializeType) {
         this.serializeType = serializeType;
     }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public void setMethod(Method method) {
+        this.method = method;
+    }
+
+    public Integer getMethodId() {
+        return methodId;
+    }
+
+    public void setMethodId(Integer methodId) {
+        this.methodId = methodId;
+    }
+
+    public CompressType getCompressType() {
+        return compressType;
+    }
+
+    public void setCompressType(CompressType compressType) {
+        this.compressType = compressType;
+    }
 }
@@ -7,8 +7,9 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
 
 /**
@@ -31,6 +32,11 @@
      */
     private Function<Class, Object> getBeanFunc;
 
+    /**
+     * 类 -> 目标对象,Exporter导出的invoker共用一个
+     */
+    private final ConcurrentMap<Class, Object> targets;
+
     private URL url;
 
     private Class clazz;
@@ -39,8 +45,23 @@
 
     private MethodAccess methodAccess;
 
+    /**
+     * 绑定好的调用(第一次调用时创建)
+     */
+    private volatile BoundMethod boundMethod;
+
+    /**
+     * 共享的invoker: 方法key -> 绑定好的调用
+     */
+    private final ConcurrentMap<String, BoundMethod> sharedMethods = new ConcurrentHashMap<>();
+
     public RpcProviderInvoker(Function<Class, Object> getBeanFunc) {
+        this(getBeanFunc, new ConcurrentHashMap<>());
+    }
+
+    public RpcProviderInvoker(Function<Class, Object> getBeanFunc, ConcurrentMap<Class, Object> targets) {
         this.getBeanFunc = getBeanFunc;
+        this.targets = targets;
     }
 
     @Override
@@ -55,42 +76,18 @@ public Result invoke(RpcInvocation invocation) {
         String traceId = "";
         String spanId = "";
         try {
-            Object obj = null;
+            Object obj;
             traceId = RpcContext.getContext().getAttachments().get(Constants.TRACE_ID);
             spanId = RpcContext.getContext().getAttachments().get(Constants.SPAN_ID);
             //设置traceId
             rpcResult.getAttachments().put(Constants.TRACE_ID, traceId == null ? "" : traceId);
             rpcResult.getAttachments().put(Constants.SPAN_ID, spanId == null ? "" : spanId);
-            //使用容器
-            if (null != this.getBeanFunc) {
-                if (share) {
-                    //泛化调用,每次都创建不同的
-                    Class c = ClassUtils.getClassByName(invocation.getClassName());
-                    Object b = getBeanFunc.apply(c);
-                    Method method = ClassUtils.getMethod(invocation.getClassName(), invocation.getMethodName(), invocation.getParameterTypeNames());
-                    obj = method.invoke(b, invocation.getArguments());
-                } else {
-                    //每次都调用相同的,应为class 和 method 都已经实例化好了
-                    Object b = getBeanFunc.apply(clazz);
-                    if (useMethodAccess) {
-                        obj = methodAccess.invoke(b, invocation.getMethodName(), invocation.getArguments());
-                    } else {
-                        obj = this.method.invoke(b, invocation.getArguments());
-                    }
-                }
-            } else {//不使用容器
-                if (share) {
-                    Class c = ClassUtils.getClassByName(invocation.getClassName());
-                    Object b = getBeanFunc.apply(c);
-                    Method method = ClassUtils.getMethod(invocation.getClassName(), invocation.getMethodName(), invocation.getParameterTypeNames());
-                    obj = method.invoke(b, invocation.getArguments());
-                } else {
-                    if (useMethodAccess) {
-                        obj = methodAccess.invoke(clazz.newInstance(), invocation.getMethodName(), invocation.getArguments());
-                    } else {
-                        obj = this.method.invoke(clazz.newInstance(), invocation.getArguments());
-                    }
-                }
+            if (share) {
+                //泛化调用,按调用的类和方法找(找到的方法缓存起来)
+                obj = sharedMethod(invocation).invoke(invocation.getArguments());
+            } else {
+                //class 和 method 都已经确定了,目标对象和方法下标提前绑定好
+                obj = boundMethod().invoke(invocation.getArguments());
             }
             rpcResult.setValue(obj);
             return rpcResult;
@@ -106,6 +103,37 @@ public Result invoke(RpcInvocation invocation) {
         }
     }
 
+    private BoundMethod boundMethod() {
+        BoundMethod b = boundMethod;
+        if (null == b) {
+            synchronized (this) {
+                b = boundMethod;
+                if (null == b) {
+                    b = new BoundMethod(clazz, method, useMethodAccess ? methodAccess : null, getBeanFunc, targets);
+                    boundMethod = b;
+                }
+            }
+        }
+        return b;
+    }
+
+    private BoundMethod sharedMethod(RpcInvocation invocation) {
+        String key = ClassUtils.getMethodKey(invocation.getClassName(), invocation.getMethodName(), invocation.getParameterTypeNames());
+        BoundMethod b = sharedMethods.get(key);
+        if (null == b) {
+            Method m = ClassUtils.getMethod(invocation.getClassName(), invocation.getMethodName(), invocation.getParameterTypeNames());
+            if (null == m) {
+                throw new RpcException("can not find method:" + key);
+            }
+            b = new BoundMethod(ClassUtils.getClassByName(invocation.getClassName()), m, null, getBeanFunc, targets);
+            BoundMethod old = sharedMethods.putIfAbsent(key, b);
+            if (null != old) {
+                b = old;
+            }
+        }
+        return b;
+    }
+
     @Override
     public URL getUrl() {
         return this.url;
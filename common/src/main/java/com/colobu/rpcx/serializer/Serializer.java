@@ -0,0 +1,70 @@
+package com.colobu.rpcx.serializer;
+
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * 请求/返回值的序列化(java调用),按照header里的SerializeType选择,实现需要是线程安全的
+ *
+ * @author goodjava@qq.com
+ */
+public interface Serializer {
+
+    byte[] encodeRequest(RpcInvocation invocation) throws IOException;
+
+    /**
+     * @param data 包体上的视图(不做拷贝)
+     * @return
+     * @throws IOException
+     */
+    RpcInvocation decodeRequest(String servicePath, String serviceMethod, ByteBuf data) throws IOException;
+
+    /**
+     * @param invocation 本次调用(取返回值类型用),可能为null
+     * @param value
+     * @return
+     * @throws IOException
+     */
+    byte[] encodeResponse(RpcInvocation invocation, Object value) throws IOException;
+
+    /**
+     * @param invocation 本次调用(取返回值类型用),可能为null
+     * @param data       包体上的视图(不做拷贝)
+     * @return
+     * @throws IOException
+     */
+    Object decodeResponse(RpcInvocation invocation, ByteBuf data) throws IOException;
+
+    /**
+     * 是否支持紧凑格式的请求,支持的话 encodeCompactRequest 和 decodeCompactRequest 都要实现
+     */
+    default boolean supportsCompact() {
+        return false;
+    }
+
+    /**
+     * 紧凑格式的请求: 方法id(4字节) + attachments + 参数,不带类名/方法名/参数类型/url
+     *
+     * @param invocation
+     * @param methodId   ClassUtils.getMethodId
+     * @return 不支持的时候返回null(用完整格式)
+     * @throws IOException
+     */
+    default byte[] encodeCompactRequest(RpcInvocation invocation, int methodId) throws IOException {
+        return null;
+    }
+
+    /**
+     * 读紧凑格式请求里的 attachments 和参数(supportsCompact为true的时候才会调用)
+     *
+     * @param invocation 提供方按方法id组装好的调用(方法,参数类型已经设置)
+     * @param data       方法id后面的部分
+     * @throws IOException
+     */
+    default void decodeCompactRequest(RpcInvocation invocation, ByteBuf data) throws IOException {
+        throw new IOException("compact request is not supported");
+    }
+
+}
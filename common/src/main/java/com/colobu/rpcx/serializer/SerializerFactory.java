@@ -0,0 +1,67 @@
+package com.colobu.rpcx.serializer;
+
+import com.colobu.rpcx.common.Config;
+import com.colobu.rpcx.protocol.SerializeType;
+import com.colobu.rpcx.rpc.RpcException;
+import com.colobu.rpcx.serializer.impl.Hessian2Serializer;
+import com.colobu.rpcx.serializer.impl.HessianSerializer;
+import com.colobu.rpcx.serializer.impl.MsgPackSerializer;
+import com.colobu.rpcx.serializer.impl.ProtobufSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 序列化的注册表,按照header里的SerializeType查找
+ * SerializeNone(默认)是hessian 1.0,Hessian2,MsgPack和ProtoBuffer内置
+ * json/thrift 没有内置实现,可以调用register注册,或者配置 rpcx.serializer.json=实现类
+ *
+ * @author goodjava@qq.com
+ */
+public class SerializerFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(SerializerFactory.class);
+
+    private static volatile Map<SerializeType, Serializer> serializers = init();
+
+    private static Map<SerializeType, Serializer> init() {
+        Map<SerializeType, Serializer> m = new EnumMap<>(SerializeType.class);
+        m.put(SerializeType.SerializeNone, new HessianSerializer());
+        m.put(SerializeType.MsgPack, new MsgPackSerializer());
+        m.put(SerializeType.Hessian2, new Hessian2Serializer());
+        m.put(SerializeType.ProtoBuffer, new ProtobufSerializer());
+        for (SerializeType type : SerializeType.values()) {
+            String className = Config.ins().get("rpcx.serializer." + type.name().toLowerCase());
+            if (null == className) {
+                continue;
+            }
+            try {
+                m.put(type, (Serializer) Class.forName(className).newInstance());
+            } catch (Exception e) {
+                logger.error("load serializer:{} error:{}", className, e.getMessage());
+            }
+        }
+        return m;
+    }
+
+    public static synchronized void register(SerializeType type, Serializer serializer) {
+        Map<SerializeType, Serializer> m = new EnumMap<>(serializers);
+        m.put(type, serializer);
+        serializers = m;
+    }
+
+    public static boolean isSupported(SerializeType type) {
+        return serializers.containsKey(type);
+    }
+
+    public static Serializer get(SerializeType type) {
+        Serializer serializer = serializers.get(type);
+        if (null == serializer) {
+            throw new RpcException("unsupported serialize type:" + type);
+        }
+        return serializer;
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.colobu.rpcx.serializer.impl;
+
+/**
+ * hessian2,整个RpcInvocation一起序列化(和SerializeNone的结构一样,只是换成了hessian2的编码)
+ * 老版本不认识,提供方用 @Provider(serializeType = SerializeType.Hessian2) 注册以后新的consumer才会用
+ *
+ * @author goodjava@qq.com
+ */
+public class Hessian2Serializer extends HessianSerializer {
+
+    public Hessian2Serializer() {
+        super(true);
+    }
+}
@@ -0,0 +1,81 @@
+package com.colobu.rpcx.serializer.impl;
+
+import com.colobu.rpcx.rpc.HessianUtils;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import com.colobu.rpcx.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * hessian 1.0,整个RpcInvocation一起序列化(SerializeNone,默认,和老版本兼容)
+ * hessian2的结构完全一样,只是换了编码(Hessian2Serializer)
+ *
+ * @author goodjava@qq.com
+ */
+public class HessianSerializer implements Serializer {
+
+    private final boolean hessian2;
+
+    public HessianSerializer() {
+        this(false);
+    }
+
+    protected HessianSerializer(boolean hessian2) {
+        this.hessian2 = hessian2;
+    }
+
+    @Override
+    public byte[] encodeRequest(RpcInvocation invocation) {
+        return write(invocation);
+    }
+
+    @Override
+    public RpcInvocation decodeRequest(String servicePath, String serviceMethod, ByteBuf data) {
+        return (RpcInvocation) read(data);
+    }
+
+    @Override
+    public byte[] encodeResponse(RpcInvocation invocation, Object value) {
+        return write(value);
+    }
+
+    @Override
+    public Object decodeResponse(RpcInvocation invocation, ByteBuf data) {
+        return read(data);
+    }
+
+    @Override
+    public boolean supportsCompact() {
+        return true;
+    }
+
+    /**
+     * 方法id + attachments + 参数1 + 参数2 ...
+     */
+    @Override
+    public byte[] encodeCompactRequest(RpcInvocation invocation, int methodId) {
+        Object[] args = null == invocation.getArguments() ? new Object[0] : invocation.getArguments();
+        Object[] values = new Object[args.length + 1];
+        values[0] = invocation.getAttachments();
+        System.arraycopy(args, 0, values, 1, args.length);
+        return HessianUtils.writeValues(hessian2, methodId, values);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void decodeCompactRequest(RpcInvocation invocation, ByteBuf data) {
+        Object[] values = HessianUtils.readValues(hessian2, data, invocation.getParameterTypeNames().length + 1);
+        invocation.setAttachments((Map<String, String>) values[0]);
+        invocation.setArguments(Arrays.copyOfRange(values, 1, values.length));
+    }
+
+    private byte[] write(Object obj) {
+        return hessian2 ? HessianUtils.write2(obj) : HessianUtils.write(obj);
+    }
+
+    private Object read(ByteBuf data) {
+        return hessian2 ? HessianUtils.read2(data) : HessianUtils.read(data);
+    }
+}
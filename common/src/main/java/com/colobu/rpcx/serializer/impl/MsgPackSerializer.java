@@ -0,0 +1,363 @@
+package com.colobu.rpcx.serializer.impl;
+
+import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.rpc.Invoker;
+import com.colobu.rpcx.rpc.ReflectUtils;
+import com.colobu.rpcx.rpc.URL;
+import com.colobu.rpcx.rpc.impl.Exporter;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import com.colobu.rpcx.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.packer.Packer;
+import org.msgpack.template.*;
+import org.msgpack.type.Value;
+import org.msgpack.unpacker.BufferUnpacker;
+import org.msgpack.unpacker.Unpacker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * msgpack,只序列化参数和返回值(不序列化整个RpcInvocation)
+ * 请求: [参数类型名数组] {attachments} url timeout 参数1 参数2 ...
+ * 紧凑格式的请求: 方法id(4字节) {attachments} 参数1 参数2 ...
+ * 返回: 返回值
+ * 参数和返回值按照方法的泛型类型读写(调用方用接口的方法,提供方用导出的方法)
+ * 没有 @Message 注解的类第一次用到的时候自动注册(连同字段里用到的类)
+ * 声明成Object或者泛型变量的按运行时类型写,读出来是 Integer/Long/Double/String/List/Map
+ *
+ * @author goodjava@qq.com
+ */
+public class MsgPackSerializer implements Serializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MsgPackSerializer.class);
+
+    private final MessagePack msgpack = new MessagePack();
+
+    /**
+     * TemplateRegistry.lookup 是同步的,查过的缓存起来
+     */
+    private final ConcurrentMap<Type, Template<Object>> templates = new ConcurrentHashMap<>();
+
+    private final Template<Object> objectTemplate = new ObjectTemplate();
+
+
+    @Override
+    public byte[] encodeRequest(RpcInvocation invocation) throws IOException {
+        BufferPacker packer = msgpack.createBufferPacker();
+        String[] names = invocation.getParameterTypeNames();
+        packer.writeArrayBegin(names.length);
+        for (String name : names) {
+            packer.write(name);
+        }
+        packer.writeArrayEnd();
+
+        writeAttachments(packer, invocation.getAttachments());
+
+        writeString(packer, null == invocation.getUrl() ? null : invocation.getUrl().toFullString());
+        packer.write(invocation.getTimeOut());
+
+        Type[] types = null != invocation.getMethod() ? invocation.getMethod().getGenericParameterTypes() : invocation.getParameterTypes();
+        Object[] args = invocation.getArguments();
+        for (int i = 0; i < names.length; i++) {
+            template(types[i]).write(packer, args[i]);
+        }
+        return packer.toByteArray();
+    }
+
+    @Override
+    public RpcInvocation decodeRequest(String servicePath, String serviceMethod, ByteBuf data) throws IOException {
+        BufferUnpacker unpacker = msgpack.createBufferUnpacker(data.nioBuffer());
+        RpcInvocation invocation = new RpcInvocation();
+        invocation.setClassName(servicePath);
+        invocation.setMethodName(serviceMethod);
+
+        String[] names = new String[unpacker.readArrayBegin()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = unpacker.readString();
+        }
+        unpacker.readArrayEnd();
+        invocation.setParameterTypeNames(names);
+
+        invocation.setAttachments(readAttachments(unpacker));
+
+        String url = readString(unpacker);
+        if (null != url) {
+            invocation.setUrl(URL.valueOf(url));
+        }
+        invocation.setTimeOut(unpacker.readLong());
+
+        Method method = providerMethod(servicePath, serviceMethod, names);
+        invocation.setMethod(method);
+        Type[] types = null != method ? method.getGenericParameterTypes() : parameterTypes(names);
+        Object[] args = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            args[i] = template(types[i]).read(unpacker, null);
+        }
+        invocation.setArguments(args);
+        return invocation;
+    }
+
+    @Override
+    public boolean supportsCompact() {
+        return true;
+    }
+
+    @Override
+    public byte[] encodeCompactRequest(RpcInvocation invocation, int methodId) throws IOException {
+        BufferPacker packer = msgpack.createBufferPacker();
+        writeAttachments(packer, invocation.getAttachments());
+        Type[] types = invocation.getMethod().getGenericParameterTypes();
+        Object[] args = invocation.getArguments();
+        for (int i = 0; i < types.length; i++) {
+            template(types[i]).write(packer, args[i]);
+        }
+        byte[] body = packer.toByteArray();
+        byte[] data = new byte[body.length + 4];
+        data[0] = (byte) (methodId >>> 24);
+        data[1] = (byte) (methodId >>> 16);
+        data[2] = (byte) (methodId >>> 8);
+        data[3] = (byte) methodId;
+        System.arraycopy(body, 0, data, 4, body.length);
+        return data;
+    }
+
+    @Override
+    public void decodeCompactRequest(RpcInvocation invocation, ByteBuf data) throws IOException {
+        BufferUnpacker unpacker = msgpack.createBufferUnpacker(data.nioBuffer());
+        invocation.setAttachments(readAttachments(unpacker));
+        Type[] types = invocation.getMethod().getGenericParameterTypes();
+        Object[] args = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            args[i] = template(types[i]).read(unpacker, null);
+        }
+        invocation.setArguments(args);
+    }
+
+    @Override
+    public byte[] encodeResponse(RpcInvocation invocation, Object value) throws IOException {
+        BufferPacker packer = msgpack.createBufferPacker();
+        template(resultType(invocation)).write(packer, value);
+        return packer.toByteArray();
+    }
+
+    @Override
+    public Object decodeResponse(RpcInvocation invocation, ByteBuf data) throws IOException {
+        BufferUnpacker unpacker = msgpack.createBufferUnpacker(data.nioBuffer());
+        return template(resultType(invocation)).read(unpacker, null);
+    }
+
+
+    private static void writeAttachments(Packer packer, Map<String, String> attachments) throws IOException {
+        packer.writeMapBegin(attachments.size());
+        for (Map.Entry<String, String> entry : attachments.entrySet()) {
+            packer.write(entry.getKey());
+            writeString(packer, entry.getValue());
+        }
+        packer.writeMapEnd();
+    }
+
+    private static Map<String, String> readAttachments(Unpacker unpacker) throws IOException {
+        int size = unpacker.readMapBegin();
+        Map<String, String> attachments = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            attachments.put(unpacker.readString(), readString(unpacker));
+        }
+        unpacker.readMapEnd();
+        return attachments;
+    }
+
+    private static void writeString(Packer packer, String str) throws IOException {
+        if (null == str) {
+            packer.writeNil();
+        } else {
+            packer.write(str);
+        }
+    }
+
+    private static String readString(Unpacker unpacker) throws IOException {
+        return unpacker.trySkipNil() ? null : unpacker.readString();
+    }
+
+    private static Method providerMethod(String servicePath, String serviceMethod, String[] names) {
+        Invoker<Object> invoker = Exporter.invokerMap.get(ClassUtils.getMethodKey(servicePath, serviceMethod, names));
+        return null == invoker ? null : invoker.getMethod();
+    }
+
+    private static Type[] parameterTypes(String[] names) throws IOException {
+        Type[] types = new Type[names.length];
+        for (int i = 0; i < names.length; i++) {
+            try {
+                types[i] = ReflectUtils.name2class(names[i]);
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * 返回值类型,CompletableFuture<T> 取T
+     */
+    private static Type resultType(RpcInvocation invocation) {
+        if (null == invocation || null == invocation.getMethod()) {
+            return Object.class;
+        }
+        Type type = invocation.getMethod().getGenericReturnType();
+        if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == CompletableFuture.class) {
+            return ((ParameterizedType) type).getActualTypeArguments()[0];
+        }
+        if (type == CompletableFuture.class || type == void.class) {
+            return Object.class;
+        }
+        return type;
+    }
+
+    private Template<Object> template(Type type) {
+        Template<Object> template = templates.get(type);
+        if (null == template) {
+            //lookup会递归调用template,不能用computeIfAbsent
+            template = lookup(type);
+            Template<Object> old = templates.putIfAbsent(type, template);
+            if (null != old) {
+                template = old;
+            }
+        }
+        return template;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Template<Object> lookup(Type type) {
+        if (type == Object.class || type instanceof TypeVariable || type instanceof WildcardType) {
+            return objectTemplate;
+        }
+        //集合自己组装,元素是Object(或者没有泛型)的时候msgpack的AnyTemplate读不了
+        Class<?> raw = type instanceof ParameterizedType ? (Class<?>) ((ParameterizedType) type).getRawType() : type instanceof Class ? (Class<?>) type : null;
+        if (null != raw && (Collection.class.isAssignableFrom(raw) || Map.class.isAssignableFrom(raw))) {
+            Type[] args = type instanceof ParameterizedType ? ((ParameterizedType) type).getActualTypeArguments() : new Type[]{Object.class, Object.class};
+            if (Map.class.isAssignableFrom(raw)) {
+                return (Template) new MapTemplate<>(template(args[0]), template(args[1]));
+            }
+            if (Set.class.isAssignableFrom(raw)) {
+                return (Template) new SetTemplate<>(template(args[0]));
+            }
+            if (List.class.isAssignableFrom(raw)) {
+                return (Template) new ListTemplate<>(template(args[0]));
+            }
+            return (Template) new CollectionTemplate<>(template(args[0]));
+        }
+        try {
+            return (Template<Object>) msgpack.lookup(type);
+        } catch (MessageTypeException e) {
+            register(type, new HashSet<>());
+        }
+        try {
+            return (Template<Object>) msgpack.lookup(type);
+        } catch (MessageTypeException e) {
+            logger.warn("msgpack can not find template for:{}, use runtime type", type);
+            return objectTemplate;
+        }
+    }
+
+    /**
+     * 注册类型里用到的普通类(非java.*),字段里用到的先注册
+     */
+    private void register(Type type, Set<Class<?>> visited) {
+        if (type instanceof ParameterizedType) {
+            for (Type arg : ((ParameterizedType) type).getActualTypeArguments()) {
+                register(arg, visited);
+            }
+            register(((ParameterizedType) type).getRawType(), visited);
+        } else if (type instanceof GenericArrayType) {
+            register(((GenericArrayType) type).getGenericComponentType(), visited);
+        } else if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            if (clazz.isArray()) {
+                register(clazz.getComponentType(), visited);
+                return;
+            }
+            if (clazz.isPrimitive() || clazz.isInterface() || clazz.getName().startsWith("java.") || !visited.add(clazz)) {
+                return;
+            }
+            for (Class<?> c = clazz; null != c && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+                        register(field.getGenericType(), visited);
+                    }
+                }
+            }
+            msgpack.register(clazz);
+        }
+    }
+
+
+    /**
+     * 声明类型是Object的:按运行时类型写,读成java的基本对象
+     */
+    private class ObjectTemplate extends AbstractTemplate<Object> {
+
+        @Override
+        public void write(Packer packer, Object v, boolean required) throws IOException {
+            if (null == v) {
+                if (required) {
+                    throw new MessageTypeException("Attempted to write null");
+                }
+                packer.writeNil();
+                return;
+            }
+            Template<Object> template = template(v.getClass());
+            if (template == this) {
+                throw new MessageTypeException("can not serialize:" + v.getClass());
+            }
+            template.write(packer, v, required);
+        }
+
+        @Override
+        public Object read(Unpacker unpacker, Object to, boolean required) throws IOException {
+            if (!required && unpacker.trySkipNil()) {
+                return null;
+            }
+            return toObject(unpacker.readValue());
+        }
+
+        private Object toObject(Value value) {
+            switch (value.getType()) {
+                case NIL:
+                    return null;
+                case BOOLEAN:
+                    return value.asBooleanValue().getBoolean();
+                case INTEGER:
+                    long l = value.asIntegerValue().getLong();
+                    return (int) l == l ? (Object) (int) l : (Object) l;
+                case FLOAT:
+                    return value.asFloatValue().getDouble();
+                case RAW:
+                    return value.asRawValue().getString();
+                case ARRAY:
+                    Value[] array = value.asArrayValue().getElementArray();
+                    List<Object> list = new ArrayList<>(array.length);
+                    for (Value v : array) {
+                        list.add(toObject(v));
+                    }
+                    return list;
+                case MAP:
+                    Map<Object, Object> map = new LinkedHashMap<>();
+                    for (Map.Entry<Value, Value> entry : value.asMapValue().entrySet()) {
+                        map.put(toObject(entry.getKey()), toObject(entry.getValue()));
+                    }
+                    return map;
+                default:
+                    throw new MessageTypeException("unknown msgpack type:" + value.getType());
+            }
+        }
+    }
+}
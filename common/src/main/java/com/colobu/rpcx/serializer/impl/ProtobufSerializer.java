@@ -0,0 +1,195 @@
+package com.colobu.rpcx.serializer.impl;
+
+import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.rpc.Invoker;
+import com.colobu.rpcx.rpc.impl.Exporter;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import com.colobu.rpcx.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * protobuf,和golang rpcx的约定一样:
+ * 请求: 参数(只有一个,protobuf生成的message)的字节
+ * 返回: 返回值message的字节
+ * attachments 不在包体里,放在header的metadata里(RpcConsumerInvoker/RpcProcessor处理)
+ * 不直接依赖protobuf-java,用反射调用生成类的 toByteArray/parseFrom(用到的时候classpath里需要有protobuf)
+ *
+ * @author goodjava@qq.com
+ */
+public class ProtobufSerializer implements Serializer {
+
+    private static final String MESSAGE_LITE = "com.google.protobuf.MessageLite";
+
+    /**
+     * message类 -> parseFrom(byte[])
+     */
+    private final ConcurrentMap<Class<?>, Method> parsers = new ConcurrentHashMap<>();
+
+    /**
+     * message类 -> toByteArray()
+     */
+    private final ConcurrentMap<Class<?>, Method> writers = new ConcurrentHashMap<>();
+
+    /**
+     * servicePath.serviceMethod -> 导出的方法(参数是一个message),导出的方法有变化的时候重建
+     * 不认识的方法名直接查不到,不会每次都扫一遍 Exporter.invokerMap
+     */
+    private volatile ProviderIndex providerIndex = new ProviderIndex(-1, Collections.emptyMap());
+
+
+    @Override
+    public byte[] encodeRequest(RpcInvocation invocation) throws IOException {
+        Object[] args = invocation.getArguments();
+        if (null == args || args.length != 1) {
+            throw new IOException("protobuf only supports methods with one message parameter:" + invocation.getMethodName());
+        }
+        return write(args[0]);
+    }
+
+    @Override
+    public RpcInvocation decodeRequest(String servicePath, String serviceMethod, ByteBuf data) throws IOException {
+        Method method = providerMethod(servicePath, serviceMethod);
+        if (null == method) {
+            throw new IOException("can not find protobuf method:" + servicePath + "." + serviceMethod);
+        }
+        RpcInvocation invocation = new RpcInvocation();
+        invocation.setClassName(servicePath);
+        invocation.setMethodName(serviceMethod);
+        invocation.setMethod(method);
+        invocation.setParameterTypes(method.getParameterTypes());
+        invocation.setParameterTypeNames(ClassUtils.getMethodParameterNames(method));
+        invocation.setArguments(new Object[]{read(method.getParameterTypes()[0], data)});
+        return invocation;
+    }
+
+    @Override
+    public byte[] encodeResponse(RpcInvocation invocation, Object value) throws IOException {
+        return null == value ? new byte[0] : write(value);
+    }
+
+    @Override
+    public Object decodeResponse(RpcInvocation invocation, ByteBuf data) throws IOException {
+        Class<?> type = resultType(invocation);
+        if (null == type || !isMessage(type)) {
+            return null;
+        }
+        return read(type, data);
+    }
+
+
+    /**
+     * 是否是protobuf生成的message
+     */
+    public static boolean isMessage(Class<?> clazz) {
+        for (Class<?> c = clazz; null != c && c != Object.class; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                if (i.getName().equals(MESSAGE_LITE) || isMessage(i)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private byte[] write(Object message) throws IOException {
+        if (null == message) {
+            throw new IOException("protobuf message can not be null");
+        }
+        Method writer = writers.computeIfAbsent(message.getClass(), c -> isMessage(c) ? method(c, "toByteArray") : null);
+        if (null == writer) {
+            throw new IOException("not a protobuf message:" + message.getClass());
+        }
+        return (byte[]) invoke(writer, message);
+    }
+
+    private Object read(Class<?> type, ByteBuf data) throws IOException {
+        Method parser = parsers.computeIfAbsent(type, c -> isMessage(c) ? method(c, "parseFrom", byte[].class) : null);
+        if (null == parser) {
+            throw new IOException("not a protobuf message:" + type);
+        }
+        return invoke(parser, null, (Object) ByteBufUtil.getBytes(data));
+    }
+
+    private static Method method(Class<?> clazz, String name, Class<?>... parameterTypes) {
+        try {
+            return clazz.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Object invoke(Method method, Object obj, Object... args) throws IOException {
+        try {
+            return method.invoke(obj, args);
+        } catch (InvocationTargetException e) {
+            throw new IOException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * golang调用只有 servicePath 和 serviceMethod,按方法名找参数是一个message的导出方法
+     */
+    private Method providerMethod(String servicePath, String serviceMethod) {
+        ProviderIndex index = this.providerIndex;
+        //invokerMap只会增加,数量变了就是有新导出的方法
+        int size = Exporter.invokerMap.size();
+        if (index.size != size) {
+            index = new ProviderIndex(size, providerMethods());
+            this.providerIndex = index;
+        }
+        return index.methods.get(servicePath + "." + serviceMethod);
+    }
+
+    private static Map<String, Method> providerMethods() {
+        Map<String, Method> methods = new HashMap<>();
+        for (Map.Entry<String, Invoker<Object>> entry : Exporter.invokerMap.entrySet()) {
+            Method method = entry.getValue().getMethod();
+            int i = entry.getKey().indexOf('(');
+            if (i > 0 && null != method && method.getParameterCount() == 1 && isMessage(method.getParameterTypes()[0])) {
+                methods.putIfAbsent(entry.getKey().substring(0, i), method);
+            }
+        }
+        return methods;
+    }
+
+    private static class ProviderIndex {
+
+        private final int size;
+
+        private final Map<String, Method> methods;
+
+        private ProviderIndex(int size, Map<String, Method> methods) {
+            this.size = size;
+            this.methods = methods;
+        }
+    }
+
+    /**
+     * 返回值类型,CompletableFuture<T> 取T
+     */
+    private static Class<?> resultType(RpcInvocation invocation) {
+        if (null == invocation || null == invocation.getMethod()) {
+            return null;
+        }
+        Type type = invocation.getMethod().getGenericReturnType();
+        if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == CompletableFuture.class) {
+            type = ((ParameterizedType) type).getActualTypeArguments()[0];
+        }
+        return type instanceof Class ? (Class<?>) type : null;
+    }
+}
@@ -2,6 +2,8 @@
 
 import com.colobu.rpcx.common.Config;
 import com.colobu.rpcx.common.Pair;
+import com.colobu.rpcx.common.StringUtils;
+import com.colobu.rpcx.config.Constants;
 import com.colobu.rpcx.rpc.URL;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
@@ -82,14 +84,25 @@ public Set<Pair<String, String>> get(String basePath, String serviceName) {
 
     ///youpin/services/Arith/tcp@0.0.0.0:8976"
     public void create(String basePath, Set<String> serviceNames, String addr) {
+        create(basePath, serviceNames, addr, null);
+    }
+
+    /**
+     * @param unixSocketPath 不为空的话放到参数里(unix=path),同机的consumer可以走domain socket
+     */
+    public void create(String basePath, Set<String> serviceNames, String addr, String unixSocketPath) {
         serviceNames.forEach(u -> {
             URL url = URL.valueOf(u);
             //& 为了兼容  rpcx(golang)
 //            String path = basePath + url.getPath() + "/tcp@" + addr + "&" + url.toParameterString();
             String path = basePath + url.getPath() + "/tcp@" + addr;
+            String data = url.toParameterString();
+            if (StringUtils.isNotEmpty(unixSocketPath)) {
+                data = (data.isEmpty() ? "" : data + "&") + Constants.UNIX_SOCKET_KEY + "=" + unixSocketPath;
+            }
             try {
                 if (client.checkExists().forPath(path) == null) {
-                    client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path, url.toParameterString().getBytes());
+                    client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path, data.getBytes());
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -0,0 +1,75 @@
+package com.colobu.rpcx.compress;
+
+import com.colobu.rpcx.compress.impl.DictionaryCompressor;
+import com.colobu.rpcx.compress.impl.GzipCompressor;
+import com.colobu.rpcx.compress.impl.SnappyCompressor;
+import com.colobu.rpcx.protocol.CompressType;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class CompressTest {
+
+    /**
+     * snappy framing format 的 stream identifier
+     */
+    private static final byte[] STREAM_START = {(byte) 0xff, 0x06, 0x00, 0x00, 0x73, 0x4e, 0x61, 0x50, 0x70, 0x59};
+
+    @Test
+    public void snappyFraming() throws Exception {
+        SnappyCompressor compressor = new SnappyCompressor();
+        //超过一个chunk(64k)
+        byte[] data = new byte[200 * 1024];
+        Random random = new Random(1);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(4));
+        }
+        byte[] compressed = compressor.compress(data);
+        Assert.assertArrayEquals(STREAM_START, Arrays.copyOf(compressed, STREAM_START.length));
+        Assert.assertTrue(compressed.length < data.length);
+        Assert.assertArrayEquals(data, compressor.decompress(Unpooled.wrappedBuffer(compressed)));
+
+        //第一个chunk的crc被改了
+        compressed[STREAM_START.length + 4] ^= 1;
+        try {
+            compressor.decompress(Unpooled.wrappedBuffer(compressed));
+            Assert.fail();
+        } catch (IOException e) {
+            //ignore
+        }
+    }
+
+    @Test
+    public void maxLength() throws Exception {
+        //压缩率很高的数据
+        byte[] data = new byte[1024 * 1024];
+        for (Compressor compressor : new Compressor[]{new GzipCompressor(), new SnappyCompressor(), new DictionaryCompressor(new byte[]{1, 2, 3})}) {
+            byte[] compressed = compressor.compress(data);
+            Assert.assertArrayEquals(data, compressor.decompress(Unpooled.wrappedBuffer(compressed), data.length));
+            try {
+                compressor.decompress(Unpooled.wrappedBuffer(compressed), data.length - 1);
+                Assert.fail(compressor.getClass().getName());
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().contains("max length"));
+            }
+        }
+    }
+
+    @Test
+    public void policyByType() {
+        String servicePath = "CompressTest.policyByType";
+        Assert.assertTrue(CompressPolicy.shouldCompress(servicePath, CompressType.Gzip, 4096));
+        //gzip压缩率太差,只跳过gzip,不影响snappy
+        CompressPolicy.record(servicePath, CompressType.Gzip, 4096, 4000);
+        Assert.assertFalse(CompressPolicy.shouldCompress(servicePath, CompressType.Gzip, 4096));
+        Assert.assertTrue(CompressPolicy.shouldCompress(servicePath, CompressType.Snappy, 4096));
+        Assert.assertFalse(CompressPolicy.shouldCompress(servicePath, CompressType.Snappy, 16));
+    }
+}
@@ -0,0 +1,180 @@
+package com.colobu.rpcx.compress;
+
+import com.colobu.rpcx.config.Constants;
+import com.colobu.rpcx.netty.NettyDecoder;
+import com.colobu.rpcx.netty.NettyEncoder;
+import com.colobu.rpcx.protocol.CompressType;
+import com.colobu.rpcx.protocol.Message;
+import com.colobu.rpcx.protocol.RemotingCommand;
+import com.colobu.rpcx.rpc.RpcException;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class DictionaryTest {
+
+    private static final byte[] DICT = "{\"name\":\"\",\"age\":0,\"address\":\"\",\"email\":\"@example.com\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void roundTrip() throws Exception {
+        String servicePath = "DictionaryTest.roundTrip";
+        DictionaryManager.register(servicePath, DICT);
+        EmbeddedChannel client = new EmbeddedChannel(new NettyEncoder());
+        EmbeddedChannel server = new EmbeddedChannel(new NettyDecoder());
+
+        //第一次带上字典内容,之后只带字典id
+        ByteBuf first = encode(client, message(servicePath, user(1)));
+        ByteBuf second = encode(client, message(servicePath, user(2)));
+        Assert.assertTrue(second.readableBytes() + DICT.length < first.readableBytes());
+
+        Assert.assertEquals(user(1), new String(decode(server, first).payload, StandardCharsets.UTF_8));
+        Assert.assertEquals(user(2), new String(decode(server, second).payload, StandardCharsets.UTF_8));
+
+        //别的连接上没有收到过这个字典
+        EmbeddedChannel other = new EmbeddedChannel(new NettyDecoder());
+        try {
+            decode(other, encode(client, message(servicePath, user(3))));
+            Assert.fail();
+        } catch (Exception e) {
+            Assert.assertTrue(e.getMessage().contains("unknown compress dictionary"));
+        }
+    }
+
+    @Test
+    public void sentAfterWrite() {
+        String servicePath = "DictionaryTest.sentAfterWrite";
+        DictionaryManager.register(servicePath, DICT);
+        EmbeddedChannel channel = new EmbeddedChannel();
+
+        //还没有写成功,每次都带上字典内容
+        Message m1 = message(servicePath, user(1));
+        String id = DictionaryManager.prepare(channel, m1);
+        Assert.assertNotNull(m1.getMetadataValue(Constants.COMPRESS_DICT));
+        Message m2 = message(servicePath, user(2));
+        Assert.assertEquals(id, DictionaryManager.prepare(channel, m2));
+        Assert.assertNotNull(m2.getMetadataValue(Constants.COMPRESS_DICT));
+
+        DictionaryManager.sent(channel, servicePath, id);
+        Message m3 = message(servicePath, user(3));
+        Assert.assertNull(DictionaryManager.prepare(channel, m3));
+        Assert.assertNull(m3.getMetadataValue(Constants.COMPRESS_DICT));
+        Assert.assertEquals(id, m3.getMetadataValue(Constants.COMPRESS_DICT_ID));
+    }
+
+    @Test
+    public void peerNamespace() {
+        DictionaryManager.PeerDictionaries peer = new DictionaryManager.PeerDictionaries();
+        peer.receive(dictMessage("Arith", "Arith@1.aaaa"));
+        Assert.assertNotNull(peer.getCompressor("Arith@1.aaaa"));
+
+        //只能注册自己servicePath下的字典
+        assertRejected(peer, dictMessage("Arith", "Other@1.aaaa"));
+        assertRejected(peer, dictMessage("Arith", "Arith@x.aaaa"));
+        //一个连接上的node不会变
+        assertRejected(peer, dictMessage("Arith", "Arith@2.bbbb"));
+
+        //每个servicePath只保留两个版本
+        peer.receive(dictMessage("Arith", "Arith@2.aaaa"));
+        peer.receive(dictMessage("Arith", "Arith@3.aaaa"));
+        Assert.assertNotNull(peer.getCompressor("Arith@2.aaaa"));
+        try {
+            peer.getCompressor("Arith@1.aaaa");
+            Assert.fail();
+        } catch (RpcException e) {
+            Assert.assertTrue(e.getMessage().contains("unknown compress dictionary"));
+        }
+    }
+
+    @Test
+    public void versions() {
+        String servicePath = "DictionaryTest.versions";
+        DictionaryManager.register(servicePath, DICT);
+        String v1 = DictionaryManager.currentId(servicePath);
+        DictionaryManager.register(servicePath, DICT);
+        String v2 = DictionaryManager.currentId(servicePath);
+        DictionaryManager.register(servicePath, DICT);
+
+        //只保留当前和上一个版本
+        Assert.assertNotNull(DictionaryManager.getCompressor(v2));
+        try {
+            DictionaryManager.getCompressor(v1);
+            Assert.fail();
+        } catch (RpcException e) {
+            Assert.assertTrue(e.getMessage().contains("unknown compress dictionary"));
+        }
+    }
+
+    @Test
+    public void retrainOnDegrade() throws Exception {
+        String servicePath = "DictionaryTest.retrainOnDegrade";
+        DictionaryManager.register(servicePath, DICT);
+        String v1 = DictionaryManager.currentId(servicePath);
+        EmbeddedChannel client = new EmbeddedChannel(new NettyEncoder());
+
+        //压缩率稳定的时候不会重新训练
+        for (int i = 0; i < 1000; i++) {
+            encode(client, message(servicePath, user(i))).release();
+        }
+        Assert.assertEquals(v1, DictionaryManager.currentId(servicePath));
+
+        //payload变了,压缩率变差以后重新采样训练
+        long deadline = System.currentTimeMillis() + 10000;
+        for (int i = 0; v1.equals(DictionaryManager.currentId(servicePath)) && System.currentTimeMillis() < deadline; i++) {
+            encode(client, message(servicePath, device(i))).release();
+            if (i > 2000) {
+                Thread.sleep(10);
+            }
+        }
+        Assert.assertNotEquals(v1, DictionaryManager.currentId(servicePath));
+    }
+
+    private static void assertRejected(DictionaryManager.PeerDictionaries peer, Message message) {
+        try {
+            peer.receive(message);
+            Assert.fail();
+        } catch (RpcException e) {
+            //ignore
+        }
+    }
+
+    private static Message dictMessage(String servicePath, String id) {
+        Message message = new Message(servicePath, "mul");
+        message.metadata.put(Constants.COMPRESS_DICT_ID, id);
+        message.metadata.put(Constants.COMPRESS_DICT, Base64.getEncoder().encodeToString(DICT));
+        return message;
+    }
+
+    private static Message message(String servicePath, String payload) {
+        Message message = new Message(servicePath, "get");
+        message.setCompressType(CompressType.Dictionary);
+        message.payload = payload.getBytes(StandardCharsets.UTF_8);
+        return message;
+    }
+
+    private static String user(int i) {
+        return "{\"name\":\"user" + i + "\",\"age\":" + (i % 90) + ",\"address\":\"street " + i + "\",\"email\":\"user" + i + "@example.com\"}";
+    }
+
+    private static String device(int i) {
+        return "{\"token\":\"" + Long.toHexString(i * 0x9E3779B97F4A7C15L) + "\",\"device\":\"android-phone\",\"channel\":\"app-store\",\"region\":\"cn-north-" + (i % 10) + "\"}";
+    }
+
+    private static ByteBuf encode(EmbeddedChannel channel, Message message) {
+        Assert.assertTrue(channel.writeOutbound(RemotingCommand.createRequestCommand(message)));
+        return channel.readOutbound();
+    }
+
+    private static Message decode(EmbeddedChannel channel, ByteBuf frame) {
+        channel.writeInbound(frame);
+        RemotingCommand cmd = channel.readInbound();
+        cmd.decode();
+        return cmd.getMessage();
+    }
+}
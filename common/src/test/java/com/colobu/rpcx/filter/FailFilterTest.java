@@ -0,0 +1,165 @@
+package com.colobu.rpcx.filter;
+
+import com.colobu.rpcx.fail.FailType;
+import com.colobu.rpcx.filter.impl.FailFilter;
+import com.colobu.rpcx.rpc.Invoker;
+import com.colobu.rpcx.rpc.Result;
+import com.colobu.rpcx.rpc.RpcContext;
+import com.colobu.rpcx.rpc.RpcException;
+import com.colobu.rpcx.rpc.URL;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import com.colobu.rpcx.rpc.impl.RpcResult;
+import com.colobu.rpcx.selector.SelectMode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class FailFilterTest {
+
+    /**
+     * 前几次返回失败的future,记录每次调用时选中的节点
+     */
+    private static class FailingInvoker implements Invoker<Object> {
+
+        private int failures;
+
+        private final List<CompletableFuture<Object>> futures = new ArrayList<>();
+
+        private final List<String> addrs = new ArrayList<>();
+
+        FailingInvoker(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public Result invoke(RpcInvocation invocation) throws RpcException {
+            if (invocation.getSelectMode() != SelectMode.SelectByUser) {
+                RpcContext.getContext().setServiceAddr("node" + addrs.size());
+            }
+            addrs.add(RpcContext.getContext().getServiceAddr());
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            futures.add(future);
+            RpcResult result = new RpcResult();
+            result.setValue(future);
+            return result;
+        }
+
+        /**
+         * 模拟回调线程完成最新的一次调用
+         */
+        void complete() {
+            CompletableFuture<Object> future = futures.get(futures.size() - 1);
+            if (failures-- > 0) {
+                future.completeExceptionally(new RpcException("timeout"));
+            } else {
+                future.complete("ok");
+            }
+        }
+
+        @Override
+        public Class<Object> getInterface() {
+            return null;
+        }
+
+        @Override
+        public void setMethod(Method method) {
+        }
+
+        @Override
+        public Method getMethod() {
+            return null;
+        }
+
+        @Override
+        public void setInterface(Class clazz) {
+        }
+
+        @Override
+        public URL getUrl() {
+            return null;
+        }
+
+        @Override
+        public void setUrl(URL url) {
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    @Test
+    public void asyncFailOver() throws Exception {
+        FailingInvoker invoker = new FailingInvoker(2);
+        CompletableFuture<Object> future = invoke(invoker, FailType.FailOver, 3);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertFalse(future.isDone());
+            invoker.complete();
+        }
+        Assert.assertEquals("ok", future.get());
+        //每次重试都重新选节点
+        Assert.assertEquals("[node0, node1, node2]", invoker.addrs.toString());
+    }
+
+    @Test
+    public void asyncFailTry() throws Exception {
+        FailingInvoker invoker = new FailingInvoker(1);
+        CompletableFuture<Object> future = invoke(invoker, FailType.FailTry, 3);
+        invoker.complete();
+        invoker.complete();
+        Assert.assertEquals("ok", future.get());
+        //在原来的节点上重试
+        Assert.assertEquals("[node0, node0]", invoker.addrs.toString());
+    }
+
+    @Test
+    public void asyncRetryExhausted() throws Exception {
+        FailingInvoker invoker = new FailingInvoker(5);
+        CompletableFuture<Object> future = invoke(invoker, FailType.FailOver, 2);
+        invoker.complete();
+        invoker.complete();
+        Assert.assertEquals(2, invoker.addrs.size());
+        try {
+            future.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause().getMessage().contains("timeout"));
+        }
+    }
+
+    @Test
+    public void asyncFailFast() throws Exception {
+        FailingInvoker invoker = new FailingInvoker(1);
+        CompletableFuture<Object> future = invoke(invoker, FailType.FailFast, 3);
+        invoker.complete();
+        Assert.assertTrue(future.isCompletedExceptionally());
+        Assert.assertEquals(1, invoker.addrs.size());
+    }
+
+    private static CompletableFuture<Object> invoke(Invoker<Object> invoker, FailType failType, int retryNum) {
+        RpcInvocation invocation = new RpcInvocation();
+        invocation.setClassName("FailFilterTest");
+        invocation.setFailType(failType);
+        invocation.setSelectMode(SelectMode.RandomSelect);
+        invocation.setRetryNum(retryNum);
+        try {
+            Result result = new FailFilter().invoke(invoker, invocation);
+            return (CompletableFuture<Object>) result.getValue();
+        } finally {
+            RpcContext.removeContext();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.colobu.rpcx.netty;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+
+public class ResponseTableTest {
+
+
+    @Test
+    public void putAndRemove() {
+        ResponseTable table = new ResponseTable(new EmbeddedChannel(), 4);
+        long id = table.nextId();
+        ResponseFuture future = new ResponseFuture(id, 1000, null, null);
+        Assert.assertTrue(table.put(future));
+        Assert.assertEquals(1, table.size());
+        Assert.assertSame(future, table.get(id));
+        Assert.assertSame(future, table.remove(id));
+        //只能被移除一次
+        Assert.assertNull(table.remove(id));
+        Assert.assertTrue(table.isEmpty());
+        Assert.assertEquals(0, table.size());
+    }
+
+
+    @Test
+    public void collision() {
+        ResponseTable table = new ResponseTable(new EmbeddedChannel(), 4);
+        ResponseFuture a = new ResponseFuture(1, 1000, null, null);
+        ResponseFuture b = new ResponseFuture(5, 1000, null, null);
+        ResponseFuture c = new ResponseFuture(1L << 40 | 1, 1000, null, null);
+        Assert.assertTrue(table.put(a));
+        Assert.assertTrue(table.put(b));
+        Assert.assertTrue(table.put(c));
+        Assert.assertSame(b, table.get(5));
+        Assert.assertSame(c, table.get(1L << 40 | 1));
+        Assert.assertSame(a, table.remove(1));
+        Assert.assertSame(c, table.get(1L << 40 | 1));
+
+        Assert.assertTrue(table.put(new ResponseFuture(2, 1000, null, null)));
+        Assert.assertTrue(table.put(new ResponseFuture(3, 1000, null, null)));
+        //满了
+        Assert.assertFalse(table.put(new ResponseFuture(4, 1000, null, null)));
+
+        List<ResponseFuture> removed = table.removeIf(f -> f.getOpaque() > 2);
+        Assert.assertEquals(3, removed.size());
+        Assert.assertNotNull(table.get(2));
+        Assert.assertEquals(1, table.size());
+    }
+
+
+    @Test
+    public void probeResetWhenDrained() {
+        ResponseTable table = new ResponseTable(new EmbeddedChannel(), 4);
+        Assert.assertTrue(table.put(new ResponseFuture(1, 1000, null, null)));
+        Assert.assertTrue(table.put(new ResponseFuture(5, 1000, null, null)));
+        Assert.assertTrue(table.put(new ResponseFuture(9, 1000, null, null)));
+        Assert.assertEquals(2, table.maxProbe());
+        Assert.assertNotNull(table.remove(1));
+        Assert.assertNotNull(table.remove(5));
+        //还有等待的,探测距离不能变小
+        Assert.assertEquals(2, table.maxProbe());
+        Assert.assertNotNull(table.get(9));
+        Assert.assertNotNull(table.remove(9));
+        Assert.assertEquals(0, table.maxProbe());
+        Assert.assertEquals(0, table.size());
+
+        //满了放不进去也不会留下名额
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(table.put(new ResponseFuture(i, 1000, null, null)));
+        }
+        Assert.assertFalse(table.put(new ResponseFuture(4, 1000, null, null)));
+        Assert.assertEquals(4, table.size());
+        Assert.assertEquals(4, table.removeIf(f -> true).size());
+        Assert.assertEquals(0, table.maxProbe());
+    }
+}
@@ -0,0 +1,111 @@
+package com.colobu.rpcx.netty;
+
+import com.colobu.rpcx.common.NamedThreadFactory;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.FixedLengthFrameDecoder;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * loopback上对比各个transport(nio/epoll/io_uring)的ping-pong性能
+ * 不可用的transport会跳过
+ * 跑一次要几秒,只在需要的时候手动跑
+ */
+public class TransportBenchmarkTest {
+
+    private static final int CONNECTIONS = 16;
+
+    private static final int ROUND_TRIPS = 20000;
+
+    private static final int SIZE = 128;
+
+
+    @Ignore("benchmark, run manually")
+    @Test
+    public void benchmark() throws Exception {
+        for (Transport transport : Transport.values()) {
+            if (!transport.isAvailable()) {
+                System.out.println(transport + " not available, skip");
+                continue;
+            }
+            //预热
+            run(transport, ROUND_TRIPS / 10);
+            long ns = run(transport, ROUND_TRIPS);
+            long total = (long) CONNECTIONS * ROUND_TRIPS;
+            System.out.println(String.format("%-8s %d round trips, %.1f kops/s, avg rtt %.1f us", transport, total,
+                    total * 1e6 / ns, ns / 1e3 / ROUND_TRIPS));
+        }
+    }
+
+
+    private long run(Transport transport, int roundTrips) throws Exception {
+        EventLoopGroup boss = transport.newEventLoopGroup(1, new NamedThreadFactory("BenchBoss_", true));
+        EventLoopGroup worker = transport.newEventLoopGroup(2, new NamedThreadFactory("BenchWorker_", true));
+        EventLoopGroup client = transport.newEventLoopGroup(2, new NamedThreadFactory("BenchClient_", true));
+        try {
+            Channel server = new ServerBootstrap().group(boss, worker).channel(transport.serverSocketChannelClass())
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                                @Override
+                                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                    ctx.writeAndFlush(msg);
+                                }
+                            });
+                        }
+                    }).bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+            CountDownLatch latch = new CountDownLatch(CONNECTIONS);
+            Bootstrap bootstrap = new Bootstrap().group(client).channel(transport.socketChannelClass())
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new FixedLengthFrameDecoder(SIZE), new SimpleChannelInboundHandler<ByteBuf>() {
+                                private int count;
+
+                                @Override
+                                protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+                                    if (++count < roundTrips) {
+                                        ctx.writeAndFlush(msg.retain());
+                                    } else {
+                                        latch.countDown();
+                                    }
+                                }
+                            });
+                        }
+                    });
+            Channel[] channels = new Channel[CONNECTIONS];
+            for (int i = 0; i < CONNECTIONS; i++) {
+                channels[i] = bootstrap.connect(server.localAddress()).sync().channel();
+            }
+            long begin = System.nanoTime();
+            for (Channel channel : channels) {
+                channel.writeAndFlush(Unpooled.wrappedBuffer(new byte[SIZE]));
+            }
+            Assert.assertTrue(transport + " ping-pong not finished", latch.await(60, TimeUnit.SECONDS));
+            long ns = System.nanoTime() - begin;
+            for (Channel channel : channels) {
+                channel.close().sync();
+            }
+            server.close().sync();
+            return ns;
+        } finally {
+            client.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            worker.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            boss.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -1,13 +1,144 @@
 package com.colobu.rpcx.protocol;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 
 public class MessageTest {
 
 
     @Test
-    public void encodeAndDecode() {
+    public void encodeAndDecode() throws Exception {
+        Message req = new Message("com.colobu.rpcx.service.Arith", "mul");
+        req.setSeq(99);
+        req.metadata.put("language", "JAVA");
+        req.payload = "world".getBytes("UTF-8");
+
+        byte[] data = req.encode();
+        Message res = new Message();
+        res.decode(Arrays.copyOfRange(data, 16, data.length));
+        Assert.assertEquals("com.colobu.rpcx.service.Arith", res.getServicePath());
+        Assert.assertEquals("mul", res.getServiceMethod());
+        Assert.assertEquals("JAVA", res.getMetadata().get("language"));
+        Assert.assertEquals("world", new String(res.getPayload(), "UTF-8"));
+    }
+
+
+    @Test
+    public void encodeComposite() throws Exception {
+        Message req = new Message("服务", "方法");
+        req.metadata.put("k", "值");
+        req.payload = new byte[1024];
+        Arrays.fill(req.payload, (byte) 7);
+
+        byte[] expected = req.encode();
+        ByteBuf buf = req.encode(PooledByteBufAllocator.DEFAULT, 512);
+        try {
+            Assert.assertEquals(expected.length, buf.readableBytes());
+            Assert.assertArrayEquals(expected, ByteBufUtil.getBytes(buf));
+        } finally {
+            buf.release();
+        }
+    }
+
+
+    @Test
+    public void decodeSlice() throws Exception {
+        Message req = new Message("com.colobu.rpcx.service.Arith", "mul");
+        req.payload = "world".getBytes("UTF-8");
+        byte[] data = req.encode();
+
+        ByteBuf body = Unpooled.wrappedBuffer(data, 16, data.length - 16);
+        Message res = new Message();
+        res.decode(body);
+        //解码完包体就释放了
+        Assert.assertEquals(0, body.refCnt());
+        Assert.assertEquals("mul", res.getServiceMethod());
+        Assert.assertEquals(5, res.getPayloadLength());
+        Assert.assertEquals('w', res.getPayloadBuf().getByte(0));
+    }
+
+
+    @Test
+    public void decodeFields() throws Exception {
+        Message req = new Message("com.colobu.rpcx.service.Arith", "mul");
+        req.metadata.put("trace_id", "123");
+        req.payload = "world".getBytes("UTF-8");
+        byte[] data = req.encode();
+
+        Message res = new Message();
+        res.decode(Arrays.copyOfRange(data, 16, data.length));
+        //public的字段解码以后就能直接读
+        Assert.assertEquals("com.colobu.rpcx.service.Arith", res.servicePath);
+        Assert.assertEquals("mul", res.serviceMethod);
+        Assert.assertEquals("123", res.metadata.get("trace_id"));
+        Assert.assertEquals("world", new String(res.payload, "UTF-8"));
+        Assert.assertNull(res.getMetadataValue("span_id"));
+        Assert.assertArrayEquals(data, res.encode());
+    }
+
+
+    @Test
+    public void decodeNames() throws Exception {
+        Message req = new Message("com.colobu.rpcx.service.Arith", "mul");
+        byte[] data = req.encode();
+
+        Message first = new Message();
+        first.decode(Arrays.copyOfRange(data, 16, data.length));
+        Message second = new Message();
+        second.decode(Arrays.copyOfRange(data, 16, data.length));
+        //同一个名字复用解码过的String
+        Assert.assertEquals("com.colobu.rpcx.service.Arith", second.servicePath);
+        Assert.assertSame(first.servicePath, second.servicePath);
+        Assert.assertSame(first.serviceMethod, second.serviceMethod);
+    }
+
+
+    @Test
+    public void decodeCompressed() throws Exception {
+        Message req = new Message("com.colobu.rpcx.service.Arith", "mul");
+        req.setCompressType(CompressType.Gzip);
+        req.payload = new byte[64 * 1024];
+        Arrays.fill(req.payload, (byte) 'b');
+        byte[] data = req.encode();
+
+        Message res = new Message(Arrays.copyOf(data, 12));
+        res.decode(Arrays.copyOfRange(data, 16, data.length));
+        //压缩过的payload解码的时候就解压了
+        Assert.assertArrayEquals(req.payload, res.payload);
+    }
+
+
+    @Test
+    public void compress() throws Exception {
+        for (CompressType type : new CompressType[]{CompressType.Gzip, CompressType.Snappy}) {
+            Message req = new Message("com.colobu.rpcx.service.Arith", "mul");
+            req.setCompressType(type);
+            req.payload = new byte[64 * 1024];
+            Arrays.fill(req.payload, (byte) 'a');
+            byte[] data = req.encode();
+            Assert.assertTrue(data.length < req.payload.length);
+
+            Message res = new Message(Arrays.copyOf(data, 12));
+            res.decode(Arrays.copyOfRange(data, 16, data.length));
+            Assert.assertEquals(type, res.getCompressType());
+            Assert.assertArrayEquals(req.payload, res.getPayload());
+        }
 
+        //小于阈值的不压缩
+        Message req = new Message("com.colobu.rpcx.service.Arith", "mul");
+        req.setCompressType(CompressType.Snappy);
+        req.payload = "world".getBytes("UTF-8");
+        byte[] data = req.encode();
+        Message res = new Message(Arrays.copyOf(data, 12));
+        res.decode(Arrays.copyOfRange(data, 16, data.length));
+        Assert.assertEquals(CompressType.None, res.getCompressType());
+        Assert.assertEquals("world", new String(res.getPayload(), "UTF-8"));
     }
-}
\ No newline at end of file
+}
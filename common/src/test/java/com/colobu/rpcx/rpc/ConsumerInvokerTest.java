@@ -0,0 +1,146 @@
+package com.colobu.rpcx.rpc;
+
+import com.colobu.rpcx.discovery.IServiceDiscovery;
+import com.colobu.rpcx.netty.IClient;
+import com.colobu.rpcx.protocol.LanguageCode;
+import com.colobu.rpcx.protocol.Message;
+import com.colobu.rpcx.protocol.SerializeType;
+import com.colobu.rpcx.rpc.impl.RpcConsumerInvoker;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class ConsumerInvokerTest {
+
+    private static final String SERVICE = "ConsumerInvokerTest";
+
+    private static final String ADDR = "10.0.0.1:8997";
+
+    private static class Discovery implements IServiceDiscovery {
+
+        private volatile List<String> services = Collections.emptyList();
+
+        private final List<Consumer<String>> listeners = new ArrayList<>();
+
+        @Override
+        public List<String> getServices(String serviceName) {
+            return services;
+        }
+
+        @Override
+        public void watch() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void addServices(String... serviceNames) {
+        }
+
+        @Override
+        public void addListener(Consumer<String> listener) {
+            listeners.add(listener);
+        }
+
+        void set(String... services) {
+            this.services = new ArrayList<>();
+            Collections.addAll(this.services, services);
+        }
+
+        void change(String... services) {
+            set(services);
+            listeners.forEach(it -> it.accept(SERVICE));
+        }
+    }
+
+    /**
+     * 记下发出去的请求用的序列化方式
+     */
+    private static class Client implements IClient {
+
+        private final IServiceDiscovery discovery;
+
+        private SerializeType serializeType;
+
+        Client(IServiceDiscovery discovery) {
+            this.discovery = discovery;
+        }
+
+        @Override
+        public Message call(Message req, long timeOut, String sendType) {
+            serializeType = req.getSerializeType();
+            return new Message(req.getServicePath(), req.getServiceMethod());
+        }
+
+        @Override
+        public Message call(String addr, Message req, long timeOut) {
+            return call(req, timeOut, null);
+        }
+
+        @Override
+        public CompletableFuture<Message> callAsync(Message req, long timeOut) {
+            return CompletableFuture.completedFuture(call(req, timeOut, null));
+        }
+
+        @Override
+        public IServiceDiscovery getServiceDiscovery() {
+            return discovery;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void providerCache() {
+        Discovery discovery = new Discovery();
+        Client client = new Client(discovery);
+
+        //注册信息还没有同步过来的时候用默认的,并且不缓存
+        Assert.assertEquals(SerializeType.SerializeNone, call(client));
+        discovery.set(ADDR + "?serialize=Hessian2");
+        Assert.assertEquals(SerializeType.Hessian2, call(client));
+
+        //缓存住了
+        discovery.set(ADDR + "?serialize=MsgPack");
+        Assert.assertEquals(SerializeType.Hessian2, call(client));
+
+        //服务发现有变化
+        discovery.change(ADDR + "?serialize=MsgPack");
+        Assert.assertEquals(SerializeType.MsgPack, call(client));
+
+        //连接断开
+        discovery.set(ADDR + "?serialize=JSON");
+        RpcConsumerInvoker.removeProviders(ADDR);
+        Assert.assertEquals(SerializeType.JSON, call(client));
+    }
+
+    private static SerializeType call(Client client) {
+        RpcInvocation invocation = new RpcInvocation();
+        invocation.setClassName(SERVICE);
+        invocation.setMethodName("echo");
+        invocation.setLanguageCode(LanguageCode.GO);
+        invocation.setPayload(new byte[]{1});
+        invocation.setTimeOut(1000);
+        RpcContext.getContext().setServiceAddr(ADDR);
+        try {
+            Result result = new RpcConsumerInvoker<>(client).invoke(invocation);
+            Assert.assertFalse(result.hasException());
+            return client.serializeType;
+        } finally {
+            RpcContext.removeContext();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.colobu.rpcx.rpc;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+
+public class HessianUtilsTest {
+
+    private static RpcInvocation invocation() {
+        RpcInvocation invocation = new RpcInvocation();
+        invocation.setClassName("com.colobu.rpcx.service.Arith");
+        invocation.setMethodName("mul");
+        invocation.setParameterTypeNames(new String[]{"int", "int"});
+        invocation.setArguments(new Object[]{2, 3});
+        invocation.getAttachments().put("token", "t");
+        return invocation;
+    }
+
+
+    /**
+     * hessian 1.0 的编码和原来逐次新建HessianOutput的结果一样(滚动升级时新老版本互通)
+     */
+    @Test
+    public void compatible() throws Exception {
+        RpcInvocation invocation = invocation();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        HessianOutput out = new HessianOutput(os);
+        out.writeObject(invocation);
+        out.close();
+        Assert.assertArrayEquals(os.toByteArray(), HessianUtils.write(invocation));
+
+        RpcInvocation res = (RpcInvocation) new HessianInput(new ByteArrayInputStream(HessianUtils.write(invocation))).readObject();
+        Assert.assertEquals("mul", res.getMethodName());
+        Assert.assertArrayEquals(new Object[]{2, 3}, res.getArguments());
+    }
+
+    @Test
+    public void hessian2() {
+        for (int i = 0; i < 3; i++) {
+            RpcInvocation res = (RpcInvocation) HessianUtils.read2(Unpooled.wrappedBuffer(HessianUtils.write2(invocation())));
+            Assert.assertEquals("com.colobu.rpcx.service.Arith", res.getClassName());
+            Assert.assertEquals("t", res.getAttachment("token"));
+            Assert.assertArrayEquals(new Object[]{2, 3}, res.getArguments());
+        }
+        //复用的缓冲区在大对象之后还能正常使用
+        byte[] big = new byte[2 * 1024 * 1024];
+        Arrays.fill(big, (byte) 1);
+        Assert.assertArrayEquals(big, (byte[]) HessianUtils.read2(HessianUtils.write2(big)));
+        Assert.assertEquals("x", HessianUtils.read2(HessianUtils.write2("x")));
+        Assert.assertEquals("x", HessianUtils.read(HessianUtils.write("x")));
+    }
+
+    /**
+     * 紧凑格式: 4字节的方法id + 依次写的对象
+     */
+    @Test
+    public void values() {
+        RpcInvocation invocation = invocation();
+        for (boolean hessian2 : new boolean[]{false, true}) {
+            byte[] data = HessianUtils.writeValues(hessian2, -7, invocation.getAttachments(), 2, "x");
+            ByteBuf buf = Unpooled.wrappedBuffer(data);
+            Assert.assertEquals(-7, buf.readInt());
+            Object[] values = HessianUtils.readValues(hessian2, buf, 3);
+            Assert.assertEquals(invocation.getAttachments(), values[0]);
+            Assert.assertEquals(2, values[1]);
+            Assert.assertEquals("x", values[2]);
+            Assert.assertTrue(data.length < (hessian2 ? HessianUtils.write2(invocation) : HessianUtils.write(invocation)).length);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.colobu.rpcx.rpc;
+
+import com.colobu.rpcx.rpc.impl.InjvmInvoker;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import com.colobu.rpcx.rpc.impl.RpcResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class InjvmInvokerTest {
+
+    /**
+     * 提供方:把收到的参数记下来,返回func的结果
+     */
+    private static class Provider implements Invoker<Object> {
+
+        private final Function<Object[], Object> func;
+
+        private Object[] args;
+
+        private String serviceAddr;
+
+        Provider(Function<Object[], Object> func) {
+            this.func = func;
+        }
+
+        @Override
+        public Result invoke(RpcInvocation invocation) throws RpcException {
+            this.args = invocation.getArguments();
+            //提供方拿到的是一个新的context,可以随便改
+            this.serviceAddr = RpcContext.getContext().getServiceAddr();
+            RpcContext.getContext().setServiceAddr("provider");
+            RpcResult result = new RpcResult();
+            result.setValue(func.apply(args));
+            return result;
+        }
+
+        @Override
+        public Class<Object> getInterface() {
+            return null;
+        }
+
+        @Override
+        public void setMethod(Method method) {
+        }
+
+        @Override
+        public Method getMethod() {
+            return null;
+        }
+
+        @Override
+        public void setInterface(Class clazz) {
+        }
+
+        @Override
+        public URL getUrl() {
+            return null;
+        }
+
+        @Override
+        public void setUrl(URL url) {
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    @Test
+    public void copy() {
+        List<String> list = new ArrayList<>(Arrays.asList("a"));
+        AtomicInteger counter = new AtomicInteger(1);
+        Provider provider = new Provider(args -> args[0]);
+        Object value = new InjvmInvoker<>(provider, false).invoke(invocation(List.class, list, counter)).getValue();
+        //参数和返回值都是拷贝
+        Assert.assertEquals(list, value);
+        Assert.assertNotSame(list, provider.args[0]);
+        Assert.assertNotSame(list, value);
+        //可变的Number也要拷贝
+        Assert.assertNotSame(counter, provider.args[1]);
+        Assert.assertEquals(1, ((AtomicInteger) provider.args[1]).get());
+        //不可变的直接共享
+        Long l = 1000L;
+        new InjvmInvoker<>(provider, false).invoke(invocation(Long.class, l));
+        Assert.assertSame(l, provider.args[0]);
+    }
+
+    @Test
+    public void byReference() {
+        List<String> list = new ArrayList<>(Arrays.asList("a"));
+        Provider provider = new Provider(args -> args[0]);
+        Object value = new InjvmInvoker<>(provider, true).invoke(invocation(List.class, list)).getValue();
+        Assert.assertSame(list, provider.args[0]);
+        Assert.assertSame(list, value);
+    }
+
+    @Test
+    public void asyncProviderSyncConsumer() {
+        List<String> list = new ArrayList<>(Arrays.asList("a"));
+        //提供方返回future,调用方要的是值
+        Provider provider = new Provider(args -> CompletableFuture.completedFuture(args[0]));
+        Assert.assertSame(list, new InjvmInvoker<>(provider, true).invoke(invocation(List.class, list)).getValue());
+        Object value = new InjvmInvoker<>(provider, false).invoke(invocation(List.class, list)).getValue();
+        Assert.assertEquals(list, value);
+        Assert.assertNotSame(list, value);
+    }
+
+    @Test
+    public void syncProviderAsyncConsumer() throws Exception {
+        List<String> list = new ArrayList<>(Arrays.asList("a"));
+        Provider provider = new Provider(args -> args[0]);
+        //调用方要的是future
+        Object value = new InjvmInvoker<>(provider, true).invoke(invocation(CompletableFuture.class, list)).getValue();
+        Assert.assertSame(list, ((CompletableFuture<?>) value).get());
+        value = new InjvmInvoker<>(provider, false).invoke(invocation(CompletableFuture.class, list)).getValue();
+        Assert.assertEquals(list, ((CompletableFuture<?>) value).get());
+        Assert.assertNotSame(list, ((CompletableFuture<?>) value).get());
+
+        //两边都是future
+        Provider async = new Provider(args -> CompletableFuture.completedFuture(args[0]));
+        value = new InjvmInvoker<>(async, true).invoke(invocation(CompletableFuture.class, list)).getValue();
+        Assert.assertSame(list, ((CompletableFuture<?>) value).get());
+    }
+
+    @Test
+    public void restoreContext() {
+        RpcContext context = RpcContext.getContext();
+        context.setServiceAddr("consumer");
+        try {
+            Provider provider = new Provider(args -> args[0]);
+            new InjvmInvoker<>(provider, false).invoke(invocation(String.class, "a"));
+            //提供方看不到调用方的context,调用完还原
+            Assert.assertNull(provider.serviceAddr);
+            Assert.assertSame(context, RpcContext.getContext());
+            Assert.assertEquals("consumer", RpcContext.getContext().getServiceAddr());
+        } finally {
+            RpcContext.removeContext();
+        }
+    }
+
+    private static RpcInvocation invocation(Class<?> resultType, Object... args) {
+        RpcInvocation invocation = new RpcInvocation();
+        invocation.setClassName("InjvmInvokerTest");
+        invocation.setMethodName("echo");
+        invocation.setResultType(resultType);
+        invocation.setTimeOut(1000);
+        invocation.setArguments(args);
+        return invocation;
+    }
+}
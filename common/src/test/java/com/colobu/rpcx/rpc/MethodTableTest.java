@@ -0,0 +1,57 @@
+package com.colobu.rpcx.rpc;
+
+import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.rpc.impl.MethodTable;
+import com.colobu.rpcx.rpc.impl.RpcProviderInvoker;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class MethodTableTest {
+
+    public interface Service {
+        int sum(int a, int b);
+
+        String echo(String s);
+
+        //"Aa()" 和 "BB()" 的hash一样
+        void Aa();
+
+        void BB();
+    }
+
+    @Test
+    public void dispatch() throws Exception {
+        List<Invoker<Object>> invokers = new ArrayList<>();
+        for (Method method : Service.class.getMethods()) {
+            Invoker<Object> invoker = new RpcProviderInvoker<>(null);
+            invoker.setMethod(method);
+            invokers.add(invoker);
+        }
+        MethodTable table = new MethodTable("Service", invokers);
+
+        int sum = ClassUtils.getMethodId("sum", new String[]{"int", "int"});
+        MethodTable.Entry entry = table.get(sum);
+        Assert.assertEquals(Service.class.getMethod("sum", int.class, int.class), entry.getMethod());
+        Assert.assertEquals("Service.sum(int,int)", entry.getMethodKey());
+        Assert.assertArrayEquals(new String[]{"int", "int"}, entry.getParameterTypeNames());
+        Assert.assertEquals("echo", table.get(ClassUtils.getMethodId("echo", new String[]{"java.lang.String"})).getMethod().getName());
+        Assert.assertNull(table.get(sum + 1));
+
+        //id冲突的方法只能按名字调用,也不注册出去
+        int conflict = ClassUtils.getMethodId("Aa", new String[0]);
+        Assert.assertEquals(conflict, ClassUtils.getMethodId("BB", new String[0]));
+        Assert.assertNull(table.get(conflict));
+
+        int[] ids = MethodTable.parseIds(table.idsToString());
+        Assert.assertEquals(2, ids.length);
+        Assert.assertTrue(ids[0] == sum || ids[1] == sum);
+        Assert.assertNull(MethodTable.parseIds(null));
+    }
+}
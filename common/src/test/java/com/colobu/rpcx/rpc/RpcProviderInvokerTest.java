@@ -0,0 +1,119 @@
+package com.colobu.rpcx.rpc;
+
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import com.colobu.rpcx.rpc.impl.RpcProviderInvoker;
+import com.esotericsoftware.reflectasm.MethodAccess;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class RpcProviderInvokerTest {
+
+    public static class Calc {
+
+        static final AtomicInteger instances = new AtomicInteger();
+
+        public Calc() {
+            instances.incrementAndGet();
+        }
+
+        public String add(String a, String b) {
+            return a + b;
+        }
+
+        public int add(int a, int b) {
+            return a + b;
+        }
+    }
+
+    @Before
+    public void reset() {
+        Calc.instances.set(0);
+    }
+
+    @Test
+    public void overload() throws Exception {
+        Method method = Calc.class.getMethod("add", int.class, int.class);
+        Invoker<Object> invoker = new RpcProviderInvoker<>(null);
+        invoker.setInterface(Calc.class);
+        invoker.setMethod(method);
+        invoker.setMethodAccess(MethodAccess.get(Calc.class));
+
+        for (int i = 0; i < 3; i++) {
+            Result result = invoker.invoke(invocation("add", new String[]{"int", "int"}, 1, 2));
+            Assert.assertFalse(result.hasException());
+            //绑定的是 add(int,int) 这个重载
+            Assert.assertEquals(3, result.getValue());
+        }
+        //目标对象只创建一次
+        Assert.assertEquals(1, Calc.instances.get());
+    }
+
+    @Test
+    public void singletonPerClass() throws Exception {
+        //同一个Exporter里同一个类的不同方法,还有share调用,用的是同一个目标对象
+        ConcurrentMap<Class, Object> targets = new ConcurrentHashMap<>();
+        Invoker<Object> intAdd = new RpcProviderInvoker<>(null, targets);
+        intAdd.setInterface(Calc.class);
+        intAdd.setMethod(Calc.class.getMethod("add", int.class, int.class));
+        intAdd.setMethodAccess(MethodAccess.get(Calc.class));
+        Invoker<Object> stringAdd = new RpcProviderInvoker<>(null, targets);
+        stringAdd.setInterface(Calc.class);
+        stringAdd.setMethod(Calc.class.getMethod("add", String.class, String.class));
+        RpcProviderInvoker<Object> share = new RpcProviderInvoker<>(null, targets);
+        share.setShare(true);
+
+        Assert.assertEquals(3, intAdd.invoke(invocation("add", new String[]{"int", "int"}, 1, 2)).getValue());
+        Assert.assertEquals("ab", stringAdd.invoke(invocation("add", new String[]{"java.lang.String", "java.lang.String"}, "a", "b")).getValue());
+        Assert.assertEquals("cd", share.invoke(invocation("add", new String[]{"java.lang.String", "java.lang.String"}, "c", "d")).getValue());
+        Assert.assertEquals(1, Calc.instances.get());
+    }
+
+    @Test
+    public void targetsPerExporter() throws Exception {
+        //不同的Exporter各自用自己的getBeanFunc取目标对象,不共用
+        AtomicInteger firstCalls = new AtomicInteger();
+        AtomicInteger secondCalls = new AtomicInteger();
+        Invoker<Object> first = new RpcProviderInvoker<>(c -> {
+            firstCalls.incrementAndGet();
+            return new Calc();
+        }, new ConcurrentHashMap<>());
+        Invoker<Object> second = new RpcProviderInvoker<>(c -> {
+            secondCalls.incrementAndGet();
+            return new Calc();
+        }, new ConcurrentHashMap<>());
+        for (Invoker<Object> invoker : new Invoker[]{first, second, first, second}) {
+            invoker.setInterface(Calc.class);
+            invoker.setMethod(Calc.class.getMethod("add", int.class, int.class));
+            Assert.assertEquals(3, invoker.invoke(invocation("add", new String[]{"int", "int"}, 1, 2)).getValue());
+        }
+        Assert.assertEquals(1, firstCalls.get());
+        Assert.assertEquals(1, secondCalls.get());
+        Assert.assertEquals(2, Calc.instances.get());
+    }
+
+    @Test
+    public void share() {
+        RpcProviderInvoker<Object> invoker = new RpcProviderInvoker<>(null);
+        invoker.setShare(true);
+        Assert.assertEquals("ab", invoker.invoke(invocation("add", new String[]{"java.lang.String", "java.lang.String"}, "a", "b")).getValue());
+        Assert.assertEquals(5, invoker.invoke(invocation("add", new String[]{"int", "int"}, 2, 3)).getValue());
+    }
+
+    private static RpcInvocation invocation(String methodName, String[] parameterTypeNames, Object... args) {
+        RpcInvocation invocation = new RpcInvocation();
+        invocation.setClassName(Calc.class.getName());
+        invocation.setMethodName(methodName);
+        invocation.setParameterTypeNames(parameterTypeNames);
+        invocation.setArguments(args);
+        return invocation;
+    }
+}
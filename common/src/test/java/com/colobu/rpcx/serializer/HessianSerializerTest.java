@@ -0,0 +1,50 @@
+package com.colobu.rpcx.serializer;
+
+import com.colobu.rpcx.protocol.SerializeType;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class HessianSerializerTest {
+
+    @Test
+    public void compact() throws Exception {
+        for (SerializeType type : new SerializeType[]{SerializeType.SerializeNone, SerializeType.Hessian2}) {
+            Serializer serializer = SerializerFactory.get(type);
+            Assert.assertTrue(serializer.supportsCompact());
+
+            RpcInvocation invocation = new RpcInvocation();
+            invocation.setArguments(new Object[]{Arrays.asList("a", "b"), 7});
+            invocation.getAttachments().put("token", "t");
+            ByteBuf data = Unpooled.wrappedBuffer(serializer.encodeCompactRequest(invocation, 42));
+            Assert.assertEquals(42, data.readInt());
+
+            RpcInvocation res = new RpcInvocation();
+            res.setParameterTypeNames(new String[]{"java.util.List", "int"});
+            serializer.decodeCompactRequest(res, data);
+            Assert.assertEquals("t", res.getAttachment("token"));
+            Assert.assertEquals(Arrays.asList("a", "b"), res.getArguments()[0]);
+            Assert.assertEquals(7, res.getArguments()[1]);
+        }
+    }
+
+    @Test
+    public void response() throws Exception {
+        for (SerializeType type : new SerializeType[]{SerializeType.SerializeNone, SerializeType.Hessian2}) {
+            Serializer serializer = SerializerFactory.get(type);
+            List<String> value = Arrays.asList("a", "b");
+            Assert.assertEquals(value, serializer.decodeResponse(null, Unpooled.wrappedBuffer(serializer.encodeResponse(null, value))));
+        }
+        //两个版本的编码不一样
+        Assert.assertFalse(Arrays.equals(SerializerFactory.get(SerializeType.SerializeNone).encodeResponse(null, "abc"),
+                SerializerFactory.get(SerializeType.Hessian2).encodeResponse(null, "abc")));
+    }
+}
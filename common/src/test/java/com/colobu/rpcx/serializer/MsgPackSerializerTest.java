@@ -0,0 +1,112 @@
+package com.colobu.rpcx.serializer;
+
+import com.colobu.rpcx.protocol.SerializeType;
+import com.colobu.rpcx.rpc.ReflectUtils;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+
+public class MsgPackSerializerTest {
+
+    public static class Item {
+        public String name;
+        public int count;
+        public List<Item> children = new ArrayList<>();
+    }
+
+    public interface Service {
+        CompletableFuture<Map<String, Item>> index(List<Item> items, long version);
+    }
+
+    private final Serializer serializer = SerializerFactory.get(SerializeType.MsgPack);
+
+
+    @Test
+    public void request() throws Exception {
+        Method method = Service.class.getMethod("index", List.class, long.class);
+        RpcInvocation invocation = new RpcInvocation();
+        invocation.setMethod(method);
+        invocation.setParameterTypes(method.getParameterTypes());
+        invocation.setParameterTypeNames(Stream.of(method.getParameterTypes()).map(ReflectUtils::getName).toArray(String[]::new));
+        invocation.setArguments(new Object[]{Arrays.asList(item("a", 1), null), 7L});
+        invocation.getAttachments().put("traceId", null);
+        invocation.getAttachments().put("token", "t");
+
+        byte[] data = serializer.encodeRequest(invocation);
+        RpcInvocation res = serializer.decodeRequest("Service", "index", Unpooled.wrappedBuffer(data));
+        Assert.assertEquals("index", res.getMethodName());
+        Assert.assertArrayEquals(invocation.getParameterTypeNames(), res.getParameterTypeNames());
+        Assert.assertEquals("t", res.getAttachment("token"));
+        Assert.assertTrue(res.getAttachments().containsKey("traceId"));
+        //没有导出的方法,按参数类名读(没有泛型信息)
+        List<?> items = (List<?>) res.getArguments()[0];
+        Assert.assertEquals(2, items.size());
+        Assert.assertNull(items.get(1));
+        Assert.assertEquals(7L, res.getArguments()[1]);
+    }
+
+    @Test
+    public void compactRequest() throws Exception {
+        Method method = Service.class.getMethod("index", List.class, long.class);
+        RpcInvocation invocation = new RpcInvocation();
+        invocation.setMethod(method);
+        invocation.setArguments(new Object[]{Collections.singletonList(item("a", 1)), 7L});
+        invocation.getAttachments().put("token", "t");
+
+        byte[] data = serializer.encodeCompactRequest(invocation, 0x01020304);
+        ByteBuf buf = Unpooled.wrappedBuffer(data);
+        Assert.assertEquals(0x01020304, buf.readInt());
+
+        //提供方按方法id还原的调用
+        RpcInvocation res = new RpcInvocation();
+        res.setMethod(method);
+        serializer.decodeCompactRequest(res, buf);
+        Assert.assertEquals("t", res.getAttachment("token"));
+        Assert.assertEquals("a", ((Item) ((List<?>) res.getArguments()[0]).get(0)).name);
+        Assert.assertEquals(7L, res.getArguments()[1]);
+        Assert.assertTrue(data.length < serializer.encodeRequest(full(invocation)).length);
+    }
+
+    @Test
+    public void response() throws Exception {
+        RpcInvocation invocation = new RpcInvocation();
+        invocation.setMethod(Service.class.getMethod("index", List.class, long.class));
+        Map<String, Item> map = new HashMap<>();
+        Item a = item("a", 1);
+        a.children.add(item("b", 2));
+        map.put("a", a);
+
+        byte[] data = serializer.encodeResponse(invocation, map);
+        Map<?, ?> res = (Map<?, ?>) serializer.decodeResponse(invocation, Unpooled.wrappedBuffer(data));
+        Item item = (Item) res.get("a");
+        Assert.assertEquals("a", item.name);
+        Assert.assertEquals(1, item.count);
+        Assert.assertEquals("b", item.children.get(0).name);
+
+        //没有类型信息的时候读成基本对象
+        Object obj = serializer.decodeResponse(null, Unpooled.wrappedBuffer(serializer.encodeResponse(null, Arrays.asList(1, "x", 3L << 40))));
+        Assert.assertEquals(Arrays.asList(1, "x", 3L << 40), obj);
+        Assert.assertNull(serializer.decodeResponse(invocation, Unpooled.wrappedBuffer(serializer.encodeResponse(invocation, null))));
+    }
+
+    private static RpcInvocation full(RpcInvocation invocation) {
+        invocation.setParameterTypes(invocation.getMethod().getParameterTypes());
+        invocation.setParameterTypeNames(Stream.of(invocation.getParameterTypes()).map(ReflectUtils::getName).toArray(String[]::new));
+        return invocation;
+    }
+
+    private static Item item(String name, int count) {
+        Item item = new Item();
+        item.name = name;
+        item.count = count;
+        return item;
+    }
+}
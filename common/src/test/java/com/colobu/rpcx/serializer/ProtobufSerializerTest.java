@@ -0,0 +1,142 @@
+package com.colobu.rpcx.serializer;
+
+import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.protocol.SerializeType;
+import com.colobu.rpcx.rpc.Invoker;
+import com.colobu.rpcx.rpc.impl.Exporter;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import com.colobu.rpcx.rpc.impl.RpcProviderInvoker;
+import com.google.protobuf.MessageLite;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 和golang rpcx的protobuf约定互通:包体就是参数/返回值message的字节
+ */
+public class ProtobufSerializerTest {
+
+    /**
+     * 手写的 google.protobuf.StringValue(和生成类一样有 toByteArray/parseFrom),不依赖protobuf-java
+     */
+    public static class StringValue implements MessageLite {
+
+        private final String value;
+
+        public StringValue(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            byte[] v = value.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            //默认值不编码
+            if (v.length > 0) {
+                //field 1, wire type 2(length-delimited)
+                out.write(0x0a);
+                for (int n = v.length; ; n >>>= 7) {
+                    if (n < 0x80) {
+                        out.write(n);
+                        break;
+                    }
+                    out.write((n & 0x7f) | 0x80);
+                }
+                out.write(v, 0, v.length);
+            }
+            return out.toByteArray();
+        }
+
+        public static StringValue parseFrom(byte[] data) {
+            if (data.length == 0) {
+                return new StringValue("");
+            }
+            int i = 1;
+            int len = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[i++];
+                len |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            return new StringValue(new String(data, i, len, StandardCharsets.UTF_8));
+        }
+    }
+
+    public static class Service {
+        public StringValue echo(StringValue s) {
+            return s;
+        }
+
+        public StringValue upper(StringValue s) {
+            return new StringValue(s.getValue().toUpperCase());
+        }
+    }
+
+    private static final String SERVICE_PATH = "ProtobufSerializerTest";
+
+    private final Serializer serializer = SerializerFactory.get(SerializeType.ProtoBuffer);
+
+    /**
+     * golang: proto.Marshal(&wrappers.StringValue{Value: s})
+     */
+    private static byte[] goBytes(String s) {
+        byte[] value = s.getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[value.length + 2];
+        //field 1, wire type 2(length-delimited)
+        data[0] = 0x0a;
+        data[1] = (byte) value.length;
+        System.arraycopy(value, 0, data, 2, value.length);
+        return data;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        export("echo");
+        RpcInvocation invocation = serializer.decodeRequest(SERVICE_PATH, "echo", Unpooled.wrappedBuffer(goBytes("abc")));
+        Assert.assertEquals("echo", invocation.getMethodName());
+        Assert.assertEquals(StringValue.class, invocation.getParameterTypes()[0]);
+        Assert.assertEquals("abc", ((StringValue) invocation.getArguments()[0]).getValue());
+
+        Assert.assertArrayEquals(goBytes("xyz"), serializer.encodeResponse(invocation, new StringValue("xyz")));
+        Assert.assertEquals("xyz", ((StringValue) serializer.decodeResponse(invocation, Unpooled.wrappedBuffer(goBytes("xyz")))).getValue());
+
+        //空的message编码出来是0字节
+        Assert.assertEquals(0, serializer.encodeResponse(invocation, new StringValue("")).length);
+        Assert.assertEquals("", ((StringValue) serializer.decodeResponse(invocation, Unpooled.EMPTY_BUFFER)).getValue());
+    }
+
+    @Test
+    public void unknownMethod() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            try {
+                serializer.decodeRequest(SERVICE_PATH, "upper", Unpooled.wrappedBuffer(goBytes("abc")));
+                Assert.fail();
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().contains("can not find protobuf method"));
+            }
+        }
+        //后导出的方法也能找到
+        export("upper");
+        RpcInvocation invocation = serializer.decodeRequest(SERVICE_PATH, "upper", Unpooled.wrappedBuffer(goBytes("abc")));
+        Assert.assertEquals("upper", invocation.getMethod().getName());
+    }
+
+    private static void export(String name) throws Exception {
+        Method method = Service.class.getMethod(name, StringValue.class);
+        Invoker<Object> invoker = new RpcProviderInvoker<>(null);
+        invoker.setInterface(Service.class);
+        invoker.setMethod(method);
+        Exporter.invokerMap.putIfAbsent(ClassUtils.getMethodKey(SERVICE_PATH, name, ClassUtils.getMethodParameterNames(method)), invoker);
+    }
+}
@@ -0,0 +1,9 @@
+package com.google.protobuf;
+
+/**
+ * 测试用:ProtobufSerializer按这个接口名识别生成的message,测试不需要依赖protobuf-java
+ */
+public interface MessageLite {
+
+    byte[] toByteArray();
+}
@@ -0,0 +1,194 @@
+package com.colobu.rpcx.handler;
+
+import com.colobu.rpcx.processor.HttpJsonCodec;
+import com.colobu.rpcx.protocol.RemotingCommand;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * http连接上的返回排序(keep-alive + pipelining)
+ * RpcxHttpHandler 收到请求的时候按顺序分配序号(Message的seq),处理器是多线程的,返回的顺序不确定,
+ * 这里把返回的RemotingCommand转成http返回,按请求的顺序写回去,不是keep-alive的请求写完就关闭连接
+ * 没写回去的请求太多(个数或者请求体的总长度)的时候暂停读
+ * 只在连接的eventLoop里调用
+ *
+ * @author goodjava@qq.com
+ */
+public class HttpPipeliningHandler extends ChannelOutboundHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpPipeliningHandler.class);
+
+    private static final HttpJsonCodec codec = new HttpJsonCodec();
+
+    private final int maxPipelined;
+
+    /**
+     * 没写回的请求体加起来超过这个也暂停读(请求体可能很大,只限制个数不够)
+     */
+    private final long maxPipelinedBytes;
+
+    /**
+     * 下一个请求的序号
+     */
+    private long nextSeq;
+
+    /**
+     * 下一个要写回的序号
+     */
+    private long nextWrite;
+
+    /**
+     * nextWrite开始每个请求是否keep-alive,请求体多大
+     */
+    private final ArrayDeque<PendingRequest> requests = new ArrayDeque<>();
+
+    /**
+     * requests里的请求体一共多大
+     */
+    private long pendingBytes;
+
+    /**
+     * 先处理完的返回,等前面的写完再写
+     */
+    private final Map<Long, PendingResponse> pending = new HashMap<>();
+
+    private boolean closed;
+
+    public HttpPipeliningHandler(int maxPipelined) {
+        this(maxPipelined, Long.MAX_VALUE);
+    }
+
+    public HttpPipeliningHandler(int maxPipelined, long maxPipelinedBytes) {
+        this.maxPipelined = maxPipelined;
+        this.maxPipelinedBytes = maxPipelinedBytes;
+    }
+
+    /**
+     * 收到一个请求,返回这个请求的序号
+     */
+    public long request(ChannelHandlerContext ctx, boolean keepAlive) {
+        return request(ctx, keepAlive, 0);
+    }
+
+    /**
+     * @param bytes 请求体的长度
+     */
+    public long request(ChannelHandlerContext ctx, boolean keepAlive, int bytes) {
+        requests.addLast(new PendingRequest(keepAlive, bytes));
+        pendingBytes += bytes;
+        if (full()) {
+            ctx.channel().config().setAutoRead(false);
+        }
+        return nextSeq++;
+    }
+
+    private boolean full() {
+        return requests.size() >= maxPipelined || pendingBytes >= maxPipelinedBytes;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof RemotingCommand)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        if (closed) {
+            promise.tryFailure(new ClosedChannelException());
+            return;
+        }
+        RemotingCommand cmd = (RemotingCommand) msg;
+        long seq = cmd.getOpaque();
+        if (seq != nextWrite) {
+            pending.put(seq, new PendingResponse(cmd, promise));
+            return;
+        }
+        writeResponse(ctx, cmd, promise);
+        for (PendingResponse p; !closed && null != (p = pending.remove(nextWrite)); ) {
+            writeResponse(ctx, p.cmd, p.promise);
+        }
+        if (!closed && !full() && !ctx.channel().config().isAutoRead()) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        pending.values().forEach(p -> p.promise.tryFailure(new ClosedChannelException()));
+        pending.clear();
+    }
+
+    private void writeResponse(ChannelHandlerContext ctx, RemotingCommand cmd, ChannelPromise promise) {
+        nextWrite++;
+        PendingRequest request = requests.pollFirst();
+        boolean keepAlive = null != request && request.keepAlive;
+        if (null != request) {
+            pendingBytes -= request.bytes;
+        }
+
+        ByteBuf data = ctx.alloc().buffer();
+        try {
+            codec.encodeMessage(cmd.getMessage(), data);
+        } catch (IOException e) {
+            data.release();
+            logger.error("encode http response error", e);
+            promise.tryFailure(e);
+            closed = true;
+            ctx.close();
+            return;
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, data);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json");
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, data.readableBytes());
+        response.headers().set(HttpHeaderNames.CONNECTION, keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+        if (keepAlive) {
+            ctx.write(response, promise);
+        } else {
+            closed = true;
+            ctx.writeAndFlush(response, promise.unvoid()).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+
+    private static class PendingRequest {
+
+        private final boolean keepAlive;
+
+        private final int bytes;
+
+        private PendingRequest(boolean keepAlive, int bytes) {
+            this.keepAlive = keepAlive;
+            this.bytes = bytes;
+        }
+    }
+
+
+    private static class PendingResponse {
+
+        private final RemotingCommand cmd;
+
+        private final ChannelPromise promise;
+
+        private PendingResponse(RemotingCommand cmd, ChannelPromise promise) {
+            this.cmd = cmd;
+            this.promise = promise;
+        }
+    }
+}
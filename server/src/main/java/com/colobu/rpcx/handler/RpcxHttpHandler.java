@@ -7,12 +7,11 @@
 import com.colobu.rpcx.protocol.MessageType;
 import com.colobu.rpcx.protocol.RemotingCommand;
 import com.colobu.rpcx.server.NettyServer;
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpHeaders;
-import org.jboss.netty.handler.codec.socks.SocksMessage;
+import io.netty.handler.codec.http.HttpUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,8 +39,11 @@ public class RpcxHttpHandler extends SimpleChannelInboundHandler<FullHttpRequest
 
     private NettyServer nettyServer;
 
-    public RpcxHttpHandler(NettyServer nettyServer) {
+    private HttpPipeliningHandler pipelining;
+
+    public RpcxHttpHandler(NettyServer nettyServer, HttpPipeliningHandler pipelining) {
         this.nettyServer = nettyServer;
+        this.pipelining = pipelining;
     }
 
     @Override
@@ -50,13 +52,7 @@ protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest msg) {
         String serviceMethod = msg.headers().get(Constants.X_RPCX_SERVICEMETHOD);
         String traceId = msg.headers().get(Constants.X_RPCX_TRACEID);
 
-        logger.info("service:{} method:{} traceId:{}", servicePath, serviceMethod, traceId);
-
-        ByteBuf buf = msg.content();
-        int len = buf.readableBytes();
-
-        byte[] payload = new byte[len];
-        buf.readBytes(payload);
+        logger.debug("service:{} method:{} traceId:{}", servicePath, serviceMethod, traceId);
 
         Message message = new Message();
         message.metadata.put("language", LanguageCode.HTTP.name());
@@ -65,11 +61,13 @@ protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest msg) {
         message.metadata.put(Constants.X_RPCX_TRACEID, traceId == null ? "" : traceId);
         message.servicePath = servicePath;
         message.serviceMethod = serviceMethod;
-        message.payload = payload;
         message.setMessageType(MessageType.Request);
-        message.setOneway(true);
+        //连接上按顺序分配序号,返回(包括限流,关闭等错误)由HttpPipeliningHandler按这个顺序写回
+        message.setSeq(pipelining.request(ctx, HttpUtil.isKeepAlive(msg), msg.content().readableBytes()));
         RemotingCommand command = RemotingCommand.createRequestCommand(message);
         command.setCode(1984);
+        //请求体不拷贝,RpcHttpProcessor直接从里面读json,处理完以后release
+        command.setData(msg.content().retain());
         //这里会异步处理
         nettyServer.processRequestCommand(ctx, command);
     }
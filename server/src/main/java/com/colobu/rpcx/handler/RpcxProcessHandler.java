@@ -1,16 +1,21 @@
 package com.colobu.rpcx.handler;
 
+import com.colobu.rpcx.common.Config;
 import com.colobu.rpcx.netty.NettyConnetManageHandler;
 import com.colobu.rpcx.netty.NettyDecoder;
 import com.colobu.rpcx.netty.NettyEncoder;
 import com.colobu.rpcx.netty.NettyServerHandler;
 import com.colobu.rpcx.server.NettyServer;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http2.Http2MultiplexCodecBuilder;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
 import io.netty.handler.timeout.IdleStateHandler;
 
 import java.util.List;
@@ -20,6 +25,21 @@
  */
 public class RpcxProcessHandler extends ByteToMessageDecoder {
 
+    /**
+     * http请求体(chunked的会聚合)的最大长度,超过的返回413
+     */
+    private static final int maxContentLength = Integer.valueOf(Config.ins().get("rpcx.http.max.content.length", String.valueOf(1024 * 1024)));
+
+    /**
+     * 一个http连接上没写回的请求数超过这个暂停读
+     */
+    private static final int maxPipelined = Integer.valueOf(Config.ins().get("rpcx.http.max.pipelined", "64"));
+
+    /**
+     * 一个http连接上没写回的请求体加起来超过这个也暂停读(一个连接最多占用 这个值 + maxContentLength)
+     */
+    private static final long maxPipelinedBytes = Long.valueOf(Config.ins().get("rpcx.http.max.pipelined.bytes", String.valueOf(4 * 1024 * 1024)));
+
     private int serverChannelMaxIdleTimeSeconds;
 
     private NettyServer nettyServer;
@@ -37,12 +57,28 @@ protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) t
         }
 
         final int magic = in.getByte(in.readerIndex());
+        //P开头的可能是POST/PUT,也可能是http2的连接前言(PRI * HTTP/2.0)
+        if (magic == 'P' && in.readableBytes() < 3) {
+            return;
+        }
         ChannelPipeline p = ctx.pipeline();
-        //处理http
-        if (isHttp(magic)) {
+        if (isHttp2(in)) {
+            //http2(prior knowledge),每个stream一个子channel,转成http1的请求处理
+            p.addLast(new IdleStateHandler(0, 0, serverChannelMaxIdleTimeSeconds));
+            p.addLast(new NettyConnetManageHandler(nettyServer));
+            p.addLast(Http2MultiplexCodecBuilder.forServer(new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel ch) {
+                    ch.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(true));
+                    addHttpHandlers(ch.pipeline());
+                }
+            }).build());
+            p.remove(this);
+        } else if (isHttp(magic)) {//处理http
             p.addLast(new HttpServerCodec());
-            p.addLast(new HttpObjectAggregator(1048576));
-            p.addLast(new RpcxHttpHandler(nettyServer));
+            p.addLast(new IdleStateHandler(0, 0, serverChannelMaxIdleTimeSeconds));
+            p.addLast(new NettyConnetManageHandler(nettyServer));
+            addHttpHandlers(p);
             p.remove(this);
         } else {//处理二进制
             p.addLast(new NettyEncoder());
@@ -55,6 +91,17 @@ protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) t
 
     }
 
+    private void addHttpHandlers(ChannelPipeline p) {
+        HttpPipeliningHandler pipelining = new HttpPipeliningHandler(maxPipelined, maxPipelinedBytes);
+        p.addLast(new HttpObjectAggregator(maxContentLength));
+        p.addLast(pipelining);
+        p.addLast(new RpcxHttpHandler(nettyServer, pipelining));
+    }
+
+    private static boolean isHttp2(ByteBuf in) {
+        int i = in.readerIndex();
+        return in.getByte(i) == 'P' && in.getByte(i + 1) == 'R' && in.getByte(i + 2) == 'I';
+    }
 
     // G for GET, and P for POST
     private static boolean isHttp(int magic) {
@@ -0,0 +1,244 @@
+package com.colobu.rpcx.processor;
+
+import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.protocol.Message;
+import com.colobu.rpcx.rpc.Invoker;
+import com.colobu.rpcx.rpc.impl.Exporter;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * http网关的json编解码
+ * 请求: RpcInvocation的json,只读 parameterTypeNames/arguments/attachments,参数直接按导出方法的参数类型读
+ * (每个参数可以是json的值,也可以是json编码以后的字符串,RpcxHttpClient发的是后一种)
+ * 返回: Message的json(和 new Gson().toJson(message) 的结果一样),直接写到ByteBuf里
+ * 每个方法的参数TypeAdapter只查找一次
+ *
+ * @author goodjava@qq.com
+ */
+public class HttpJsonCodec {
+
+    private final Gson gson = new Gson();
+
+    private final TypeAdapter<String[]> namesAdapter = gson.getAdapter(String[].class);
+
+    private final TypeAdapter<Map<String, String>> mapAdapter = gson.getAdapter(new TypeToken<Map<String, String>>() {
+    });
+
+    private final TypeAdapter<byte[]> bytesAdapter = gson.getAdapter(byte[].class);
+
+    /**
+     * 方法key -> 参数的TypeAdapter
+     */
+    private final ConcurrentMap<String, MethodCodec> methods = new ConcurrentHashMap<>();
+
+
+    /**
+     * 读请求,填充invocation的参数类型,参数和attachments
+     *
+     * @return 没有导出的方法返回null(参数不会读)
+     */
+    public Invoker<Object> decodeRequest(String servicePath, String serviceMethod, ByteBuf data, RpcInvocation invocation) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteBufInputStream(data), StandardCharsets.UTF_8));
+        MethodCodec codec = null;
+        String[] names = new String[0];
+        JsonElement pendingArgs = null;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "parameterTypeNames":
+                        names = reader.peek() == JsonToken.NULL ? nextNull(reader, new String[0]) : namesAdapter.read(reader);
+                        codec = codec(servicePath, serviceMethod, names);
+                        break;
+                    case "arguments":
+                        //参数在参数类型前面的(不是RpcxHttpClient发的)先解析成树,最后再按类型读
+                        if (null != codec) {
+                            invocation.setArguments(codec.readArguments(reader));
+                        } else {
+                            pendingArgs = new JsonParser().parse(reader);
+                        }
+                        break;
+                    case "attachments":
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.nextNull();
+                        } else {
+                            invocation.getAttachments().putAll(mapAdapter.read(reader));
+                        }
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+        invocation.setParameterTypeNames(names);
+        if (null == codec) {
+            codec = codec(servicePath, serviceMethod, names);
+        }
+        if (null == codec) {
+            return null;
+        }
+        if (null == invocation.getArguments()) {
+            invocation.setArguments(codec.readArguments(null == pendingArgs ? null : new JsonReader(new StringReader(pendingArgs.toString()))));
+        }
+        invocation.setMethod(codec.invoker.getMethod());
+        invocation.setParameterTypes(codec.invoker.getMethod().getParameterTypes());
+        return codec.invoker;
+    }
+
+    /**
+     * 返回值的json(和gson.toJson(value)一样按运行时类型写,gson里有缓存)
+     */
+    @SuppressWarnings("unchecked")
+    public byte[] encodeValue(Object value) throws IOException {
+        StringWriter sw = new StringWriter();
+        JsonWriter writer = newWriter(sw);
+        if (null == value) {
+            writer.nullValue();
+        } else {
+            ((TypeAdapter<Object>) gson.getAdapter(value.getClass())).write(writer, value);
+        }
+        writer.flush();
+        return sw.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 返回的Message直接写到out里
+     */
+    public void encodeMessage(Message message, ByteBuf out) throws IOException {
+        JsonWriter writer = newWriter(new OutputStreamWriter(new ByteBufOutputStream(out), StandardCharsets.UTF_8));
+        writer.beginObject();
+        writer.name("header");
+        bytesAdapter.write(writer, message.header);
+        writer.name("servicePath").value(message.servicePath);
+        writer.name("serviceMethod").value(message.serviceMethod);
+        writer.name("metadata");
+        mapAdapter.write(writer, message.metadata);
+        writer.name("payload");
+        bytesAdapter.write(writer, message.payload);
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * 和Gson.toJson用的JsonWriter设置一样
+     */
+    private static JsonWriter newWriter(Writer out) {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setHtmlSafe(true);
+        writer.setSerializeNulls(false);
+        return writer;
+    }
+
+    private static <T> T nextNull(JsonReader reader, T value) throws IOException {
+        reader.nextNull();
+        return value;
+    }
+
+    private MethodCodec codec(String servicePath, String serviceMethod, String[] names) {
+        String key = ClassUtils.getMethodKey(servicePath, serviceMethod, names);
+        MethodCodec codec = methods.get(key);
+        if (null == codec) {
+            Invoker<Object> invoker = Exporter.invokerMap.get(key);
+            if (null == invoker || null == invoker.getMethod()) {
+                return null;
+            }
+            codec = new MethodCodec(invoker);
+            MethodCodec old = methods.putIfAbsent(key, codec);
+            if (null != old) {
+                codec = old;
+            }
+        }
+        return codec;
+    }
+
+
+    private class MethodCodec {
+
+        private final Invoker<Object> invoker;
+
+        private final TypeAdapter<?>[] adapters;
+
+        private MethodCodec(Invoker<Object> invoker) {
+            this.invoker = invoker;
+            Type[] types = invoker.getMethod().getGenericParameterTypes();
+            this.adapters = new TypeAdapter<?>[types.length];
+            for (int i = 0; i < types.length; i++) {
+                adapters[i] = gson.getAdapter(TypeToken.get(types[i]));
+            }
+        }
+
+        private Object[] readArguments(JsonReader reader) throws IOException {
+            Object[] args = new Object[adapters.length];
+            if (null == reader || reader.peek() == JsonToken.NULL) {
+                if (null != reader) {
+                    reader.nextNull();
+                }
+                if (args.length > 0) {
+                    throw new JsonSyntaxException("arguments is null");
+                }
+                return args;
+            }
+            reader.beginArray();
+            int i = 0;
+            for (; reader.hasNext(); i++) {
+                if (i >= args.length) {
+                    throw new JsonSyntaxException("too many arguments:" + invoker.getMethod());
+                }
+                if (reader.peek() == JsonToken.STRING) {
+                    //json编码以后的字符串
+                    args[i] = fromJson(adapters[i], reader.nextString());
+                } else {
+                    args[i] = adapters[i].read(reader);
+                }
+            }
+            reader.endArray();
+            if (i != args.length) {
+                throw new JsonSyntaxException("arguments size error:" + invoker.getMethod());
+            }
+            return args;
+        }
+
+        /**
+         * 和gson.fromJson(String, Type)一样(lenient,需要读完)
+         */
+        private Object fromJson(TypeAdapter<?> adapter, String json) throws IOException {
+            if (json.trim().isEmpty()) {
+                return null;
+            }
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.setLenient(true);
+            Object value = adapter.read(reader);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("JSON document was not fully consumed.");
+            }
+            return value;
+        }
+    }
+}
@@ -1,29 +1,33 @@
 package com.colobu.rpcx.processor;
 
 import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.common.Config;
+import com.colobu.rpcx.common.NamedThreadFactory;
 import com.colobu.rpcx.config.Constants;
 import com.colobu.rpcx.netty.NettyRequestProcessor;
 import com.colobu.rpcx.protocol.*;
 import com.colobu.rpcx.rpc.Invoker;
-import com.colobu.rpcx.rpc.ReflectUtils;
 import com.colobu.rpcx.rpc.Result;
 import com.colobu.rpcx.rpc.URL;
 import com.colobu.rpcx.rpc.impl.Exporter;
 import com.colobu.rpcx.rpc.impl.RpcInvocation;
-import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.http.DefaultFullHttpResponse;
-import io.netty.handler.codec.http.FullHttpResponse;
-import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
-import java.util.stream.IntStream;
-
-import static io.netty.handler.codec.http.HttpResponseStatus.OK;
-import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 /**
  * @author goodjava@qq.com
@@ -35,31 +39,38 @@ public class RpcHttpProcessor implements NettyRequestProcessor {
 
     private final Function<Class, Object> getBeanFunc;
 
+    private final HttpJsonCodec codec = new HttpJsonCodec();
+
+    /**
+     * gateway过来的请求没有带超时时间,异步方法最多等这么久
+     */
+    private final long timeout = Long.parseLong(Config.ins().get("rpcx.http.timeout", "1000"));
+
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(new NamedThreadFactory("httpTimeoutTimer", true), 10, TimeUnit.MILLISECONDS);
+
     public RpcHttpProcessor(Function<Class, Object> getBeanFunc) {
         this.getBeanFunc = getBeanFunc;
     }
 
     @Override
-    public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) {
+    public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) throws Exception {
+        try {
+            return asyncProcessRequest(ctx, request).get();
+        } catch (ExecutionException e) {
+            throw (Exception) (e.getCause() instanceof Exception ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * 异步方法不占用处理线程,future完成(或者超时)时再回写
+     */
+    @Override
+    public CompletableFuture<RemotingCommand> asyncProcessRequest(ChannelHandlerContext ctx, RemotingCommand request) {
         Message req = request.getMessage();
-        Gson gson = new Gson();
-        RpcInvocation invocation = gson.fromJson(new String(request.getMessage().payload), RpcInvocation.class);
-        String[] names = invocation.getParameterTypeNames();
-        Object[] args = invocation.getArguments();
-        invocation.setArguments(IntStream.range(0, names.length).mapToObj(i -> {
-            String name = names[i];
-            Class<?> clazz = ReflectUtils.forName(name);
-            return gson.fromJson(args[i].toString(), clazz);
-        }).toArray());
+        RpcInvocation invocation = new RpcInvocation();
         invocation.languageCode = LanguageCode.HTTP;
-
-        invocation.setClassName(request.getMessage().servicePath);
-        invocation.setMethodName(request.getMessage().serviceMethod);
-        invocation.setUrl(new URL("rpcx", "", 0));
-        invocation.url.setHost(req.metadata.get("_host"));
-        invocation.url.setPort(Integer.parseInt(req.metadata.get("_port")));
-        invocation.getAttachments().put(Constants.TRACE_ID,req.metadata.get(Constants.X_RPCX_TRACEID));
-
+        invocation.setClassName(req.getServicePath());
+        invocation.setMethodName(req.getServiceMethod());
 
         Message resMessage = new Message();
         resMessage.servicePath = invocation.getClassName();
@@ -67,56 +78,89 @@ public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand
         resMessage.setMessageType(MessageType.Response);
         resMessage.setSeq(request.getOpaque());
 
+        Invoker<Object> wrapperInvoker;
+        try {
+            //请求体直接从ByteBuf里读,参数按方法的参数类型解析
+            ByteBuf data = null != request.getData() ? request.getData() : Unpooled.wrappedBuffer(req.getPayload());
+            wrapperInvoker = codec.decodeRequest(invocation.getClassName(), invocation.getMethodName(), data, invocation);
+        } catch (IOException | JsonParseException e) {
+            logger.warn("decode http request error:{}", e.getMessage());
+            return CompletableFuture.completedFuture(sendError(resMessage, "decode request error:" + e.getMessage()));
+        }
 
-        String key = ClassUtils.getMethodKey(invocation.getClassName(), invocation.getMethodName(), invocation.getParameterTypeNames());
-        Invoker<Object> wrapperInvoker = Exporter.invokerMap.get(key);
-
+        invocation.setUrl(new URL("rpcx", "", 0));
+        invocation.url.setHost(req.getMetadata().get("_host"));
+        invocation.url.setPort(Integer.parseInt(req.getMetadata().get("_port")));
+        invocation.getAttachments().put(Constants.TRACE_ID, req.getMetadata().get(Constants.X_RPCX_TRACEID));
 
         //提供的class+method+paramType 找不到 provider
         if (null == wrapperInvoker) {
-            resMessage.metadata.put(Constants.RPCX_ERROR_CODE, String.valueOf(RemotingSysResponseCode.SYSTEM_ERROR));
-            resMessage.metadata.put(Constants.RPCX_ERROR_MESSAGE, "don't find service:" + key);
-            resMessage.setPayload(new byte[]{});
-            byte[] data = new Gson().toJson(resMessage).getBytes();
-            sendResponse(ctx, data);
-            return RemotingCommand.createResponseCommand(resMessage);
+            String key = ClassUtils.getMethodKey(invocation.getClassName(), invocation.getMethodName(), invocation.getParameterTypeNames());
+            return CompletableFuture.completedFuture(sendError(resMessage, "don't find service:" + key));
         }
 
-
+        invocation.setTimeOut(timeout);
         Result rpcResult = wrapperInvoker.invoke(invocation);
+        if (rpcResult.getValue() instanceof CompletableFuture) {
+            CompletableFuture<?> future = withTimeout((CompletableFuture<?>) rpcResult.getValue(), invocation.getTimeOut());
+            return future.handle((value, e) -> {
+                rpcResult.setValue(value);
+                if (null != e) {
+                    rpcResult.setThrowable(e instanceof CompletionException && null != e.getCause() ? e.getCause() : e);
+                }
+                return response(resMessage, rpcResult);
+            });
+        }
+        return CompletableFuture.completedFuture(response(resMessage, rpcResult));
+    }
+
+    private RemotingCommand response(Message resMessage, Result rpcResult) {
         resMessage.metadata.put(Constants.TRACE_ID, rpcResult.getAttachment(Constants.TRACE_ID));
         resMessage.metadata.put(Constants.SPAN_ID, rpcResult.getAttachment(Constants.SPAN_ID));
-        resMessage.payload = new Gson().toJson(rpcResult.getValue()).getBytes();
-
 
         if (rpcResult.hasException()) {
             logger.error(rpcResult.getException().getMessage(), rpcResult.getException());
-            resMessage.metadata.put(Constants.RPCX_ERROR_CODE, String.valueOf(RemotingSysResponseCode.SYSTEM_ERROR));
-            resMessage.metadata.put(Constants.RPCX_ERROR_MESSAGE, rpcResult.getException().getMessage());
-            resMessage.setPayload(new byte[]{});
+            return sendError(resMessage, rpcResult.getException().getMessage());
         }
 
-        RemotingCommand res = RemotingCommand.createResponseCommand(resMessage);
-
-        logger.info("message:{}", res.getMessage());
-
-        byte[] data = new Gson().toJson(res.getMessage()).getBytes();
+        try {
+            resMessage.payload = codec.encodeValue(rpcResult.getValue());
+        } catch (IOException | JsonIOException e) {
+            logger.error("encode http response error", e);
+            return sendError(resMessage, "encode response error:" + e.getMessage());
+        }
 
-        sendResponse(ctx, data);
+        logger.debug("message:{}", resMessage);
+        //返回的command由HttpPipeliningHandler按请求顺序转成http返回
+        return RemotingCommand.createResponseCommand(resMessage);
+    }
 
+    /**
+     * 超过调用的超时时间还没有完成就返回超时错误
+     */
+    private static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeoutMillis) {
+        if (future.isDone()) {
+            return future;
+        }
+        CompletableFuture<T> res = new CompletableFuture<>();
+        Timeout timeout = TIMER.newTimeout(t -> res.completeExceptionally(new TimeoutException("http request timeout:" + timeoutMillis + "ms")),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((value, e) -> {
+            timeout.cancel();
+            if (null == e) {
+                res.complete(value);
+            } else {
+                res.completeExceptionally(e);
+            }
+        });
         return res;
     }
 
-
-    private void sendResponse(ChannelHandlerContext ctx, byte[] data) {
-        FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1,
-                OK, Unpooled.wrappedBuffer(data));
-        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json");
-        response.headers().set(HttpHeaderNames.CONTENT_LENGTH,
-                response.content().readableBytes());
-        response.headers().set(HttpHeaderNames.CONNECTION, "close");
-        ctx.write(response);
-        ctx.flush();
+    private RemotingCommand sendError(Message resMessage, String message) {
+        resMessage.metadata.put(Constants.RPCX_ERROR_CODE, String.valueOf(RemotingSysResponseCode.SYSTEM_ERROR));
+        resMessage.metadata.put(Constants.RPCX_ERROR_MESSAGE, message);
+        resMessage.setPayload(new byte[]{});
+        return RemotingCommand.createResponseCommand(resMessage);
     }
 
     @Override
@@ -4,19 +4,33 @@
 import com.colobu.rpcx.config.Constants;
 import com.colobu.rpcx.netty.NettyRequestProcessor;
 import com.colobu.rpcx.protocol.LanguageCode;
+import com.colobu.rpcx.protocol.Message;
 import com.colobu.rpcx.protocol.RemotingCommand;
 import com.colobu.rpcx.protocol.RemotingSysResponseCode;
-import com.colobu.rpcx.rpc.HessianUtils;
+import com.colobu.rpcx.protocol.SerializeType;
 import com.colobu.rpcx.rpc.Invoker;
 import com.colobu.rpcx.rpc.Result;
+import com.colobu.rpcx.rpc.RpcException;
 import com.colobu.rpcx.rpc.URL;
 import com.colobu.rpcx.rpc.impl.Exporter;
+import com.colobu.rpcx.rpc.impl.MethodTable;
 import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import com.colobu.rpcx.serializer.Serializer;
+import com.colobu.rpcx.serializer.SerializerFactory;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * @author goodjava@qq.com
@@ -27,65 +41,170 @@ public class RpcProcessor implements NettyRequestProcessor {
     private static final Logger logger = LoggerFactory.getLogger(RpcProcessor.class);
 
     @Override
-    public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) throws UnsupportedEncodingException {
-        request.getMessage().decode(request.getData());
+    public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) throws Exception {
+        try {
+            return asyncProcessRequest(ctx, request).get();
+        } catch (ExecutionException e) {
+            throw (Exception) (e.getCause() instanceof Exception ? e.getCause() : e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<RemotingCommand> asyncProcessRequest(ChannelHandlerContext ctx, RemotingCommand request) {
+        request.decode();
+        Message message = request.getMessage();
 
-        String language = request.getMessage().metadata.get(Constants.LANGUAGE);
-        String className = request.getMessage().servicePath;
-        String methodName = request.getMessage().serviceMethod;
+        String language = message.getMetadataValue(Constants.LANGUAGE);
+        Invoker<Object> wrapperInvoker = null;
         RpcInvocation invocation = null;
-        //golang调用是没有language的
-        if (null == language) {
+        //直接用名字查找参数是byte[]的方法
+        Invoker<Object> rawInvoker = null == language ? Exporter.getRawInvoker(message.getServicePath(), message.getServiceMethod()) : null;
+        //golang调用是没有language的(protobuf的找不到byte[]的方法时按message参数调用)
+        if (null == language && (null != rawInvoker || SerializeType.ProtoBuffer != message.getSerializeType())) {
+            wrapperInvoker = rawInvoker;
             //golang 是没有invocation的
             invocation = new RpcInvocation();
-            invocation.setClassName(className);
-            invocation.setMethodName(methodName);
+            invocation.setClassName(message.getServicePath());
+            invocation.setMethodName(message.getServiceMethod());
             invocation.setLanguageCode(LanguageCode.GO);
-            invocation.setParameterTypeNames(new String[]{"byte[]"});
-            String path = ClassUtils.getMethodKey(className, methodName, new String[]{"byte[]"});
+            String path = ClassUtils.getMethodKey(invocation.getClassName(), invocation.getMethodName(), new String[]{"byte[]"});
             invocation.url = new URL("rpcx", "", 0, path);
             //golang 参数是byte[]
             invocation.setParameterTypeNames(new String[]{"byte[]"});
             //参数就是payload数据
-            invocation.setArguments(new Object[]{request.getMessage().payload});
+            invocation.setArguments(new Object[]{message.getPayload()});
+        } else if (SerializeType.ProtoBuffer == message.getSerializeType()) {
+            //protobuf(golang或者java调用):包体只有参数message,attachments在metadata里
+            try {
+                invocation = SerializerFactory.get(SerializeType.ProtoBuffer).decodeRequest(message.getServicePath(), message.getServiceMethod(), message.getPayloadBuf());
+            } catch (IOException e) {
+                //golang调用方需要收到错误返回
+                logger.warn("decode protobuf request error:{}", e.getMessage());
+                RemotingCommand res = request.requestToResponse();
+                res.setErrorMessage(RemotingSysResponseCode.SYSTEM_ERROR, e.getMessage());
+                return CompletableFuture.completedFuture(res);
+            }
+            Map<String, String> attachments = new HashMap<>(message.getMetadata());
+            attachments.remove(Constants.LANGUAGE);
+            invocation.setAttachments(attachments);
+            invocation.setUrl(remoteUrl(ctx, ClassUtils.getMethodKey(invocation.getClassName(), invocation.getMethodName(), invocation.getParameterTypeNames())));
+        } else if (LanguageCode.JAVA.name().equals(language) && message.isCompact()) {
+            //紧凑格式:按方法id找到导出的方法,调用信息从导出的元数据里还原
+            Serializer serializer = SerializerFactory.get(message.getSerializeType());
+            if (!serializer.supportsCompact()) {
+                logger.warn("compact request is not supported by serialize type:{} service:{}", message.getSerializeType(), message.getServicePath());
+                RemotingCommand res = request.requestToResponse();
+                res.setErrorMessage(RemotingSysResponseCode.REQUEST_CODE_NOT_SUPPORTED, "compact request is not supported by serialize type:" + message.getSerializeType());
+                return CompletableFuture.completedFuture(res);
+            }
+            ByteBuf data = message.getPayloadBuf();
+            int methodId = data.readInt();
+            MethodTable.Entry entry = Exporter.getCompactMethod(message.getServicePath(), methodId);
+            if (null == entry) {
+                logger.warn("get compact invoker is null service:{} method:{} id:{}", message.getServicePath(), message.getServiceMethod(), methodId);
+                RemotingCommand res = request.requestToResponse();
+                res.setErrorMessage(RemotingSysResponseCode.SYSTEM_ERROR, "get invoker is null service:" + message.getServicePath() + " method:" + message.getServiceMethod());
+                return CompletableFuture.completedFuture(res);
+            }
+            wrapperInvoker = entry.getInvoker();
+            invocation = compactInvocation(ctx, entry);
+            try {
+                serializer.decodeCompactRequest(invocation, data);
+            } catch (IOException e) {
+                throw new RpcException(e);
+            }
         } else if (LanguageCode.JAVA.name().equals(language)) {
-            invocation = (RpcInvocation) HessianUtils.read(request.getMessage().payload);
+            try {
+                invocation = SerializerFactory.get(message.getSerializeType()).decodeRequest(message.getServicePath(), message.getServiceMethod(), message.getPayloadBuf());
+            } catch (IOException e) {
+                throw new RpcException(e);
+            }
         }
 
-        Invoker<Object> wrapperInvoker = null;
-
-        //request -> response
-        RemotingCommand res = request.requestToResponse();
-
         String key = "";
-
-
-        if (methodName.equals(Constants.$ECHO)) {
+        if (Constants.$ECHO.equals(message.getServiceMethod())) {
             //echo
             key = Constants.$ECHO;
-        } else if (methodName.equals(Constants.$INVOKE)) {
+        } else if (Constants.$INVOKE.equals(message.getServiceMethod())) {
             //泛化调用
             key = Constants.$INVOKE;
-        } else {
-            key = ClassUtils.getMethodKey(className, methodName, invocation.getParameterTypeNames());
         }
 
-        wrapperInvoker = Exporter.invokerMap.get(key);
+        //request -> response
+        RemotingCommand res = request.requestToResponse();
+
+        if (null == wrapperInvoker) {
+            if (key.isEmpty()) {
+                key = ClassUtils.getMethodKey(message.getServicePath(), message.getServiceMethod(), invocation.getParameterTypeNames());
+            }
+            wrapperInvoker = Exporter.invokerMap.get(key);
+        }
 
         if (null == wrapperInvoker) {
             logger.warn("get invoker is null key:{}", key);
             res.setErrorMessage(RemotingSysResponseCode.SYSTEM_ERROR, "get invoker is null  key:" + key);
-            return res;
+            return CompletableFuture.completedFuture(res);
         }
 
         Result rpcResult = wrapperInvoker.invoke(invocation);
-        res.getMessage().metadata.put(Constants.TRACE_ID, rpcResult.getAttachment(Constants.TRACE_ID, ""));
-        res.getMessage().metadata.put(Constants.SPAN_ID, rpcResult.getAttachment(Constants.SPAN_ID, ""));
+        final RpcInvocation inv = invocation;
+        if (rpcResult.getValue() instanceof CompletableFuture) {
+            //异步方法:业务线程直接返回,future完成时再填充response
+            CompletableFuture<?> future = (CompletableFuture<?>) rpcResult.getValue();
+            return future.handle((value, e) -> {
+                rpcResult.setValue(value);
+                if (null != e) {
+                    rpcResult.setThrowable(e instanceof CompletionException && null != e.getCause() ? e.getCause() : e);
+                }
+                return fillResponse(res, inv, rpcResult);
+            });
+        }
+        return CompletableFuture.completedFuture(fillResponse(res, inv, rpcResult));
+    }
+
+    /**
+     * 调用信息都从分发表里取(不生成字符串)
+     */
+    private static RpcInvocation compactInvocation(ChannelHandlerContext ctx, MethodTable.Entry entry) {
+        Method method = entry.getMethod();
+        RpcInvocation invocation = new RpcInvocation();
+        invocation.setClassName(entry.getServicePath());
+        invocation.setMethodName(method.getName());
+        invocation.setMethod(method);
+        invocation.setMethodId(entry.getId());
+        invocation.setParameterTypes(entry.getParameterTypes());
+        invocation.setParameterTypeNames(entry.getParameterTypeNames());
+        invocation.setLanguageCode(LanguageCode.JAVA);
+        invocation.setUrl(remoteUrl(ctx, entry.getMethodKey()));
+        return invocation;
+    }
+
+    /**
+     * 完整格式里带的是调用方的url(调用方地址,没有参数),包体里没有url的用连接的对端地址
+     */
+    private static URL remoteUrl(ChannelHandlerContext ctx, String path) {
+        SocketAddress address = ctx.channel().remoteAddress();
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress remote = (InetSocketAddress) address;
+            return new URL("rpcx", remote.getHostString(), remote.getPort(), path);
+        }
+        return new URL("rpcx", "", 0, path);
+    }
+
+    private RemotingCommand fillResponse(RemotingCommand res, RpcInvocation invocation, Result rpcResult) {
+        res.getMessage().getMetadata().put(Constants.TRACE_ID, rpcResult.getAttachment(Constants.TRACE_ID, ""));
+        res.getMessage().getMetadata().put(Constants.SPAN_ID, rpcResult.getAttachment(Constants.SPAN_ID, ""));
+        res.getMessage().setCompact(false);
 
         if (invocation.languageCode.equals(LanguageCode.JAVA)) {
-            res.getMessage().payload = HessianUtils.write(rpcResult.getValue());
+            try {
+                //按请求的序列化方式返回(response和request是同一个header)
+                res.getMessage().setPayload(SerializerFactory.get(res.getMessage().getSerializeType()).encodeResponse(invocation, rpcResult.getValue()));
+            } catch (IOException e) {
+                rpcResult.setThrowable(e);
+            }
         } else {
-            res.getMessage().payload = (byte[]) rpcResult.getValue();
+            res.getMessage().setPayload((byte[]) rpcResult.getValue());
         }
         if (rpcResult.hasException()) {
             logger.error(rpcResult.getException().getMessage(), rpcResult.getException());
@@ -5,21 +5,25 @@
 import com.colobu.rpcx.netty.*;
 import com.colobu.rpcx.processor.RpcHttpProcessor;
 import com.colobu.rpcx.processor.RpcProcessor;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.epoll.EpollServerSocketChannel;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.*;
 import java.util.function.Function;
 
@@ -46,6 +50,12 @@ public class NettyServer extends NettyRemotingAbstract {
     private final EventLoopGroup eventLoopGroupBoss;
     private final EventLoopGroup eventLoopGroupWorker;
     private final NettyServerConfig nettyServerConfig;
+    private final Transport transport;
+
+    /**
+     * 监听的unix domain socket(rpcx.unix.socket.path,没有配置或者不支持的话为null)
+     */
+    private String unixSocketPath;
 
 
     private boolean rpcxDebug = Boolean.valueOf(Config.ins().get("rpcx.debug", "false"));
@@ -60,14 +70,10 @@ public NettyServer() {
         this.serverBootstrap = new ServerBootstrap();
 
 
-        if (useEpoll()) {
-            logger.info("----->use epollEventLoopGroup");
-            this.eventLoopGroupBoss = new EpollEventLoopGroup(1, new NamedThreadFactory("EpollNettyServerBoss_", false));
-            this.eventLoopGroupWorker = new EpollEventLoopGroup(nettyServerConfig.getServerWorkerThreads(), new NamedThreadFactory("NettyEpollServerWorker_", false));
-        } else {
-            this.eventLoopGroupBoss = new NioEventLoopGroup(1, new NamedThreadFactory("NettyServerBoss_", false));
-            this.eventLoopGroupWorker = new NioEventLoopGroup(nettyServerConfig.getServerWorkerThreads(), new NamedThreadFactory("NettyServerWorker_", false));
-        }
+        this.transport = Transport.select();
+        logger.info("----->use transport:{}", this.transport);
+        this.eventLoopGroupBoss = this.transport.newEventLoopGroup(1, new NamedThreadFactory("NettyServerBoss_", false));
+        this.eventLoopGroupWorker = this.transport.newEventLoopGroup(nettyServerConfig.getServerWorkerThreads(), new NamedThreadFactory("NettyServerWorker_", false));
 
     }
 
@@ -96,6 +102,8 @@ public void start() {
             throw new RuntimeException("this.serverBootstrap.bind().sync() InterruptedException", e1);
         }
 
+        bindUnixSocket();
+
         if (this.channelEventListener != null) {
             new Thread(this.nettyEventExecuter).start();
         }
@@ -105,6 +113,83 @@ public void start() {
         addShutdownHook();
     }
 
+    /**
+     * 同机的consumer通过unix domain socket调用,不走tcp协议栈
+     */
+    private void bindUnixSocket() {
+        bindUnixSocket(Config.ins().get("rpcx.unix.socket.path", ""));
+    }
+
+    void bindUnixSocket(String path) {
+        if (StringUtils.isEmpty(path)) {
+            return;
+        }
+        if (!this.transport.supportsDomainSocket()) {
+            logger.warn("transport {} does not support unix domain socket, ignore {}", this.transport, path);
+            return;
+        }
+        if (!removeStaleSocket(path)) {
+            return;
+        }
+        try {
+            new ServerBootstrap().group(this.eventLoopGroupBoss, this.eventLoopGroupWorker)
+                    .channel(this.transport.serverDomainSocketChannelClass())
+                    .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .childHandler(new ChannelInitializer<Channel>() {
+                        @Override
+                        public void initChannel(Channel ch) {
+                            ch.pipeline().addLast(
+                                    new RpcxProcessHandler(nettyServerConfig.getServerChannelMaxIdleTimeSeconds(), NettyServer.this)
+                            );
+                        }
+                    }).bind(new DomainSocketAddress(path)).sync();
+            this.unixSocketPath = path;
+            logger.info("###########rpc server listen unix socket:{} ", path);
+        } catch (Exception e) {
+            logger.error("bind unix socket " + path + " error", e);
+        }
+    }
+
+    /**
+     * 上次没有正常退出会留下socket文件,只有确认是socket并且已经没有人在监听才删掉
+     *
+     * @return 路径可以用来bind
+     */
+    private boolean removeStaleSocket(String path) {
+        Path file = Paths.get(path);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return true;
+        } catch (IOException e) {
+            logger.error("check unix socket " + path + " error", e);
+            return false;
+        }
+        //普通文件、目录、链接都不是socket
+        if (!attrs.isOther()) {
+            logger.error("{} exists and is not a unix socket, ignore it", path);
+            return false;
+        }
+        ChannelFuture f = new Bootstrap().group(this.eventLoopGroupWorker)
+                .channel(this.transport.domainSocketChannelClass())
+                .handler(new ChannelInboundHandlerAdapter())
+                .connect(new DomainSocketAddress(path));
+        if (f.awaitUninterruptibly(1000) && f.isSuccess()) {
+            f.channel().close();
+            logger.error("{} is in use by another server, ignore it", path);
+            return false;
+        }
+        f.channel().close();
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        } catch (IOException e) {
+            logger.error("delete stale unix socket " + path + " error", e);
+            return false;
+        }
+    }
+
     private Pair<NettyRequestProcessor, ExecutorService> createDefaultRequestProcessor() {
         ThreadPoolExecutor executor = new ThreadPoolExecutor(nettyServerConfig.getServerBizThreads(), nettyServerConfig.getServerBizThreads(),
                 0L, TimeUnit.MILLISECONDS,
@@ -146,13 +231,14 @@ private void runProcessingRequestSchedule() {
 
     private ServerBootstrap createServerBootstrap() {
         return this.serverBootstrap.group(this.eventLoopGroupBoss, this.eventLoopGroupWorker)
-                .channel(useEpoll() ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .channel(this.transport.serverSocketChannelClass())
                 .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                 .option(ChannelOption.SO_BACKLOG, 1024)
                 .option(ChannelOption.SO_REUSEADDR, true)
                 .option(ChannelOption.SO_KEEPALIVE, false)
                 .option(ChannelOption.SO_LINGER, 3)
                 .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                 .option(ChannelOption.SO_SNDBUF, nettyServerConfig.getServerSocketSndBufSize())
                 .option(ChannelOption.SO_RCVBUF, nettyServerConfig.getServerSocketRcvBufSize())
                 .localAddress(new InetSocketAddress(this.nettyServerConfig.getListenPort()))
@@ -189,6 +275,9 @@ private void addShutdownHook() {
     private void shutdown() {
         this.eventLoopGroupWorker.shutdownGracefully();
         this.eventLoopGroupBoss.shutdownGracefully();
+        if (null != this.unixSocketPath) {
+            new File(this.unixSocketPath).delete();
+        }
     }
 
     public void await() {
@@ -215,4 +304,8 @@ public String getAddr() {
     public int getPort() {
         return port;
     }
+
+    public String getUnixSocketPath() {
+        return unixSocketPath;
+    }
 }
@@ -21,10 +21,19 @@ public class ZkServiceRegister implements IServiceRegister {
     private String basePath;
     private Set<String> serviceNameSet;
     private String addr;
+    private String unixSocketPath;
 
     public ZkServiceRegister(String basePath, String addr, String providerPackage, Function<Class, Object> getBeanFunc) {
+        this(basePath, addr, null, providerPackage, getBeanFunc);
+    }
+
+    /**
+     * @param unixSocketPath 服务端监听的unix domain socket(NettyServer.getUnixSocketPath),会一起注册上去
+     */
+    public ZkServiceRegister(String basePath, String addr, String unixSocketPath, String providerPackage, Function<Class, Object> getBeanFunc) {
         this.basePath = basePath;
         this.addr = addr;
+        this.unixSocketPath = unixSocketPath;
         //导出所有有注解的service
         this.serviceNameSet = new Exporter(getBeanFunc, addr).export(providerPackage);
         logger.info("export service names:{}", this.serviceNameSet);
@@ -36,7 +45,7 @@ public ZkServiceRegister(String basePath, String addr, String providerPackage, F
     @Override
     public void register() {
         try {
-            ZkClient.ins().create(this.basePath, this.serviceNameSet, this.addr);
+            ZkClient.ins().create(this.basePath, this.serviceNameSet, this.addr, this.unixSocketPath);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -0,0 +1,86 @@
+package com.colobu.rpcx.handler;
+
+import com.colobu.rpcx.protocol.Message;
+import com.colobu.rpcx.protocol.RemotingCommand;
+import com.google.gson.Gson;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+
+public class HttpPipeliningHandlerTest {
+
+    @Test
+    public void order() {
+        HttpPipeliningHandler handler = new HttpPipeliningHandler(2);
+        EmbeddedChannel ch = new EmbeddedChannel(handler);
+        ChannelHandlerContext ctx = ch.pipeline().firstContext();
+        Assert.assertEquals(0, handler.request(ctx, true));
+        Assert.assertEquals(1, handler.request(ctx, true));
+        //没写回的请求太多,暂停读
+        Assert.assertFalse(ch.config().isAutoRead());
+        Assert.assertEquals(2, handler.request(ctx, false));
+
+        ch.writeAndFlush(response(2, "c"));
+        ch.writeAndFlush(response(1, "b"));
+        Assert.assertNull(ch.readOutbound());
+
+        ch.writeAndFlush(response(0, "a"));
+        assertResponse(ch.readOutbound(), "a", "keep-alive");
+        assertResponse(ch.readOutbound(), "b", "keep-alive");
+        assertResponse(ch.readOutbound(), "c", "close");
+        Assert.assertFalse(ch.isOpen());
+    }
+
+    @Test
+    public void resumeRead() {
+        HttpPipeliningHandler handler = new HttpPipeliningHandler(2);
+        EmbeddedChannel ch = new EmbeddedChannel(handler);
+        ChannelHandlerContext ctx = ch.pipeline().firstContext();
+        handler.request(ctx, true);
+        handler.request(ctx, true);
+        Assert.assertFalse(ch.config().isAutoRead());
+        ch.writeAndFlush(response(0, "a"));
+        Assert.assertTrue(ch.config().isAutoRead());
+        Assert.assertTrue(ch.isOpen());
+        ch.finishAndReleaseAll();
+    }
+
+    @Test
+    public void maxBytes() {
+        HttpPipeliningHandler handler = new HttpPipeliningHandler(64, 100);
+        EmbeddedChannel ch = new EmbeddedChannel(handler);
+        ChannelHandlerContext ctx = ch.pipeline().firstContext();
+        handler.request(ctx, true, 60);
+        Assert.assertTrue(ch.config().isAutoRead());
+        //请求数没到上限,但是请求体加起来太大,暂停读
+        handler.request(ctx, true, 60);
+        Assert.assertFalse(ch.config().isAutoRead());
+        ch.writeAndFlush(response(0, "a"));
+        Assert.assertTrue(ch.config().isAutoRead());
+        ch.finishAndReleaseAll();
+    }
+
+    private static RemotingCommand response(long seq, String payload) {
+        Message message = new Message();
+        message.setSeq(seq);
+        message.payload = payload.getBytes(StandardCharsets.UTF_8);
+        return RemotingCommand.createResponseCommand(message);
+    }
+
+    private static void assertResponse(Object msg, String payload, String connection) {
+        FullHttpResponse response = (FullHttpResponse) msg;
+        try {
+            Message message = new Gson().fromJson(response.content().toString(StandardCharsets.UTF_8), Message.class);
+            Assert.assertEquals(payload, new String(message.payload, StandardCharsets.UTF_8));
+            Assert.assertEquals(connection, response.headers().get(HttpHeaderNames.CONNECTION));
+        } finally {
+            response.release();
+        }
+    }
+}
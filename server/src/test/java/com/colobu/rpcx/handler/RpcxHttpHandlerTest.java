@@ -0,0 +1,91 @@
+package com.colobu.rpcx.handler;
+
+import com.colobu.rpcx.config.Constants;
+import com.colobu.rpcx.netty.NettyRequestProcessor;
+import com.colobu.rpcx.protocol.Message;
+import com.colobu.rpcx.protocol.RemotingCommand;
+import com.colobu.rpcx.protocol.RemotingSysResponseCode;
+import com.colobu.rpcx.server.NettyServer;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gson.Gson;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+
+public class RpcxHttpHandlerTest {
+
+    /**
+     * 方法名是fail的抛异常,其他的返回方法名
+     */
+    private static class Processor implements NettyRequestProcessor {
+
+        @Override
+        public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) {
+            return null;
+        }
+
+        @Override
+        public CompletableFuture<RemotingCommand> asyncProcessRequest(ChannelHandlerContext ctx, RemotingCommand request) {
+            String method = request.getMessage().getServiceMethod();
+            if ("fail".equals(method)) {
+                throw new IllegalStateException("fail");
+            }
+            RemotingCommand res = request.requestToResponse();
+            res.getMessage().setPayload(method.getBytes(StandardCharsets.UTF_8));
+            return CompletableFuture.completedFuture(res);
+        }
+
+        @Override
+        public boolean rejectRequest() {
+            return false;
+        }
+    }
+
+    @Test
+    public void errorKeepsPipelineOrder() {
+        NettyServer server = new NettyServer();
+        server.registerProcessor(1984, new Processor(), MoreExecutors.newDirectExecutorService());
+        HttpPipeliningHandler pipelining = new HttpPipeliningHandler(64);
+        EmbeddedChannel ch = new EmbeddedChannel(pipelining, new RpcxHttpHandler(server, pipelining));
+
+        ch.writeInbound(request("fail"));
+        ch.writeInbound(request("ok"));
+
+        //出错的请求也要按顺序回一个错误,后面的请求不能卡住
+        Message error = response(ch.readOutbound());
+        Assert.assertEquals(String.valueOf(RemotingSysResponseCode.SYSTEM_ERROR), error.getMetadataValue(Constants.RPCX_ERROR_CODE));
+        Assert.assertEquals("fail", error.getServiceMethod());
+        Message ok = response(ch.readOutbound());
+        Assert.assertEquals("ok", new String(ok.payload, StandardCharsets.UTF_8));
+        Assert.assertTrue(ch.config().isAutoRead());
+        ch.finishAndReleaseAll();
+    }
+
+    private static FullHttpRequest request(String method) {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/");
+        request.headers().set(Constants.X_RPCX_SERVICEPATH, "RpcxHttpHandlerTest");
+        request.headers().set(Constants.X_RPCX_SERVICEMETHOD, method);
+        request.headers().set("X-Real-IP", "127.0.0.1");
+        return request;
+    }
+
+    private static Message response(Object msg) {
+        Assert.assertNotNull(msg);
+        FullHttpResponse response = (FullHttpResponse) msg;
+        try {
+            return new Gson().fromJson(response.content().toString(StandardCharsets.UTF_8), Message.class);
+        } finally {
+            response.release();
+        }
+    }
+}
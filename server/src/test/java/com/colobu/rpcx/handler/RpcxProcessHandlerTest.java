@@ -0,0 +1,52 @@
+package com.colobu.rpcx.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2MultiplexCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+
+public class RpcxProcessHandlerTest {
+
+    @Test
+    public void h2c() {
+        EmbeddedChannel ch = new EmbeddedChannel(new RpcxProcessHandler(60, null));
+        //连接前言 + 空的SETTINGS帧
+        ByteBuf preface = Unpooled.buffer();
+        preface.writeBytes(Http2CodecUtil.connectionPrefaceBuf());
+        preface.writeBytes(new byte[]{0, 0, 0, 4, 0, 0, 0, 0, 0});
+        ch.writeInbound(preface);
+
+        Assert.assertNull(ch.pipeline().get(RpcxProcessHandler.class));
+        Assert.assertNotNull(ch.pipeline().get(Http2MultiplexCodec.class));
+        Assert.assertNull(ch.pipeline().get(HttpServerCodec.class));
+
+        //服务端回自己的SETTINGS帧
+        ByteBuf settings = ch.readOutbound();
+        try {
+            Assert.assertNotNull(settings);
+            Assert.assertEquals(4, settings.getByte(settings.readerIndex() + 3));
+        } finally {
+            settings.release();
+        }
+        ch.finishAndReleaseAll();
+    }
+
+    @Test
+    public void http1() {
+        EmbeddedChannel ch = new EmbeddedChannel(new RpcxProcessHandler(60, null));
+        ch.writeInbound(Unpooled.copiedBuffer("POST / HTTP/1.1\r\n", StandardCharsets.US_ASCII));
+        Assert.assertNull(ch.pipeline().get(RpcxProcessHandler.class));
+        Assert.assertNotNull(ch.pipeline().get(HttpServerCodec.class));
+        Assert.assertNotNull(ch.pipeline().get(HttpObjectAggregator.class));
+        Assert.assertNull(ch.pipeline().get(Http2MultiplexCodec.class));
+        ch.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,116 @@
+package com.colobu.rpcx.processor;
+
+import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.protocol.Message;
+import com.colobu.rpcx.protocol.MessageType;
+import com.colobu.rpcx.rpc.Invoker;
+import com.colobu.rpcx.rpc.impl.Exporter;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import com.colobu.rpcx.rpc.impl.RpcProviderInvoker;
+import com.google.gson.Gson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+public class HttpJsonCodecTest {
+
+    public static class Item {
+        public String name;
+        public int count;
+    }
+
+    public static class Service {
+        public int sum(List<Item> items, String prefix, int base) {
+            return 0;
+        }
+    }
+
+    private final HttpJsonCodec codec = new HttpJsonCodec();
+
+    private static final String[] NAMES = new String[]{"java.util.List", "java.lang.String", "int"};
+
+    static {
+        try {
+            Method method = Service.class.getMethod("sum", List.class, String.class, int.class);
+            Invoker<Object> invoker = new RpcProviderInvoker<>(null);
+            invoker.setMethod(method);
+            Exporter.invokerMap.put(ClassUtils.getMethodKey("Service", "sum", ClassUtils.getMethodParameterNames(method)), invoker);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * RpcxHttpClient 发的格式:参数是json编码以后的字符串
+     */
+    @Test
+    public void request() throws Exception {
+        Gson gson = new Gson();
+        RpcInvocation req = new RpcInvocation();
+        req.setClassName("Service");
+        req.setMethodName("sum");
+        req.setParameterTypeNames(NAMES);
+        req.setArguments(new Object[]{"[{\"name\":\"a\",\"count\":2}]", gson.toJson("x"), "3"});
+        req.getAttachments().put("token", "t");
+
+        RpcInvocation invocation = new RpcInvocation();
+        Invoker<Object> invoker = codec.decodeRequest("Service", "sum", buf(gson.toJson(req)), invocation);
+        Assert.assertNotNull(invoker);
+        Assert.assertEquals("t", invocation.getAttachment("token"));
+        Assert.assertArrayEquals(NAMES, invocation.getParameterTypeNames());
+        Item item = (Item) ((List<?>) invocation.getArguments()[0]).get(0);
+        Assert.assertEquals("a", item.name);
+        Assert.assertEquals(2, item.count);
+        Assert.assertEquals("x", invocation.getArguments()[1]);
+        Assert.assertEquals(3, invocation.getArguments()[2]);
+    }
+
+    /**
+     * 参数是json的值,参数在参数类型的前面
+     */
+    @Test
+    public void rawArguments() throws Exception {
+        String json = "{\"arguments\":[[{\"name\":\"b\"}],null,4],\"parameterTypeNames\":[\"java.util.List\",\"java.lang.String\",\"int\"]}";
+        RpcInvocation invocation = new RpcInvocation();
+        Assert.assertNotNull(codec.decodeRequest("Service", "sum", buf(json), invocation));
+        Assert.assertEquals("b", ((Item) ((List<?>) invocation.getArguments()[0]).get(0)).name);
+        Assert.assertNull(invocation.getArguments()[1]);
+        Assert.assertEquals(4, invocation.getArguments()[2]);
+
+        Assert.assertNull(codec.decodeRequest("Service", "nope", buf("{\"parameterTypeNames\":[],\"arguments\":[]}"), new RpcInvocation()));
+    }
+
+    /**
+     * 返回的json和原来的 new Gson().toJson(message) 一样
+     */
+    @Test
+    public void response() throws Exception {
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("a", Arrays.asList(1, "<b>"));
+        Message message = new Message();
+        message.servicePath = "Service";
+        message.serviceMethod = "sum";
+        message.setMessageType(MessageType.Response);
+        message.setSeq(7);
+        message.metadata.put("traceId", "t=1");
+        message.metadata.put("spanId", null);
+        message.payload = codec.encodeValue(value);
+        Assert.assertEquals(new Gson().toJson(value), new String(message.payload, StandardCharsets.UTF_8));
+
+        ByteBuf out = Unpooled.buffer();
+        codec.encodeMessage(message, out);
+        Assert.assertEquals(new Gson().toJson(message), out.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals("null", new String(codec.encodeValue(null), StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuf buf(String json) {
+        return Unpooled.wrappedBuffer(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
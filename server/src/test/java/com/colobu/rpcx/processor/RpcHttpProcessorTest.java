@@ -0,0 +1,87 @@
+package com.colobu.rpcx.processor;
+
+import com.colobu.rpcx.common.ClassUtils;
+import com.colobu.rpcx.config.Constants;
+import com.colobu.rpcx.protocol.Message;
+import com.colobu.rpcx.protocol.RemotingCommand;
+import com.colobu.rpcx.rpc.Invoker;
+import com.colobu.rpcx.rpc.impl.Exporter;
+import com.colobu.rpcx.rpc.impl.RpcProviderInvoker;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class RpcHttpProcessorTest {
+
+    public static class Service {
+
+        static final CompletableFuture<String> PENDING = new CompletableFuture<>();
+
+        public String hello(String name) {
+            return "hello " + name;
+        }
+
+        public CompletableFuture<String> helloAsync(String name) {
+            return CompletableFuture.supplyAsync(() -> "async " + name);
+        }
+
+        public CompletableFuture<String> never(String name) {
+            return PENDING;
+        }
+    }
+
+    static {
+        for (String name : new String[]{"hello", "helloAsync", "never"}) {
+            try {
+                Method method = Service.class.getMethod(name, String.class);
+                Invoker<Object> invoker = new RpcProviderInvoker<>(null);
+                invoker.setInterface(Service.class);
+                invoker.setMethod(method);
+                Exporter.invokerMap.put(ClassUtils.getMethodKey("HttpService", name, ClassUtils.getMethodParameterNames(method)), invoker);
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private final RpcHttpProcessor processor = new RpcHttpProcessor(null);
+
+    @Test
+    public void sync() throws Exception {
+        Message res = processor.asyncProcessRequest(null, request("hello")).get(1, TimeUnit.SECONDS).getMessage();
+        Assert.assertEquals("\"hello a\"", new String(res.payload, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void async() throws Exception {
+        CompletableFuture<RemotingCommand> future = processor.asyncProcessRequest(null, request("helloAsync"));
+        Message res = future.get(1, TimeUnit.SECONDS).getMessage();
+        Assert.assertNull(res.getMetadataValue(Constants.RPCX_ERROR_CODE));
+        Assert.assertEquals("\"async a\"", new String(res.payload, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        //future一直不完成,按调用的超时时间返回错误
+        CompletableFuture<RemotingCommand> future = processor.asyncProcessRequest(null, request("never"));
+        Assert.assertFalse(future.isDone());
+        Message res = future.get(5, TimeUnit.SECONDS).getMessage();
+        Assert.assertNotNull(res.getMetadataValue(Constants.RPCX_ERROR_CODE));
+        Assert.assertTrue(res.getMetadataValue(Constants.RPCX_ERROR_MESSAGE).contains("timeout"));
+    }
+
+    private static RemotingCommand request(String method) {
+        Message message = new Message("HttpService", method);
+        message.metadata.put("_host", "127.0.0.1");
+        message.metadata.put("_port", "0");
+        message.payload = "{\"parameterTypeNames\":[\"java.lang.String\"],\"arguments\":[\"\\\"a\\\"\"]}".getBytes(StandardCharsets.UTF_8);
+        return RemotingCommand.createRequestCommand(message);
+    }
+}
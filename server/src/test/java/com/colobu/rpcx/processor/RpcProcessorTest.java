@@ -0,0 +1,61 @@
+package com.colobu.rpcx.processor;
+
+import com.colobu.rpcx.config.Constants;
+import com.colobu.rpcx.protocol.LanguageCode;
+import com.colobu.rpcx.protocol.Message;
+import com.colobu.rpcx.protocol.RemotingCommand;
+import com.colobu.rpcx.protocol.RemotingSysResponseCode;
+import com.colobu.rpcx.protocol.SerializeType;
+import com.colobu.rpcx.rpc.impl.RpcInvocation;
+import com.colobu.rpcx.serializer.Serializer;
+import com.colobu.rpcx.serializer.SerializerFactory;
+import io.netty.buffer.ByteBuf;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class RpcProcessorTest {
+
+    /**
+     * 不支持紧凑格式的序列化
+     */
+    private static class FullOnly implements Serializer {
+
+        @Override
+        public byte[] encodeRequest(RpcInvocation invocation) {
+            return new byte[0];
+        }
+
+        @Override
+        public RpcInvocation decodeRequest(String servicePath, String serviceMethod, ByteBuf data) {
+            return new RpcInvocation();
+        }
+
+        @Override
+        public byte[] encodeResponse(RpcInvocation invocation, Object value) {
+            return new byte[0];
+        }
+
+        @Override
+        public Object decodeResponse(RpcInvocation invocation, ByteBuf data) {
+            return null;
+        }
+    }
+
+    @Test
+    public void compactNotSupported() throws Exception {
+        SerializerFactory.register(SerializeType.Thrift, new FullOnly());
+        Message req = new Message("RpcProcessorTest", "mul");
+        req.setSerializeType(SerializeType.Thrift);
+        req.setCompact(true);
+        req.metadata.put(Constants.LANGUAGE, LanguageCode.JAVA.name());
+        req.payload = new byte[]{0, 0, 0, 1};
+
+        //回一个错误,而不是在业务线程里抛异常
+        RemotingCommand res = new RpcProcessor().asyncProcessRequest(null, RemotingCommand.createRequestCommand(req)).get();
+        Assert.assertEquals(String.valueOf(RemotingSysResponseCode.REQUEST_CODE_NOT_SUPPORTED), res.getMessage().getMetadataValue(Constants.RPCX_ERROR_CODE));
+        Assert.assertTrue(res.getMessage().getMetadataValue(Constants.RPCX_ERROR_MESSAGE).contains("compact"));
+    }
+}
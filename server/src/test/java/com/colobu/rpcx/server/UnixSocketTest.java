@@ -0,0 +1,84 @@
+package com.colobu.rpcx.server;
+
+import com.colobu.rpcx.netty.Transport;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.channel.unix.Socket;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Created by goodjava@qq.com.
+ */
+public class UnixSocketTest {
+
+    @Test
+    public void advertise() throws Exception {
+        if (!Transport.select().supportsDomainSocket()) {
+            return;
+        }
+        String path = tempPath();
+        NettyServer server = new NettyServer();
+        server.bindUnixSocket(path);
+        try {
+            //bind成功以后才会注册出去
+            Assert.assertEquals(path, server.getUnixSocketPath());
+            Assert.assertTrue(new File(path).exists());
+
+            //已经有人在监听的socket不能抢
+            NettyServer other = new NettyServer();
+            other.bindUnixSocket(path);
+            Assert.assertNull(other.getUnixSocketPath());
+            Assert.assertTrue(new File(path).exists());
+        } finally {
+            new File(path).delete();
+        }
+    }
+
+    @Test
+    public void notSocket() throws Exception {
+        if (!Transport.select().supportsDomainSocket()) {
+            return;
+        }
+        File file = File.createTempFile("rpcx", ".sock");
+        Files.write(file.toPath(), "data".getBytes(StandardCharsets.UTF_8));
+        try {
+            //配错成普通文件的时候不能删掉
+            NettyServer server = new NettyServer();
+            server.bindUnixSocket(file.getPath());
+            Assert.assertNull(server.getUnixSocketPath());
+            Assert.assertEquals("data", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void staleSocket() throws Exception {
+        if (!Transport.select().supportsDomainSocket()) {
+            return;
+        }
+        //上次没有正常退出留下的socket文件
+        String path = tempPath();
+        Socket socket = Socket.newSocketDomain();
+        socket.bind(new DomainSocketAddress(path));
+        socket.close();
+        Assert.assertTrue(new File(path).exists());
+        try {
+            NettyServer server = new NettyServer();
+            server.bindUnixSocket(path);
+            Assert.assertEquals(path, server.getUnixSocketPath());
+        } finally {
+            new File(path).delete();
+        }
+    }
+
+    private static String tempPath() throws Exception {
+        File file = File.createTempFile("rpcx", ".sock");
+        file.delete();
+        return file.getPath();
+    }
+}